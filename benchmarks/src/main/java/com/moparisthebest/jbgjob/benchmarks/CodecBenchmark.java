@@ -0,0 +1,69 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.benchmarks;
+
+import com.moparisthebest.jbgjob.Codec;
+import com.moparisthebest.jbgjob.RedisScheduler;
+import com.moparisthebest.jbgjob.ScheduledItem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a ScheduledItem with each of the Codecs RedisScheduler and RedisThread can use
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({"json", "smile", "cbor", "compact"})
+	public String codecName;
+
+	private Codec codec;
+	private final ScheduledItem<BenchDTO> scheduledItem = new ScheduledItem<BenchDTO>(NoopJob.class, new BenchDTO("default test message", 5000, false));
+	private byte[] encoded;
+
+	@Setup
+	public void setUp() throws Exception {
+		codec = RedisScheduler.codec(codecName);
+		encoded = codec.encode(scheduledItem);
+	}
+
+	@Benchmark
+	public byte[] encode() throws Exception {
+		return codec.encode(scheduledItem);
+	}
+
+	@Benchmark
+	public ScheduledItem decode() throws Exception {
+		return codec.decode(encoded, 0, encoded.length);
+	}
+
+	@Benchmark
+	public ScheduledItem roundTrip() throws Exception {
+		final byte[] encoded = codec.encode(scheduledItem);
+		return codec.decode(encoded, 0, encoded.length);
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.benchmarks;
+
+import com.moparisthebest.jbgjob.BackgroundJob;
+
+/**
+ * Does nothing, so benchmarks measure only the overhead of getting it run
+ */
+public class NoopJob implements BackgroundJob<BenchDTO> {
+	@Override
+	public void process(final BenchDTO dto) {
+		if (dto.isThrowException())
+			throw new RuntimeException("asked to throw: " + dto);
+	}
+}
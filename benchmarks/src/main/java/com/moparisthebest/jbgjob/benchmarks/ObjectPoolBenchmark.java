@@ -0,0 +1,64 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.benchmarks;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.pool.ThreadLocalObjectPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One get and release from each of 8 threads at once, all for the same Class, which is the worst case for contention
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ObjectPoolBenchmark {
+
+	@Param({"synchronized", "concurrent", "threadLocal"})
+	public String poolType;
+
+	private ObjectPool pool;
+
+	@Setup
+	public void setUp() {
+		if ("synchronized".equals(poolType))
+			pool = new SynchronizedObjectPool(8);
+		else if ("concurrent".equals(poolType))
+			pool = new ObjectPool(8);
+		else if ("threadLocal".equals(poolType))
+			pool = new ThreadLocalObjectPool();
+		else
+			throw new IllegalArgumentException("unknown poolType: " + poolType);
+	}
+
+	@Benchmark
+	public Object getRelease() throws Exception {
+		final NoopJob job = pool.getResource(NoopJob.class);
+		pool.releaseResource(job);
+		return job;
+	}
+}
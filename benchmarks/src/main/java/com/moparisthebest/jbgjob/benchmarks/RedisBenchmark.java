@@ -0,0 +1,101 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.benchmarks;
+
+import com.moparisthebest.jbgjob.RedisScheduler;
+import com.moparisthebest.jbgjob.ScheduledItem;
+import com.moparisthebest.jbgjob.ScheduledItemExecutor;
+import com.moparisthebest.jbgjob.processor.PolledItem;
+import com.moparisthebest.jbgjob.processor.RedisThread;
+import org.openjdk.jmh.annotations.*;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduling into, and polling and deserializing out of, a real redis on redis.host (default localhost), something
+ * like docker run -p 6379:6379 redis works fine.  Everything uses its own queue prefix, which is deleted afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisBenchmark {
+
+	private static final String benchQueuePrefix = "jbgjob-benchmark-", benchQueue = "bench";
+
+	private final BenchDTO dto = new BenchDTO("default test message", 5000, false);
+	private RedisScheduler scheduler;
+	private Poller poller;
+
+	/**
+	 * Exposes a single poll and deserialize, without running the job
+	 */
+	public static class Poller extends RedisThread {
+		public Poller() {
+			super(benchQueue, new ScheduledItemExecutor(1), benchQueuePrefix);
+		}
+
+		public ScheduledItem poll() throws Exception {
+			Jedis jedis = null;
+			try {
+				jedis = pool.getResource();
+				final PolledItem polledItem = pollRedisNoWait(jedis, this.queue);
+				return polledItem == null ? null : deserialize(polledItem);
+			} finally {
+				tryReturn(jedis);
+			}
+		}
+
+		public void clear() {
+			deleteQueue(this.queue);
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		scheduler = new RedisScheduler(benchQueuePrefix);
+		poller = new Poller();
+		poller.clear();
+		if (!scheduler.schedule(benchQueue, NoopJob.class, dto))
+			throw new IllegalStateException("no redis at redis.host: " + System.getProperty("redis.host", "localhost"));
+	}
+
+	@TearDown
+	public void tearDown() {
+		poller.clear();
+		poller.close();
+		scheduler.close();
+	}
+
+	@Benchmark
+	public boolean schedule() {
+		return scheduler.schedule(benchQueue, NoopJob.class, dto);
+	}
+
+	@Benchmark
+	public ScheduledItem scheduleThenPoll() throws Exception {
+		scheduler.schedule(benchQueue, NoopJob.class, dto);
+		return poller.poll();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.benchmarks;
+
+import com.moparisthebest.jbgjob.SaturationPolicy;
+import com.moparisthebest.jbgjob.ScheduledItem;
+import com.moparisthebest.jbgjob.ScheduledItemExecutor;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jobs per second through a ScheduledItemExecutor from a single producer, waiting for every one to finish or be
+ * rejected, when blocking or rejecting as it saturates, and with or without thread confined pools.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduledItemExecutorBenchmark {
+
+	private static final int jobs = 1000;
+
+	@Param({"block", "reject"})
+	public String saturationPolicy;
+
+	@Param({"false", "true"})
+	public boolean threadConfined;
+
+	@Param({"4"})
+	public int numThreads;
+
+	private ScheduledItemExecutor executor;
+	private final BenchDTO dto = new BenchDTO("bench", 0, false);
+	private volatile CountDownLatch done;
+	private final ExecutionResult result = new ExecutionResult() {
+		@Override
+		public void success() {
+			done.countDown();
+		}
+
+		@Override
+		public void error(final Throwable e) {
+			done.countDown();
+		}
+	};
+
+	@Setup
+	public void setUp() {
+		executor = new ScheduledItemExecutor(numThreads, SaturationPolicy.forName(saturationPolicy),
+				ScheduledItemExecutor.newObjectPool(numThreads, threadConfined));
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(jobs)
+	public void execute() throws InterruptedException {
+		final CountDownLatch done = this.done = new CountDownLatch(jobs);
+		for (int x = 0; x < jobs; ++x)
+			try {
+				executor.execute(new ScheduledItem<BenchDTO>(NoopJob.class, dto), result);
+			} catch (RejectedExecutionException e) {
+				// result was already told, which counted it down
+			}
+		done.await();
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.benchmarks;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The original ObjectPool, one HashMap of unbounded ArrayDeques behind a single lock, kept only as a baseline to
+ * compare the current pools against.
+ */
+public class SynchronizedObjectPool extends ObjectPool {
+
+	protected final Map<Class, Deque> synchronizedPool = new HashMap<Class, Deque>();
+
+	public SynchronizedObjectPool() {
+		this(16);
+	}
+
+	public SynchronizedObjectPool(int queueSize) {
+		super(queueSize);
+	}
+
+	@Override
+	@SuppressWarnings({"unchecked"})
+	public <T> T getResource(Class<T> obClass) throws IllegalAccessException, InstantiationException {
+		if (obClass == null)
+			throw new NullPointerException("Class cannot be null!");
+		synchronized (synchronizedPool) {
+			Deque deque = synchronizedPool.get(obClass);
+			if (deque == null) {
+				deque = new ArrayDeque(queueSize);
+				synchronizedPool.put(obClass, deque);
+			}
+			return deque.isEmpty() ? obClass.newInstance() : (T) deque.pop();
+		}
+	}
+
+	@Override
+	@SuppressWarnings({"unchecked"})
+	public <T> void releaseResource(T resource) {
+		if (resource == null)
+			throw new NullPointerException("Released resource cannot be null!");
+		synchronized (synchronizedPool) {
+			synchronizedPool.get(resource.getClass()).push(resource);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SynchronizedObjectPool{" +
+				"synchronizedPool=" + synchronizedPool +
+				"} " + super.toString();
+	}
+}
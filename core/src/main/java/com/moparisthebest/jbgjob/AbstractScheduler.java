@@ -20,6 +20,12 @@
 
 package com.moparisthebest.jbgjob;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public abstract class AbstractScheduler implements Scheduler {
 
 	public static final String defaultQueue = defaultIfEmpty(System.getProperty("scheduler.default.queue"), "default");
@@ -51,6 +57,92 @@ public abstract class AbstractScheduler implements Scheduler {
 		return true;
 	}
 
+	@Override
+	public <T> boolean[] scheduleAll(final Class<? extends BackgroundJob<T>> bgClass, final Collection<? extends T> dtos) {
+		return scheduleAll(defaultQueue, bgClass, dtos);
+	}
+
+	@Override
+	public <T> boolean[] scheduleAll(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final Collection<? extends T> dtos) {
+		if (queue == null || bgClass == null || dtos == null)
+			throw new NullPointerException("No parameters can be null!");
+		final List<ScheduledItem<T>> scheduledItems = new ArrayList<ScheduledItem<T>>(dtos.size());
+		for (final T dto : dtos) {
+			if (dto == null)
+				throw new NullPointerException("No parameters can be null!");
+			scheduledItems.add(new ScheduledItem<T>(bgClass, dto));
+		}
+		return scheduleAll(queue, scheduledItems);
+	}
+
+	/**
+	 * Schedules each one at a time, implementations should override this with something more efficient
+	 */
+	@Override
+	public boolean[] scheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		checkScheduleAll(queue, scheduledItems);
+		final boolean[] ret = new boolean[scheduledItems.size()];
+		int x = 0;
+		for (final ScheduledItem<?> scheduledItem : scheduledItems)
+			ret[x++] = schedule(queue, scheduledItem);
+		return ret;
+	}
+
+	protected static void checkScheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		if (queue == null || scheduledItems == null || scheduledItems.contains(null))
+			throw new NullPointerException("No parameters can be null!");
+	}
+
+	@Override
+	public <T> boolean schedule(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final T dto, final Instant runAt) {
+		if (queue == null || bgClass == null || dto == null || runAt == null)
+			throw new NullPointerException("No parameters can be null!");
+		return schedule(queue, new ScheduledItem<T>(bgClass, dto), runAt);
+	}
+
+	@Override
+	public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem, final Instant runAt) {
+		if (queue == null || scheduledItem == null || runAt == null)
+			throw new NullPointerException("No parameters can be null!");
+		final long runAtMillis = runAt.toEpochMilli();
+		return runAtMillis <= System.currentTimeMillis() ? schedule(queue, scheduledItem) : scheduleDelayed(queue, scheduledItem, runAtMillis);
+	}
+
+	/**
+	 * Implement to support delayed jobs, only called with runAtMillis in the future
+	 */
+	protected <T> boolean scheduleDelayed(final String queue, final ScheduledItem<T> scheduledItem, final long runAtMillis) {
+		throw new UnsupportedOperationException(getClass().getName() + " does not support delayed jobs");
+	}
+
+	@Override
+	public <T> CompletableFuture<Boolean> scheduleAsync(final Class<? extends BackgroundJob<T>> bgClass, final T dto) {
+		return scheduleAsync(defaultQueue, bgClass, dto);
+	}
+
+	@Override
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final T dto) {
+		if (queue == null || bgClass == null || dto == null)
+			throw new NullPointerException("No parameters can be null!");
+		return scheduleAsync(queue, new ScheduledItem<T>(bgClass, dto));
+	}
+
+	/**
+	 * Schedules it right away, override to do it without blocking
+	 */
+	@Override
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final ScheduledItem<T> scheduledItem) {
+		if (queue == null || scheduledItem == null)
+			throw new NullPointerException("No parameters can be null!");
+		try {
+			return CompletableFuture.completedFuture(schedule(queue, scheduledItem));
+		} catch (Throwable e) {
+			final CompletableFuture<Boolean> ret = new CompletableFuture<Boolean>();
+			ret.completeExceptionally(e);
+			return ret;
+		}
+	}
+
 	@Override
 	public void close() {
 		//nothing to close here
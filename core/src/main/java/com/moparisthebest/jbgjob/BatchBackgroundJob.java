@@ -0,0 +1,40 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import java.util.List;
+
+/**
+ * A BackgroundJob that can process many DTOs in one call, for jobs where that is much cheaper than one at a time, like
+ * a bulk database insert.  It is scheduled exactly like any other BackgroundJob, ScheduledItemExecutor groups waiting
+ * items with the same BatchBackgroundJob class into batches of up to a maximum size, waiting up to a maximum linger time
+ * for a batch to fill.
+ * <p/>
+ * If process(List) throws, every DTO in that batch is reported as an error.
+ */
+public interface BatchBackgroundJob<T> extends BackgroundJob<T> {
+	/**
+	 * Process these DTOs now, in this thread.
+	 *
+	 * @param dtos dtos to be processed, never empty
+	 */
+	public void process(List<T> dtos);
+}
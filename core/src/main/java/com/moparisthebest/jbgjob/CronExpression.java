@@ -0,0 +1,184 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * Standard 5 field cron expression: minute hour day-of-month month day-of-week
+ * <p/>
+ * Each field is *, a value, a range a-b, or a list of those separated by commas, any of which can have a step like
+ * 0-59/15 or 1-30/2, a step after * steps through the whole field.  Months and days of the week can be given as JAN-DEC and SUN-SAT, Sunday is
+ * both 0 and 7.  As in cron, if both day-of-month and day-of-week are restricted a day matching either one fires.
+ * The macros @yearly, @annually, @monthly, @weekly, @daily, @midnight, and @hourly are understood too.
+ */
+public class CronExpression {
+
+	private static final String[] months = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+	private static final String[] days = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+	// how far ahead to look for a match before deciding there is none, like Feb 30
+	private static final int maxYears = 5;
+
+	public final String expression;
+
+	private final BitSet minutes, hours, daysOfMonth, monthsOfYear, daysOfWeek;
+	private final boolean anyDayOfMonth, anyDayOfWeek;
+
+	private CronExpression(final String expression) {
+		this.expression = expression;
+		final String[] fields = macro(expression.trim()).split("\\s+");
+		if (fields.length != 5)
+			throw new IllegalArgumentException("cron expression must have 5 fields: '" + expression + "'");
+		this.minutes = parseField(fields[0], 0, 59, null, 0);
+		this.hours = parseField(fields[1], 0, 23, null, 0);
+		this.daysOfMonth = parseField(fields[2], 1, 31, null, 0);
+		this.monthsOfYear = parseField(fields[3], 1, 12, months, 1);
+		this.daysOfWeek = parseField(fields[4], 0, 7, days, 0);
+		if (this.daysOfWeek.get(7))
+			this.daysOfWeek.set(0);
+		this.anyDayOfMonth = fields[2].startsWith("*");
+		this.anyDayOfWeek = fields[4].startsWith("*");
+	}
+
+	/**
+	 * @throws IllegalArgumentException if expression is not valid
+	 */
+	public static CronExpression parse(final String expression) {
+		if (expression == null)
+			throw new NullPointerException("expression cannot be null!");
+		return new CronExpression(expression);
+	}
+
+	private static String macro(final String expression) {
+		switch (expression.toLowerCase(Locale.ROOT)) {
+			case "@yearly":
+			case "@annually":
+				return "0 0 1 1 *";
+			case "@monthly":
+				return "0 0 1 * *";
+			case "@weekly":
+				return "0 0 * * 0";
+			case "@daily":
+			case "@midnight":
+				return "0 0 * * *";
+			case "@hourly":
+				return "0 * * * *";
+			default:
+				return expression;
+		}
+	}
+
+	private static BitSet parseField(final String field, final int min, final int max, final String[] names, final int firstName) {
+		final BitSet ret = new BitSet(max + 1);
+		for (final String part : field.split(",")) {
+			final int slash = part.indexOf('/');
+			final String range = slash < 0 ? part : part.substring(0, slash);
+			final int step = slash < 0 ? 1 : parseValue(part.substring(slash + 1), 1, max, null, 0, field);
+			final int start, end;
+			if ("*".equals(range)) {
+				start = min;
+				end = max;
+			} else {
+				final int dash = range.indexOf('-');
+				if (dash < 0) {
+					start = parseValue(range, min, max, names, firstName, field);
+					// a/n means from a to the end
+					end = slash < 0 ? start : max;
+				} else {
+					start = parseValue(range.substring(0, dash), min, max, names, firstName, field);
+					end = parseValue(range.substring(dash + 1), min, max, names, firstName, field);
+				}
+			}
+			if (start > end)
+				throw new IllegalArgumentException("invalid range in cron field: '" + field + "'");
+			for (int x = start; x <= end; x += step)
+				ret.set(x);
+		}
+		return ret;
+	}
+
+	private static int parseValue(final String value, final int min, final int max, final String[] names, final int firstName, final String field) {
+		if (names != null)
+			for (int x = 0; x < names.length; ++x)
+				if (names[x].equalsIgnoreCase(value))
+					return x + firstName;
+		final int ret;
+		try {
+			ret = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid value '" + value + "' in cron field: '" + field + "'", e);
+		}
+		if (ret < min || ret > max)
+			throw new IllegalArgumentException("value '" + value + "' out of range " + min + "-" + max + " in cron field: '" + field + "'");
+		return ret;
+	}
+
+	private boolean matchesDay(final ZonedDateTime time) {
+		final boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+		final boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+		if (anyDayOfMonth || anyDayOfWeek)
+			return dayOfMonth && dayOfWeek;
+		return dayOfMonth || dayOfWeek;
+	}
+
+	/**
+	 * @return the first time strictly after after that this matches
+	 * @throws IllegalArgumentException if this never matches, like 0 0 30 2 *
+	 */
+	public ZonedDateTime next(final ZonedDateTime after) {
+		ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+		final int lastYear = time.getYear() + maxYears;
+		while (time.getYear() <= lastYear) {
+			if (!monthsOfYear.get(time.getMonthValue())) {
+				time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+			} else if (!matchesDay(time)) {
+				time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+			} else if (!hours.get(time.getHour())) {
+				time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+			} else if (!minutes.get(time.getMinute())) {
+				time = time.plusMinutes(1);
+			} else {
+				return time;
+			}
+		}
+		throw new IllegalArgumentException("cron expression never matches: '" + expression + "'");
+	}
+
+	/**
+	 * @return epoch millis of the first time strictly after afterMillis that this matches in zone
+	 */
+	public long next(final long afterMillis, final ZoneId zone) {
+		return next(ZonedDateTime.ofInstant(Instant.ofEpochMilli(afterMillis), zone)).toInstant().toEpochMilli();
+	}
+
+	@Override
+	public String toString() {
+		return "CronExpression{" +
+				"expression='" + expression + '\'' +
+				'}';
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides what ScheduledItemExecutor does with a job when all of its Threads are busy and its wait queue is full.
+ * <p/>
+ * Each instance counts how many times it fired, so create a new one per ScheduledItemExecutor.
+ */
+public abstract class SaturationPolicy {
+
+	public static final long defaultBlockTimeoutMillis;
+
+	static {
+		long timeout = 0; // wait forever by default
+		try {
+			timeout = Long.parseLong(System.getProperty("scheduler.executor.blockTimeoutMillis", timeout + ""));
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		defaultBlockTimeoutMillis = timeout;
+	}
+
+	private final AtomicLong fired = new AtomicLong();
+
+	/**
+	 * @return number of times the executor was saturated while using this policy
+	 */
+	public long getFired() {
+		return fired.get();
+	}
+
+	final void saturated(final Runnable command, final ScheduledItemExecutor executor) {
+		fired.incrementAndGet();
+		handle(command, executor);
+	}
+
+	/**
+	 * Called by executor when it is saturated, must either find a way to run command or throw RejectedExecutionException
+	 */
+	protected abstract void handle(final Runnable command, final ScheduledItemExecutor executor) throws RejectedExecutionException;
+
+	/**
+	 * Block until there is room in the queue, for up to scheduler.executor.blockTimeoutMillis (default 0, forever)
+	 */
+	public static SaturationPolicy block() {
+		return block(defaultBlockTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Block until there is room in the queue, for up to timeout, after which it is rejected, 0 or less waits forever
+	 */
+	public static SaturationPolicy block(final long timeout, final TimeUnit unit) {
+		return new Block(timeout, unit);
+	}
+
+	/**
+	 * Throw RejectedExecutionException
+	 */
+	public static SaturationPolicy reject() {
+		return new Reject();
+	}
+
+	/**
+	 * Run the job in the thread that tried to add it, which naturally slows down whatever is adding jobs
+	 */
+	public static SaturationPolicy callerRuns() {
+		return new CallerRuns();
+	}
+
+	/**
+	 * Discard the job that has been waiting the longest, calling ExecutionResult.error on it, to make room for this one,
+	 * if nothing is waiting (always the case with VirtualThreadScheduledItemExecutor) this one is rejected instead
+	 */
+	public static SaturationPolicy dropOldest() {
+		return new DropOldest();
+	}
+
+	/**
+	 * Hand the job back to wherever it came from, if its ExecutionResult is a SpillableExecutionResult, otherwise it is rejected
+	 */
+	public static SaturationPolicy spill() {
+		return new Spill();
+	}
+
+	/**
+	 * @param name one of block, reject, callerRuns, dropOldest, or spill
+	 * @return a new instance of the named SaturationPolicy
+	 */
+	public static SaturationPolicy forName(final String name) {
+		if ("block".equalsIgnoreCase(name))
+			return block();
+		if ("reject".equalsIgnoreCase(name))
+			return reject();
+		if ("callerRuns".equalsIgnoreCase(name))
+			return callerRuns();
+		if ("dropOldest".equalsIgnoreCase(name))
+			return dropOldest();
+		if ("spill".equalsIgnoreCase(name))
+			return spill();
+		throw new IllegalArgumentException("unknown SaturationPolicy: " + name);
+	}
+
+	static void rejected(final Runnable command, final RejectedExecutionException e) {
+		if (command instanceof ScheduledItem)
+			((ScheduledItem) command).rejected(e);
+		else if (command instanceof ScheduledBatch)
+			((ScheduledBatch) command).rejected(e);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "{fired=" + fired + '}';
+	}
+
+	public static class Block extends SaturationPolicy {
+		private final long timeout;
+		private final TimeUnit unit;
+
+		protected Block(final long timeout, final TimeUnit unit) {
+			this.timeout = timeout;
+			this.unit = unit;
+		}
+
+		@Override
+		protected void handle(final Runnable command, final ScheduledItemExecutor executor) {
+			try {
+				if (!executor.offer(command, timeout, unit))
+					throw new RejectedExecutionException("timed out after " + timeout + " " + unit + " waiting for room in ScheduledItemExecutor");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("interrupted waiting for room in ScheduledItemExecutor", e);
+			}
+		}
+	}
+
+	public static class Reject extends SaturationPolicy {
+		@Override
+		protected void handle(final Runnable command, final ScheduledItemExecutor executor) {
+			throw new RejectedExecutionException("ScheduledItemExecutor saturated");
+		}
+	}
+
+	public static class CallerRuns extends SaturationPolicy {
+		@Override
+		protected void handle(final Runnable command, final ScheduledItemExecutor executor) {
+			command.run();
+		}
+	}
+
+	public static class DropOldest extends SaturationPolicy {
+		@Override
+		protected void handle(final Runnable command, final ScheduledItemExecutor executor) {
+			while (true) {
+				final Runnable oldest = executor.pollOldest();
+				if (oldest != null)
+					rejected(oldest, new RejectedExecutionException("dropped from saturated ScheduledItemExecutor to make room for a newer job"));
+				if (executor.offer(command))
+					return;
+				if (oldest == null) // nothing left to drop, and still no room
+					throw new RejectedExecutionException("ScheduledItemExecutor saturated");
+			}
+		}
+	}
+
+	public static class Spill extends SaturationPolicy {
+		@Override
+		protected void handle(final Runnable command, final ScheduledItemExecutor executor) {
+			final RejectedExecutionException e = new RejectedExecutionException("ScheduledItemExecutor saturated and job cannot be spilled");
+			if (command instanceof ScheduledBatch)
+				((ScheduledBatch) command).spill(e);
+			else if (!(command instanceof ScheduledItem) || !((ScheduledItem) command).spill())
+				throw e;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.metrics.JobMetrics;
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of ScheduledItems for the same BatchBackgroundJob, ran with a single call to process(List), with success or
+ * error still reported to each ScheduledItem's own ExecutionResult.
+ */
+class ScheduledBatch<T> implements Runnable {
+	final Class<? extends BackgroundJob<T>> bgClass;
+	final List<ScheduledItem<T>> items;
+	private final ObjectPool pool;
+
+	ScheduledBatch(final Class<? extends BackgroundJob<T>> bgClass, final List<ScheduledItem<T>> items, final ObjectPool pool) {
+		this.bgClass = bgClass;
+		this.items = items;
+		this.pool = pool;
+	}
+
+	@Override
+	@SuppressWarnings({"unchecked"})
+	public void run() {
+		BatchBackgroundJob<T> bgJob = null;
+		// all the same class from the same executor, so they share metrics
+		final JobMetrics metrics = items.get(0).getMetrics();
+		final long start = metrics == null ? 0 : System.nanoTime();
+		Throwable error = null;
+		try {
+			final List<T> dtos = new ArrayList<T>(items.size());
+			for (final ScheduledItem<T> item : items)
+				dtos.add(item.dto);
+			bgJob = (BatchBackgroundJob<T>) pool.getResource(bgClass);
+			bgJob.process(dtos);
+		} catch (Throwable e) {
+			error = e;
+		} finally {
+			if (bgJob != null)
+				try {
+					pool.releaseResource(bgJob);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+		}
+		if (metrics != null) {
+			if (error == null)
+				metrics.completed(items.size(), System.nanoTime() - start);
+			else
+				metrics.failed(items.size(), System.nanoTime() - start);
+		}
+		// each on its own, so one ExecutionResult throwing can't change what the rest of them hear
+		for (final ScheduledItem<T> item : items)
+			try {
+				if (error == null)
+					item.succeeded();
+				else
+					item.failed(error);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+	}
+
+	void rejected(final Throwable e) {
+		for (final ScheduledItem<T> item : items)
+			item.rejected(e);
+	}
+
+	/**
+	 * @return true, anything that can't be spilled is rejected instead
+	 */
+	boolean spill(final Throwable e) {
+		for (final ScheduledItem<T> item : items)
+			if (!item.spill())
+				item.rejected(e);
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduledBatch{" +
+				"bgClass=" + bgClass +
+				", items=" + items.size() +
+				'}';
+	}
+}
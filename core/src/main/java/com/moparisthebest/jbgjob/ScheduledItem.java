@@ -20,8 +20,11 @@
 
 package com.moparisthebest.jbgjob;
 
+import com.moparisthebest.jbgjob.metrics.JobMetrics;
 import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.result.CompositeExecutionResult;
 import com.moparisthebest.jbgjob.result.ExecutionResult;
+import com.moparisthebest.jbgjob.result.SpillableExecutionResult;
 
 /**
  * Storage class that can be used by an implementation of Scheduler
@@ -33,6 +36,7 @@ public class ScheduledItem<T> implements Runnable {
 
 	private ObjectPool pool;
 	private ExecutionResult result;
+	private JobMetrics metrics;
 
 	public ScheduledItem() {
 		this(null, null);
@@ -50,12 +54,19 @@ public class ScheduledItem<T> implements Runnable {
 	@Override
 	public void run() {
 		BackgroundJob<T> bgJob = null;
+		final long start = metrics == null ? 0 : System.nanoTime();
+		boolean processed = false;
 		try {
 			bgJob = pool == null ? bgClass.newInstance() : pool.getResource(bgClass);
 			bgJob.process(dto);
+			processed = true;
+			if (metrics != null)
+				metrics.completed(System.nanoTime() - start);
 			if (result != null)
 				result.success();
 		} catch (Throwable e) {
+			if (metrics != null && !processed)
+				metrics.failed(System.nanoTime() - start);
 			if (result != null)
 				result.error(e);
 		} finally {
@@ -68,14 +79,71 @@ public class ScheduledItem<T> implements Runnable {
 		}
 	}
 
+	/**
+	 * Called instead of run() when this was processed successfully some other way, like in a ScheduledBatch
+	 */
+	void succeeded() {
+		if (result != null)
+			result.success();
+	}
+
+	/**
+	 * Called instead of run() when this was never ran because it was rejected
+	 */
+	public void rejected(final Throwable e) {
+		if (metrics != null)
+			metrics.rejected();
+		if (result != null)
+			result.error(e);
+	}
+
+	/**
+	 * Called instead of run() when this failed some other way, like in a ScheduledBatch
+	 */
+	void failed(final Throwable e) {
+		if (result != null)
+			result.error(e);
+	}
+
+	/**
+	 * Called instead of run() to hand this back to where it came from
+	 *
+	 * @return false if this cannot be spilled, in which case nothing was done
+	 */
+	public boolean spill() {
+		if (!(result instanceof SpillableExecutionResult))
+			return false;
+		((SpillableExecutionResult) result).spill();
+		return true;
+	}
+
 	public void setPool(ObjectPool pool) {
 		this.pool = pool;
 	}
 
+	/**
+	 * @param metrics recorded to when this runs, or is rejected
+	 */
+	public void setMetrics(JobMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	JobMetrics getMetrics() {
+		return metrics;
+	}
+
 	public void setResult(ExecutionResult result) {
 		this.result = result;
 	}
 
+	/**
+	 * @return a ScheduledItem that runs this once with result called along with any result this has, leaving this as it
+	 * was so it can be scheduled again, or this itself if result is null
+	 */
+	public ScheduledItem<T> withResult(final ExecutionResult result) {
+		return result == null ? this : new Execution<T>(this, result);
+	}
+
 	public T getDto() {
 		return dto;
 	}
@@ -87,4 +155,15 @@ public class ScheduledItem<T> implements Runnable {
 				", dto=" + dto +
 				"} " + super.toString();
 	}
+
+	/**
+	 * One run of a ScheduledItem with an extra ExecutionResult of its own
+	 */
+	private static class Execution<T> extends ScheduledItem<T> {
+
+		private Execution(final ScheduledItem<T> scheduledItem, final ExecutionResult result) {
+			super(scheduledItem.bgClass, scheduledItem.dto);
+			setResult(CompositeExecutionResult.of(scheduledItem.result, result));
+		}
+	}
 }
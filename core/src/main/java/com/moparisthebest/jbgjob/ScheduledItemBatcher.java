@@ -0,0 +1,247 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Collects ScheduledItems for BatchBackgroundJobs per class, handing a ScheduledBatch to the ScheduledItemExecutor
+ * when one reaches maxBatchSize or its oldest item has waited maxLingerMillis.
+ * <p/>
+ * Full batches are dispatched by whoever added the last item, so the SaturationPolicy applies to them as usual.  A
+ * batch whose linger expires is only offered to the executor from the timer thread, which is shared by every class
+ * and must never block on, or run, a batch.  If there is no room it is left stalled, to be dispatched by the next add
+ * for that class or offered again after another maxLingerMillis.
+ */
+class ScheduledItemBatcher implements Closeable {
+
+	private final ScheduledItemExecutor executor;
+	private final int maxBatchSize;
+	private final long maxLingerMillis;
+	private final ConcurrentMap<Class, Pending> pending = new ConcurrentHashMap<Class, Pending>();
+	private final ScheduledThreadPoolExecutor timer;
+	private volatile boolean closed = false;
+
+	ScheduledItemBatcher(final ScheduledItemExecutor executor, final int maxBatchSize, final long maxLingerMillis) {
+		this.executor = executor;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLingerMillis = maxLingerMillis;
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "ScheduledItemBatcher-linger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@SuppressWarnings({"unchecked"})
+	<T> void add(final ScheduledItem<T> scheduledItem) {
+		Pending p = pending.get(scheduledItem.bgClass);
+		if (p == null) {
+			p = new Pending(scheduledItem.bgClass);
+			final Pending existing = pending.putIfAbsent(scheduledItem.bgClass, p);
+			if (existing != null)
+				p = existing;
+		}
+		final boolean rejected;
+		final List<List<ScheduledItem>> stalled;
+		final List<ScheduledItem> full;
+		synchronized (p) {
+			// close() sets closed before it flushes, which needs this lock, so anything added here is flushed
+			rejected = closed;
+			if (rejected) {
+				stalled = null;
+				full = null;
+			} else {
+				p.items.add(scheduledItem);
+				stalled = p.takeStalled();
+				if (p.items.size() >= maxBatchSize) {
+					full = p.take();
+				} else {
+					full = null;
+					p.arm();
+				}
+			}
+		}
+		if (rejected)
+			scheduledItem.rejected(new RejectedExecutionException("ScheduledItemExecutor has been closed"));
+		if (stalled != null)
+			for (final List<ScheduledItem> batch : stalled)
+				dispatch(p.bgClass, batch);
+		if (full != null)
+			dispatch(p.bgClass, full);
+	}
+
+	@SuppressWarnings({"unchecked"})
+	private void dispatch(final Class bgClass, final List<ScheduledItem> items) {
+		final ScheduledBatch batch = new ScheduledBatch(bgClass, items, executor.pool);
+		try {
+			executor.dispatch(batch);
+		} catch (RejectedExecutionException e) {
+			batch.rejected(e);
+		}
+	}
+
+	/**
+	 * Hand items to the executor only if it has room right now, without applying the SaturationPolicy
+	 *
+	 * @return false if there was no room, in which case nothing was done
+	 */
+	@SuppressWarnings({"unchecked"})
+	private boolean offer(final Class bgClass, final List<ScheduledItem> items) {
+		final ScheduledBatch batch = new ScheduledBatch(bgClass, items, executor.pool);
+		try {
+			return executor.offer(batch);
+		} catch (RejectedExecutionException e) {
+			// closed, every item must hear about it since there is nobody else to tell
+			batch.rejected(e);
+			return true;
+		}
+	}
+
+	/**
+	 * Dispatch everything currently waiting, regardless of size
+	 */
+	void flush() {
+		for (final Pending p : pending.values()) {
+			final List<List<ScheduledItem>> batches;
+			synchronized (p) {
+				batches = p.takeAll();
+			}
+			if (batches != null)
+				for (final List<ScheduledItem> batch : batches)
+					dispatch(p.bgClass, batch);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		timer.shutdownNow();
+		flush();
+	}
+
+	private class Pending implements Runnable {
+		private final Class bgClass;
+		private List<ScheduledItem> items;
+		private ScheduledFuture<?> linger;
+		/**
+		 * batches whose linger expired while the executor had no room
+		 */
+		private List<List<ScheduledItem>> stalled;
+
+		private Pending(final Class bgClass) {
+			this.bgClass = bgClass;
+			this.items = new ArrayList<ScheduledItem>(maxBatchSize);
+		}
+
+		/**
+		 * must hold lock on this
+		 */
+		private List<ScheduledItem> take() {
+			final List<ScheduledItem> ret = items;
+			items = new ArrayList<ScheduledItem>(maxBatchSize);
+			if (linger != null) {
+				linger.cancel(false);
+				linger = null;
+			}
+			return ret;
+		}
+
+		/**
+		 * must hold lock on this
+		 *
+		 * @return stalled batches, or null if there are none
+		 */
+		private List<List<ScheduledItem>> takeStalled() {
+			final List<List<ScheduledItem>> ret = stalled;
+			stalled = null;
+			return ret;
+		}
+
+		/**
+		 * must hold lock on this
+		 *
+		 * @return stalled batches followed by items, or null if there is nothing waiting
+		 */
+		private List<List<ScheduledItem>> takeAll() {
+			List<List<ScheduledItem>> ret = takeStalled();
+			if (!items.isEmpty()) {
+				if (ret == null)
+					ret = new ArrayList<List<ScheduledItem>>(1);
+				ret.add(take());
+			}
+			return ret;
+		}
+
+		/**
+		 * must hold lock on this, start the linger timer if it isn't already running
+		 */
+		private void arm() {
+			if (linger == null)
+				try {
+					linger = timer.schedule(this, maxLingerMillis, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException e) {
+					// closing, and close() will flush whatever is here once we let go of the lock
+				}
+		}
+
+		/**
+		 * linger expired, in the timer thread
+		 */
+		@Override
+		public void run() {
+			final List<List<ScheduledItem>> batches;
+			synchronized (this) {
+				linger = null;
+				batches = takeAll();
+			}
+			if (batches == null)
+				return;
+			List<List<ScheduledItem>> left = null;
+			for (final List<ScheduledItem> batch : batches)
+				if (!offer(bgClass, batch)) {
+					if (left == null)
+						left = new ArrayList<List<ScheduledItem>>(batches.size());
+					left.add(batch);
+				}
+			if (left == null)
+				return;
+			synchronized (this) {
+				if (!closed) {
+					if (stalled != null)
+						left.addAll(stalled);
+					stalled = left;
+					arm();
+					return;
+				}
+			}
+			// close() may have flushed this already, so nobody else will get to these
+			for (final List<ScheduledItem> batch : left)
+				dispatch(bgClass, batch);
+		}
+	}
+}
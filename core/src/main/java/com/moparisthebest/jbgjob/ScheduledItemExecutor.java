@@ -20,7 +20,11 @@
 
 package com.moparisthebest.jbgjob;
 
+import com.moparisthebest.jbgjob.metrics.ExecutorMetrics;
+import com.moparisthebest.jbgjob.metrics.JobMetrics;
+import com.moparisthebest.jbgjob.metrics.Metrics;
 import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.pool.ThreadLocalObjectPool;
 import com.moparisthebest.jbgjob.result.ExecutionResult;
 
 import java.io.Closeable;
@@ -28,26 +32,74 @@ import java.util.concurrent.*;
 
 /**
  * Using a ThreadPool with a configurable number of Threads and an ObjectPool, schedules jobs to be executed in the future.
+ * <p/>
+ * Jobs waiting for a free Thread are held in a bounded queue, what happens when that is full is decided by a SaturationPolicy.
+ * <p/>
+ * Unless scheduler.metrics.enabled is false, counts and timings of jobs overall and per BackgroundJob class are kept in
+ * ExecutorMetrics and published over JMX.
  */
 public class ScheduledItemExecutor implements Closeable {
 
 	public static final int defaultNumThreads;
+	public static final int defaultQueueCapacity;
+	public static final boolean defaultThreadConfined = "true".equalsIgnoreCase(System.getProperty("scheduler.executor.threadConfined"));
+	public static final String defaultSaturationPolicy = AbstractScheduler.defaultIfEmpty(System.getProperty("scheduler.executor.saturationPolicy"), "block");
+	public static final int defaultMaxBatchSize;
+	public static final long defaultMaxBatchLingerMillis;
+	public static final boolean defaultVirtualThreads = "true".equalsIgnoreCase(System.getProperty("scheduler.executor.virtualThreads"));
 
-	static {
-		int numThreads = 5; // 5 threads by default
+	public static int getIntSystemProperty(final String property, final int def) {
 		try {
-			numThreads = Integer.parseInt(System.getProperty("scheduler.executor.numThreads", numThreads + ""));
+			return Integer.parseInt(System.getProperty(property, def + ""));
 		} catch (Throwable e) {
 			e.printStackTrace();
+			return def;
 		}
-		defaultNumThreads = numThreads;
 	}
 
-	private final ExecutorService executor;
-	private final ObjectPool pool;
+	static {
+		defaultNumThreads = getIntSystemProperty("scheduler.executor.numThreads", 5); // 5 threads by default
+		defaultQueueCapacity = getIntSystemProperty("scheduler.executor.queueCapacity", -1); // -1 means pick based on SaturationPolicy
+		defaultMaxBatchSize = getIntSystemProperty("scheduler.executor.maxBatchSize", 100);
+		defaultMaxBatchLingerMillis = getIntSystemProperty("scheduler.executor.maxBatchLingerMillis", 10);
+	}
+
+	/**
+	 * When blocking, a queue roughly the size of the thread pool keeps the threads busy without reading far ahead of them,
+	 * otherwise this is big enough to absorb a decent burst while still not being able to exhaust the heap.
+	 */
+	public static int defaultQueueCapacity(final int numThreads, final SaturationPolicy saturationPolicy) {
+		if (defaultQueueCapacity > 0)
+			return defaultQueueCapacity;
+		return saturationPolicy instanceof SaturationPolicy.Block ? numThreads : 10000;
+	}
+
+	private final ThreadPoolExecutor executor;
+	protected final ObjectPool pool;
+	protected final SaturationPolicy saturationPolicy;
+	protected final ExecutorMetrics metrics;
+
+	private volatile int maxBatchSize = defaultMaxBatchSize;
+	private volatile long maxBatchLingerMillis = defaultMaxBatchLingerMillis;
+	private volatile ScheduledItemBatcher batcher;
+
+	/**
+	 * @return a ScheduledItemExecutor configured entirely by system properties, which is a VirtualThreadScheduledItemExecutor
+	 * if scheduler.executor.virtualThreads is true
+	 */
+	public static ScheduledItemExecutor create() {
+		return defaultVirtualThreads ? new VirtualThreadScheduledItemExecutor() : new ScheduledItemExecutor();
+	}
+
+	/**
+	 * Like create(), but with an explicit choice to block or reject when saturated
+	 */
+	public static ScheduledItemExecutor create(final boolean blockAddWhenSaturated) {
+		return defaultVirtualThreads ? new VirtualThreadScheduledItemExecutor(blockAddWhenSaturated) : new ScheduledItemExecutor(blockAddWhenSaturated);
+	}
 
 	public ScheduledItemExecutor() {
-		this(true);
+		this(defaultNumThreads, SaturationPolicy.forName(defaultSaturationPolicy));
 	}
 
 	public ScheduledItemExecutor(final int numThreads) {
@@ -59,60 +111,290 @@ public class ScheduledItemExecutor implements Closeable {
 	}
 
 	public ScheduledItemExecutor(final int numThreads, final boolean blockAddWhenSaturated) {
-		this.pool = new ObjectPool(numThreads);
-		// grr...
-		// http://stackoverflow.com/questions/2001086/how-to-make-threadpoolexecutors-submit-method-block-if-it-is-saturated
-		// https://today.java.net/pub/a/today/2008/10/23/creating-a-notifying-blocking-thread-pool-executor.html
-		// http://stackoverflow.com/questions/3446011/threadpoolexecutor-block-when-queue-is-full/3518588#3518588
-		this.executor = !blockAddWhenSaturated ? Executors.newFixedThreadPool(numThreads) :
-				new ThreadPoolExecutor(numThreads, numThreads,
-						0L, TimeUnit.MILLISECONDS,
-						new LinkedBlockingQueue<Runnable>()) {
-					private final Semaphore semaphore = new Semaphore(numThreads);
+		this(numThreads, blockAddWhenSaturated, defaultThreadConfined);
+	}
+
+	/**
+	 * @param threadConfined if true, each worker thread keeps its own instance of each BackgroundJob instead of sharing
+	 *                       them through a common pool, see ThreadLocalObjectPool
+	 */
+	public ScheduledItemExecutor(final int numThreads, final boolean blockAddWhenSaturated, final boolean threadConfined) {
+		this(numThreads, blockAddWhenSaturated, newObjectPool(numThreads, threadConfined));
+	}
+
+	/**
+	 * @param blockAddWhenSaturated if true, adding blocks when saturated as in SaturationPolicy.block(), otherwise jobs are
+	 *                              rejected as in SaturationPolicy.reject()
+	 */
+	public ScheduledItemExecutor(final int numThreads, final boolean blockAddWhenSaturated, final ObjectPool pool) {
+		this(numThreads, blockAddWhenSaturated ? SaturationPolicy.block() : SaturationPolicy.reject(), pool);
+	}
+
+	public ScheduledItemExecutor(final int numThreads, final SaturationPolicy saturationPolicy) {
+		this(numThreads, saturationPolicy, newObjectPool(numThreads, defaultThreadConfined));
+	}
 
+	public ScheduledItemExecutor(final int numThreads, final SaturationPolicy saturationPolicy, final ObjectPool pool) {
+		this(numThreads, defaultQueueCapacity(numThreads, saturationPolicy), saturationPolicy, pool);
+	}
+
+	public ScheduledItemExecutor(final int numThreads, final int queueCapacity, final SaturationPolicy saturationPolicy, final ObjectPool pool) {
+		if (pool == null || saturationPolicy == null)
+			throw new NullPointerException("pool and saturationPolicy cannot be null!");
+		this.pool = pool;
+		this.saturationPolicy = saturationPolicy;
+		this.executor = new ThreadPoolExecutor(numThreads, numThreads,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new RejectedExecutionHandler() {
 					@Override
-					public void execute(final Runnable command) {
-						// acquire a lock
-						boolean lockAcquired = false;
-						do {
-							try {
-								semaphore.acquire();
-								lockAcquired = true;
-							} catch (Throwable e) {
-							}
-						} while (!lockAcquired);
-						// run it
-						try {
-							super.execute(new Runnable() {
-								@Override
-								public void run() {
-									try {
-										command.run();
-									} finally {
-										semaphore.release();
-									}
-								}
-							});
-						} catch (RuntimeException e) {
-							semaphore.release();
-							throw e;
-						}
+					public void rejectedExecution(final Runnable command, final ThreadPoolExecutor executor) {
+						if (executor.isShutdown())
+							throw new RejectedExecutionException("ScheduledItemExecutor has been closed");
+						ScheduledItemExecutor.this.saturationPolicy.saturated(command, ScheduledItemExecutor.this);
 					}
-				};
+				});
+		this.executor.prestartAllCoreThreads();
+		this.metrics = Metrics.enabled ? new ExecutorMetrics(this) : null;
+	}
+
+	/**
+	 * For subclasses that run jobs some other way, they must override dispatch, offer, pollOldest, and close
+	 */
+	protected ScheduledItemExecutor(final SaturationPolicy saturationPolicy, final ObjectPool pool) {
+		if (pool == null || saturationPolicy == null)
+			throw new NullPointerException("pool and saturationPolicy cannot be null!");
+		this.pool = pool;
+		this.saturationPolicy = saturationPolicy;
+		this.metrics = Metrics.enabled ? new ExecutorMetrics(this) : null;
+		this.executor = null;
+	}
+
+	public static ObjectPool newObjectPool(final int numThreads, final boolean threadConfined) {
+		return threadConfined ? new ThreadLocalObjectPool() : new ObjectPool(numThreads);
 	}
 
 	public <T> void execute(final ScheduledItem<T> scheduledItem) {
 		this.execute(scheduledItem, null);
 	}
 
-	public <T> void execute(final ScheduledItem<T> scheduledItem, final ExecutionResult result) {
+	/**
+	 * @param result called when this run of scheduledItem finishes, in addition to any ExecutionResult it has of its
+	 *               own, without being added to it
+	 * @throws RejectedExecutionException if this has been closed, or the SaturationPolicy rejected it, after counting
+	 *                                    it as rejected and telling both ExecutionResults, so callers must not again
+	 */
+	public <T> void execute(ScheduledItem<T> scheduledItem, final ExecutionResult result) {
+		scheduledItem = scheduledItem.withResult(result);
 		scheduledItem.setPool(pool);
-		scheduledItem.setResult(result);
-		executor.execute(scheduledItem);
+		if (metrics != null) {
+			final JobMetrics jobMetrics = scheduledItem.bgClass == null ? metrics : metrics.forClass(scheduledItem.bgClass);
+			jobMetrics.submitted();
+			scheduledItem.setMetrics(jobMetrics);
+		}
+		try {
+			if (maxBatchSize > 1 && scheduledItem.bgClass != null && BatchBackgroundJob.class.isAssignableFrom(scheduledItem.bgClass))
+				getBatcher().add(scheduledItem);
+			else
+				dispatch(scheduledItem);
+		} catch (RejectedExecutionException e) {
+			// already counted as submitted, and result is only reachable from this run of it
+			scheduledItem.rejected(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Hand command to a thread to run, a ScheduledItem or ScheduledBatch
+	 *
+	 * @throws RejectedExecutionException if this has been closed, or the SaturationPolicy rejected it
+	 */
+	protected void dispatch(final Runnable command) {
+		executor.execute(command);
+	}
+
+	private ScheduledItemBatcher getBatcher() {
+		ScheduledItemBatcher ret = batcher;
+		if (ret == null)
+			synchronized (this) {
+				ret = batcher;
+				if (ret == null)
+					batcher = ret = new ScheduledItemBatcher(this, maxBatchSize, maxBatchLingerMillis);
+			}
+		return ret;
+	}
+
+	/**
+	 * Configure how ScheduledItems for BatchBackgroundJobs are grouped, must be called before any are executed.
+	 *
+	 * @param maxBatchSize         most DTOs to pass to one call of BatchBackgroundJob.process(List), 1 or less disables batching
+	 * @param maxBatchLingerMillis longest to wait for a batch to fill before running it anyway
+	 * @return this
+	 */
+	public ScheduledItemExecutor setBatching(final int maxBatchSize, final long maxBatchLingerMillis) {
+		if (batcher != null)
+			throw new IllegalStateException("batching must be configured before any batches are executed");
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchLingerMillis = maxBatchLingerMillis;
+		return this;
+	}
+
+	public SaturationPolicy getSaturationPolicy() {
+		return saturationPolicy;
+	}
+
+	public ObjectPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @return metrics for this executor, or null if scheduler.metrics.enabled is false
+	 */
+	public ExecutorMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Publish metrics under name, like the queue this serves, instead of a generated one
+	 *
+	 * @return this
+	 */
+	public ScheduledItemExecutor setMetricsName(final String name) {
+		if (metrics != null)
+			metrics.setName(name);
+		return this;
+	}
+
+	/**
+	 * @return number of jobs waiting for a free thread
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return approximate number of jobs running right now
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return how many threads run jobs
+	 */
+	public int getNumThreads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Changes how many threads run jobs while running, when shrinking, threads go away as the jobs they are running finish
+	 */
+	public synchronized void setNumThreads(final int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException("numThreads must be at least 1");
+		// core can never be above max, even in between
+		if (numThreads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(numThreads);
+			executor.setCorePoolSize(numThreads);
+			executor.prestartAllCoreThreads();
+		} else {
+			executor.setCorePoolSize(numThreads);
+			executor.setMaximumPoolSize(numThreads);
+		}
+	}
+
+	/**
+	 * @return approximately how many more jobs could be added right now without the SaturationPolicy kicking in, idle
+	 * threads plus room in the queue
+	 */
+	public int getFreeCapacity() {
+		return executor.getMaximumPoolSize() - executor.getActiveCount() + executor.getQueue().remainingCapacity();
+	}
+
+	/**
+	 * Record time spent blocked waiting for room
+	 */
+	protected void saturationWait(final long startNanos) {
+		if (metrics != null)
+			metrics.saturationWait.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Offer to the wait queue without waiting
+	 *
+	 * @return true if it was queued
+	 */
+	boolean offer(final Runnable command) {
+		return executor.getQueue().offer(command) && checkNotShutdown(command);
+	}
+
+	/**
+	 * Offer to the wait queue, waiting up to timeout for room, a timeout of 0 or less waits forever
+	 *
+	 * @return true if it was queued
+	 */
+	boolean offer(final Runnable command, final long timeout, final TimeUnit unit) throws InterruptedException {
+		final BlockingQueue<Runnable> queue = executor.getQueue();
+		final long start = System.nanoTime();
+		try {
+			if (timeout > 0) {
+				if (!queue.offer(command, timeout, unit))
+					return false;
+			} else {
+				queue.put(command);
+			}
+		} finally {
+			saturationWait(start);
+		}
+		return checkNotShutdown(command);
+	}
+
+	private boolean checkNotShutdown(final Runnable command) {
+		// it could have been closed while we were waiting, at which point nothing may be left to run it
+		if (executor.isShutdown() && executor.getQueue().remove(command))
+			throw new RejectedExecutionException("ScheduledItemExecutor has been closed");
+		return true;
+	}
+
+	/**
+	 * @return the job that has been waiting the longest, removed from the wait queue, or null if there are none waiting
+	 */
+	Runnable pollOldest() {
+		return executor.getQueue().poll();
 	}
 
 	@Override
 	public void close() {
+		closeBatcher();
 		executor.shutdown();
 	}
+
+	/**
+	 * Waits up to timeout after close for every job already accepted to finish
+	 *
+	 * @return true if they all finished, false if it timed out
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Dispatch any batches still waiting to fill, so nothing is left behind when closing, and unpublish metrics
+	 */
+	protected void closeBatcher() {
+		final ScheduledItemBatcher batcher = this.batcher;
+		if (batcher != null)
+			batcher.close();
+		if (metrics != null)
+			metrics.close();
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduledItemExecutor{" +
+				"executor=" + executor +
+				", pool=" + pool +
+				", saturationPolicy=" + saturationPolicy +
+				'}';
+	}
 }
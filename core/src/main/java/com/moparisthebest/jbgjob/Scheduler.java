@@ -21,6 +21,9 @@
 package com.moparisthebest.jbgjob;
 
 import java.io.Closeable;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This schedules a DTO to be processed by an instance of a particular BackgroundJob
@@ -50,6 +53,90 @@ public interface Scheduler extends Closeable {
 
 	public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem);
 
+	/**
+	 * This schedules each DTO to be processed by an instance of a particular BackgroundJob in the default queue.
+	 *
+	 * @param bgClass BackgroundJob to process the DTOs
+	 * @param dtos    to be processed in the background
+	 * @param <T>     Type of DTO
+	 * @return as described in scheduleAll(String, Collection)
+	 */
+	public <T> boolean[] scheduleAll(final Class<? extends BackgroundJob<T>> bgClass, final Collection<? extends T> dtos);
+
+	/**
+	 * This schedules each DTO to be processed by an instance of a particular BackgroundJob in the specified queue.
+	 *
+	 * @param bgClass BackgroundJob to process the DTOs
+	 * @param dtos    to be processed in the background
+	 * @param <T>     Type of DTO
+	 * @return as described in scheduleAll(String, Collection)
+	 */
+	public <T> boolean[] scheduleAll(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final Collection<? extends T> dtos);
+
+	/**
+	 * This schedules each ScheduledItem in the specified queue, in iteration order, as efficiently as the
+	 * implementation can, which is generally much faster than calling schedule for each.
+	 *
+	 * @return one element per ScheduledItem in iteration order, true if scheduling it was successful, false otherwise
+	 */
+	public boolean[] scheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems);
+
+	/**
+	 * This schedules a DTO to be processed by an instance of a particular BackgroundJob in the specified queue, not
+	 * before runAt.  If runAt has already passed it is scheduled immediately.
+	 *
+	 * @param bgClass BackgroundJob to process the DTO
+	 * @param dto     to be processed in the background
+	 * @param runAt   earliest time to process the DTO
+	 * @param <T>     Type of DTO
+	 * @return true if scheduling was successful, false otherwise
+	 * @throws UnsupportedOperationException if this Scheduler can't delay jobs and runAt is in the future
+	 */
+	public <T> boolean schedule(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final T dto, final Instant runAt);
+
+	/**
+	 * This schedules a ScheduledItem in the specified queue, not before runAt.  If runAt has already passed it is
+	 * scheduled immediately.
+	 *
+	 * @return true if scheduling was successful, false otherwise
+	 * @throws UnsupportedOperationException if this Scheduler can't delay jobs and runAt is in the future
+	 */
+	public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem, final Instant runAt);
+
+	/**
+	 * This schedules a DTO to be processed by an instance of a particular BackgroundJob in the default queue, without
+	 * waiting for anything.
+	 *
+	 * @param bgClass BackgroundJob to process the DTO
+	 * @param dto     to be processed in the background
+	 * @param <T>     Type of DTO
+	 * @return future as described in scheduleAsync(String, ScheduledItem)
+	 */
+	public <T> CompletableFuture<Boolean> scheduleAsync(final Class<? extends BackgroundJob<T>> bgClass, final T dto);
+
+	/**
+	 * This schedules a DTO to be processed by an instance of a particular BackgroundJob in the specified queue, without
+	 * waiting for anything.
+	 *
+	 * @param bgClass BackgroundJob to process the DTO
+	 * @param dto     to be processed in the background
+	 * @param <T>     Type of DTO
+	 * @return future as described in scheduleAsync(String, ScheduledItem)
+	 */
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final T dto);
+
+	/**
+	 * This schedules a ScheduledItem in the specified queue, without waiting for anything.
+	 * <p/>
+	 * What the returned future completes on depends on the implementation, ones running the job locally complete it
+	 * when the job finishes, and ones handing it off elsewhere complete it when that hand off is acknowledged.  Either
+	 * way it completes with true on success, false if it could not be scheduled, or exceptionally with whatever error
+	 * occurred.
+	 *
+	 * @return future completing as described above
+	 */
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final ScheduledItem<T> scheduledItem);
+
 	/**
 	 * This serializes and deserialized T and returns the deserialized version for the calling app to compare is correct
 	 * @param t to be serialized
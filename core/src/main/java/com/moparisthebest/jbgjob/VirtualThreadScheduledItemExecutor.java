@@ -0,0 +1,243 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.pool.ThreadLocalObjectPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each job in its own virtual thread, requires Java 21+, with the number of jobs running at once limited by a
+ * Semaphore instead of a number of threads.  This suits jobs that spend most of their time blocked on IO.
+ * <p/>
+ * Nothing ever waits in a queue here, when all permits are taken the SaturationPolicy decides what to do, block waits
+ * for a permit.  BackgroundJob instances are shared between virtual threads through a regular ObjectPool, which never
+ * blocks or pins the carrier thread, ThreadLocalObjectPool is not allowed since every virtual thread is brand new.
+ */
+public class VirtualThreadScheduledItemExecutor extends ScheduledItemExecutor {
+
+	public static final int defaultMaxConcurrency = getIntSystemProperty("scheduler.executor.maxConcurrency", 256);
+
+	private final ExecutorService executor;
+	private final ResizableSemaphore permits;
+	private volatile int maxConcurrency;
+
+	public VirtualThreadScheduledItemExecutor() {
+		this(defaultMaxConcurrency, SaturationPolicy.forName(defaultSaturationPolicy));
+	}
+
+	public VirtualThreadScheduledItemExecutor(final int maxConcurrency) {
+		this(maxConcurrency, true);
+	}
+
+	public VirtualThreadScheduledItemExecutor(final boolean blockAddWhenSaturated) {
+		this(defaultMaxConcurrency, blockAddWhenSaturated);
+	}
+
+	public VirtualThreadScheduledItemExecutor(final int maxConcurrency, final boolean blockAddWhenSaturated) {
+		this(maxConcurrency, blockAddWhenSaturated ? SaturationPolicy.block() : SaturationPolicy.reject());
+	}
+
+	public VirtualThreadScheduledItemExecutor(final int maxConcurrency, final SaturationPolicy saturationPolicy) {
+		this(maxConcurrency, saturationPolicy, new ObjectPool(maxConcurrency));
+	}
+
+	public VirtualThreadScheduledItemExecutor(final int maxConcurrency, final SaturationPolicy saturationPolicy, final ObjectPool pool) {
+		super(saturationPolicy, pool);
+		if (pool instanceof ThreadLocalObjectPool)
+			throw new IllegalArgumentException("ThreadLocalObjectPool would create a new BackgroundJob for every job with virtual threads");
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be at least 1");
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new ResizableSemaphore(maxConcurrency);
+		this.executor = newVirtualThreadPerTaskExecutor();
+	}
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	public static boolean isSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		// reflection so this still compiles and runs against older JDKs, as long as it isn't used there
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException("virtual threads require Java 21+, running: " + System.getProperty("java.version"), e);
+		} catch (Exception e) {
+			throw new RuntimeException("could not create virtual thread executor", e);
+		}
+	}
+
+	@Override
+	protected void dispatch(final Runnable command) {
+		if (executor.isShutdown())
+			throw new RejectedExecutionException("ScheduledItemExecutor has been closed");
+		if (permits.tryAcquire())
+			start(command);
+		else
+			saturationPolicy.saturated(command, this);
+	}
+
+	/**
+	 * Must only be called while holding a permit, which is released when command finishes
+	 */
+	private void start(final Runnable command) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						command.run();
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	boolean offer(final Runnable command) {
+		if (!permits.tryAcquire())
+			return false;
+		start(command);
+		return true;
+	}
+
+	@Override
+	boolean offer(final Runnable command, final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long start = System.nanoTime();
+		try {
+			if (timeout > 0) {
+				if (!permits.tryAcquire(timeout, unit))
+					return false;
+			} else {
+				permits.acquire();
+			}
+		} finally {
+			saturationWait(start);
+		}
+		start(command);
+		return true;
+	}
+
+	@Override
+	Runnable pollOldest() {
+		return null; // never anything waiting
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Changes how many jobs can run at once, when shrinking, jobs already running carry on and no new ones start until
+	 * enough of them have finished
+	 */
+	public synchronized void setMaxConcurrency(final int maxConcurrency) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be at least 1");
+		if (maxConcurrency > this.maxConcurrency)
+			permits.release(maxConcurrency - this.maxConcurrency);
+		else
+			permits.reducePermits(this.maxConcurrency - maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * There are no threads to count, so this is getMaxConcurrency
+	 */
+	@Override
+	public int getNumThreads() {
+		return getMaxConcurrency();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads) {
+		setMaxConcurrency(numThreads);
+	}
+
+	@Override
+	public int getQueueSize() {
+		return 0; // never anything waiting
+	}
+
+	@Override
+	public int getActiveCount() {
+		return getMaxConcurrency() - permits.availablePermits();
+	}
+
+	@Override
+	public int getFreeCapacity() {
+		return Math.max(0, permits.availablePermits());
+	}
+
+	@Override
+	public void close() {
+		closeBatcher();
+		executor.shutdown();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return "VirtualThreadScheduledItemExecutor{" +
+				"maxConcurrency=" + maxConcurrency +
+				", availablePermits=" + permits.availablePermits() +
+				", pool=" + pool +
+				", saturationPolicy=" + saturationPolicy +
+				'}';
+	}
+
+	/**
+	 * Only to make reducePermits visible
+	 */
+	private static class ResizableSemaphore extends Semaphore {
+		private ResizableSemaphore(final int permits) {
+			super(permits);
+		}
+
+		@Override
+		protected void reducePermits(final int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
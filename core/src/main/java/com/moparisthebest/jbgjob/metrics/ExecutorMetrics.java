@@ -0,0 +1,164 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.metrics;
+
+import com.moparisthebest.jbgjob.ScheduledItemExecutor;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics for one ScheduledItemExecutor, totals for all jobs plus a JobMetrics per BackgroundJob class, all published as
+ * MBeans named after the executor, see Metrics.
+ */
+public class ExecutorMetrics extends JobMetrics implements ExecutorMetricsMBean {
+
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	private final ScheduledItemExecutor executor;
+	private final ConcurrentMap<Class, JobMetrics> jobs = new ConcurrentHashMap<Class, JobMetrics>();
+	/**
+	 * time spent waiting for room when saturated, with the block SaturationPolicy
+	 */
+	public final Histogram saturationWait = new Histogram();
+
+	// guarded by this
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+	private String name;
+	// executor key properties everything else is published under, with the instance of the executor's own mbean
+	private String executorProperties;
+	private boolean closed = false;
+
+	public ExecutorMetrics(final ScheduledItemExecutor executor) {
+		this.executor = executor;
+		setName("executor-" + ids.incrementAndGet());
+	}
+
+	/**
+	 * @return metrics for jobClass, created and published the first time it is asked for
+	 */
+	public JobMetrics forClass(final Class jobClass) {
+		JobMetrics ret = jobs.get(jobClass);
+		if (ret == null) {
+			ret = new JobMetrics(this);
+			final JobMetrics existing = jobs.putIfAbsent(jobClass, ret);
+			if (existing != null)
+				return existing;
+			synchronized (this) {
+				if (!closed)
+					registerClass(jobClass, ret);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Publish everything under a new name, like the queue the executor serves
+	 */
+	public synchronized void setName(final String name) {
+		if (closed)
+			return;
+		unregister();
+		this.name = name;
+		final String executorName = Metrics.quote(name);
+		executorProperties = "executor=" + executorName + Metrics.instance(register(this, "type=ScheduledItemExecutor,name=" + executorName));
+		register(executionTime, "type=Histogram," + executorProperties + ",name=executionTime");
+		register(saturationWait, "type=Histogram," + executorProperties + ",name=saturationWait");
+		for (final Map.Entry<Class, JobMetrics> entry : jobs.entrySet())
+			registerClass(entry.getKey(), entry.getValue());
+	}
+
+	private void registerClass(final Class jobClass, final JobMetrics metrics) {
+		final String properties = executorProperties + ",bgClass=" + Metrics.quote(jobClass.getName());
+		register(metrics, "type=BackgroundJob," + properties);
+		register(metrics.executionTime, "type=Histogram," + properties + ",name=executionTime");
+	}
+
+	private ObjectName register(final Object mbean, final String properties) {
+		final ObjectName objectName = Metrics.register(mbean, properties);
+		if (objectName != null)
+			registered.add(objectName);
+		return objectName;
+	}
+
+	private void unregister() {
+		for (final ObjectName objectName : registered)
+			Metrics.unregister(objectName);
+		registered.clear();
+	}
+
+	/**
+	 * Unpublish everything, counting still works afterwards
+	 */
+	public synchronized void close() {
+		closed = true;
+		unregister();
+	}
+
+	@Override
+	public synchronized String getName() {
+		return name;
+	}
+
+	@Override
+	public int getQueueSize() {
+		return executor.getQueueSize();
+	}
+
+	@Override
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	@Override
+	public long getSaturated() {
+		return executor.getSaturationPolicy().getFired();
+	}
+
+	@Override
+	public long getPoolCreated() {
+		return executor.getPool().getCreated();
+	}
+
+	@Override
+	public long getPoolReused() {
+		return executor.getPool().getReused();
+	}
+
+	@Override
+	public long getPoolDropped() {
+		return executor.getPool().getDropped();
+	}
+
+	@Override
+	public String toString() {
+		return "ExecutorMetrics{" +
+				"name='" + getName() + '\'' +
+				", jobs=" + jobs +
+				", saturationWait=" + saturationWait +
+				"} " + super.toString();
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock and allocation free histogram of non-negative values, like durations in nanoseconds, counted in power of 2
+ * buckets, so recording is a handful of LongAdder increments and it can stay on in production.
+ */
+public class Histogram implements HistogramMBean {
+
+	private static final LongBinaryOperator max = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(final long left, final long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	public final String unit;
+
+	// bucket 0 counts 0, bucket x counts values in [2^(x-1), 2^x)
+	private final LongAdder[] buckets = new LongAdder[64];
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator maxValue = new LongAccumulator(max, 0);
+
+	public Histogram() {
+		this("nanoseconds");
+	}
+
+	public Histogram(final String unit) {
+		this.unit = unit;
+		for (int x = 0; x < buckets.length; ++x)
+			buckets[x] = new LongAdder();
+	}
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+		sum.add(value);
+		maxValue.accumulate(value);
+	}
+
+	/**
+	 * Records value count times, like the duration of a batch once for each job in it
+	 */
+	public void record(long value, final int count) {
+		if (value < 0)
+			value = 0;
+		buckets[64 - Long.numberOfLeadingZeros(value)].add(count);
+		sum.add(value * count);
+		maxValue.accumulate(value);
+	}
+
+	/**
+	 * @param percentile between 0 and 1
+	 * @return upper bound of the bucket the percentile falls in, 0 if nothing has been recorded
+	 */
+	public long getPercentile(final double percentile) {
+		final long[] counts = new long[buckets.length];
+		long total = 0;
+		for (int x = 0; x < counts.length; ++x)
+			total += counts[x] = buckets[x].sum();
+		final long target = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int x = 0; x < counts.length; ++x) {
+			seen += counts[x];
+			if (seen >= target && seen > 0)
+				return Math.min(x == 0 ? 0 : x == 63 ? Long.MAX_VALUE : (1L << x) - 1, getMax());
+		}
+		return 0;
+	}
+
+	@Override
+	public String getUnit() {
+		return unit;
+	}
+
+	@Override
+	public long getCount() {
+		long ret = 0;
+		for (final LongAdder bucket : buckets)
+			ret += bucket.sum();
+		return ret;
+	}
+
+	@Override
+	public double getMean() {
+		final long count = getCount();
+		return count == 0 ? 0 : sum.sum() / (double) count;
+	}
+
+	@Override
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	@Override
+	public long getP50() {
+		return getPercentile(0.5);
+	}
+
+	@Override
+	public long getP90() {
+		return getPercentile(0.9);
+	}
+
+	@Override
+	public long getP99() {
+		return getPercentile(0.99);
+	}
+
+	@Override
+	public long getP999() {
+		return getPercentile(0.999);
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram{" +
+				"count=" + getCount() +
+				", mean=" + getMean() +
+				", p50=" + getP50() +
+				", p99=" + getP99() +
+				", max=" + getMax() +
+				", unit='" + unit + '\'' +
+				'}';
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of jobs, and how long they took to run, for one BackgroundJob class in one executor, or for all of them,
+ * everything recorded here is also recorded in parent if there is one.
+ */
+public class JobMetrics implements JobMetricsMBean {
+
+	protected final JobMetrics parent;
+
+	private final LongAdder submitted = new LongAdder(), completed = new LongAdder(), failed = new LongAdder(), rejected = new LongAdder();
+	public final Histogram executionTime = new Histogram();
+
+	public JobMetrics() {
+		this(null);
+	}
+
+	public JobMetrics(final JobMetrics parent) {
+		this.parent = parent;
+	}
+
+	public void submitted() {
+		submitted.increment();
+		if (parent != null)
+			parent.submitted();
+	}
+
+	public void completed(final long nanos) {
+		completed(1, nanos);
+	}
+
+	/**
+	 * @param jobs number of jobs that completed together in nanos, like a batch
+	 */
+	public void completed(final int jobs, final long nanos) {
+		completed.add(jobs);
+		executionTime.record(nanos, jobs);
+		if (parent != null)
+			parent.completed(jobs, nanos);
+	}
+
+	public void failed(final long nanos) {
+		failed(1, nanos);
+	}
+
+	public void failed(final int jobs, final long nanos) {
+		failed.add(jobs);
+		executionTime.record(nanos, jobs);
+		if (parent != null)
+			parent.failed(jobs, nanos);
+	}
+
+	/**
+	 * Never ran, because the executor was saturated or closed
+	 */
+	public void rejected() {
+		rejected.increment();
+		if (parent != null)
+			parent.rejected();
+	}
+
+	@Override
+	public long getSubmitted() {
+		return submitted.sum();
+	}
+
+	@Override
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	@Override
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "JobMetrics{" +
+				"submitted=" + getSubmitted() +
+				", completed=" + getCompleted() +
+				", failed=" + getFailed() +
+				", rejected=" + getRejected() +
+				", executionTime=" + executionTime +
+				'}';
+	}
+}
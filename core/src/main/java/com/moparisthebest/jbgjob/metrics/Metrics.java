@@ -0,0 +1,95 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes metrics as MBeans on the platform MBeanServer under the com.moparisthebest.jbgjob domain.
+ * <p/>
+ * scheduler.metrics.enabled (default true) turns recording off entirely, scheduler.metrics.jmx (default true) just
+ * stops publishing.
+ */
+public final class Metrics {
+
+	public static final String domain = "com.moparisthebest.jbgjob";
+	public static final boolean enabled = !"false".equalsIgnoreCase(System.getProperty("scheduler.metrics.enabled"));
+	public static final boolean jmx = enabled && !"false".equalsIgnoreCase(System.getProperty("scheduler.metrics.jmx"));
+
+	private Metrics() {
+	}
+
+	/**
+	 * Never replaces anything already registered under the same name, instead an instance=2, 3 and so on key property is
+	 * added until it is unique, so two executors or processors given the same name each keep their own metrics
+	 *
+	 * @param properties key properties of the ObjectName, like type=Queue,name=default
+	 * @return the ObjectName mbean was registered as, or null if it wasn't
+	 */
+	public static ObjectName register(final Object mbean, final String properties) {
+		if (!jmx)
+			return null;
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (int instance = 1; ; ++instance) {
+				final ObjectName objectName = new ObjectName(domain + ":" + properties + (instance == 1 ? "" : ",instance=" + instance));
+				try {
+					server.registerMBean(mbean, objectName);
+					return objectName;
+				} catch (InstanceAlreadyExistsException e) {
+					// try the next instance
+				}
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @return the instance key property register added to objectName, like ",instance=2", or "" if it didn't, for
+	 * registering everything else belonging to the same thing under the same instance
+	 */
+	public static String instance(final ObjectName objectName) {
+		final String instance = objectName == null ? null : objectName.getKeyProperty("instance");
+		return instance == null ? "" : ",instance=" + instance;
+	}
+
+	public static void unregister(final ObjectName objectName) {
+		if (objectName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (Throwable e) {
+			// already gone
+		}
+	}
+
+	/**
+	 * @return value quoted for use in an ObjectName
+	 */
+	public static String quote(final String value) {
+		return ObjectName.quote(value);
+	}
+}
@@ -20,24 +20,31 @@
 
 package com.moparisthebest.jbgjob.pool;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents pools of objects grouped by Class, if one isn't available when requested a new one is constructed with a default constructor.
+ * <p/>
+ * This is entirely lock-free, each Class gets its own stack so threads working with different Classes never contend,
+ * and each stack holds at most queueSize idle objects, anything released beyond that is simply dropped for the GC.
  */
 public class ObjectPool {
 
 	protected final int queueSize;
-	protected final Map<Class, Deque> pool = new HashMap<Class, Deque>();
+	protected final ConcurrentMap<Class, Stack> pool = new ConcurrentHashMap<Class, Stack>();
+	protected final LongAdder created = new LongAdder(), reused = new LongAdder(), dropped = new LongAdder();
 
 	public ObjectPool() {
 		this(16);
 	}
 
 	public ObjectPool(int queueSize) {
+		if (queueSize < 0)
+			throw new IllegalArgumentException("queueSize cannot be negative!");
 		this.queueSize = queueSize;
 	}
 
@@ -45,25 +52,52 @@ public class ObjectPool {
 	public <T> T getResource(Class<T> obClass) throws IllegalAccessException, InstantiationException {
 		if (obClass == null)
 			throw new NullPointerException("Class cannot be null!");
-		synchronized (pool) {
-			Deque deque = pool.get(obClass);
-			if (deque == null) {
-				deque = new ArrayDeque(queueSize);
-				pool.put(obClass, deque);
-			}
-			return deque.isEmpty() ? obClass.newInstance() : (T) deque.pop();
+		final T ret = (T) getStack(obClass).pop();
+		if (ret == null) {
+			created.increment();
+			return obClass.newInstance();
 		}
-
+		reused.increment();
+		return ret;
 	}
 
-	@SuppressWarnings({"unchecked"})
 	public <T> void releaseResource(T resource) {
 		if (resource == null)
 			throw new NullPointerException("Released resource cannot be null!");
-		synchronized (pool) {
-			pool.get(resource.getClass()).push(resource);
-			//System.out.println("pool: " + pool);
+		if (!getStack(resource.getClass()).push(resource))
+			dropped.increment();
+	}
+
+	/**
+	 * @return number of objects constructed because none were available
+	 */
+	public long getCreated() {
+		return created.sum();
+	}
+
+	/**
+	 * @return number of objects handed out again after being released
+	 */
+	public long getReused() {
+		return reused.sum();
+	}
+
+	/**
+	 * @return number of objects released while the pool for their Class was full, and so left for the GC
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	protected Stack getStack(final Class obClass) {
+		Stack stack = pool.get(obClass);
+		if (stack == null) {
+			stack = new Stack(queueSize);
+			final Stack existing = pool.putIfAbsent(obClass, stack);
+			if (existing != null)
+				stack = existing;
 		}
+		return stack;
 	}
 
 	@Override
@@ -73,4 +107,49 @@ public class ObjectPool {
 				", pool=" + pool +
 				"} " + super.toString();
 	}
+
+	/**
+	 * Lock-free LIFO stack holding at most capacity objects, LIFO so the most recently used (cache-warm) object is handed out first.
+	 */
+	protected static class Stack {
+		private final int capacity;
+		private final AtomicInteger size = new AtomicInteger();
+		private final ConcurrentLinkedDeque<Object> deque = new ConcurrentLinkedDeque<Object>();
+
+		public Stack(final int capacity) {
+			this.capacity = capacity;
+		}
+
+		public Object pop() {
+			final Object ret = deque.pollFirst();
+			if (ret != null)
+				size.decrementAndGet();
+			return ret;
+		}
+
+		/**
+		 * @return true if it was pooled, false if the stack was full and it was dropped
+		 */
+		public boolean push(final Object o) {
+			// reserve a slot first so the capacity is a hard limit even with many threads releasing at once
+			if (size.incrementAndGet() > capacity) {
+				size.decrementAndGet();
+				return false;
+			}
+			deque.offerFirst(o);
+			return true;
+		}
+
+		public int size() {
+			return size.get();
+		}
+
+		@Override
+		public String toString() {
+			return "Stack{" +
+					"capacity=" + capacity +
+					", size=" + size +
+					'}';
+		}
+	}
 }
@@ -0,0 +1,79 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.pool;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ObjectPool where every thread keeps its own instance of each Class, so getting and releasing never touches state
+ * shared with any other thread, and after the first object of each Class is constructed in a given thread no more
+ * reflection is needed.
+ * <p/>
+ * This is meant for a fixed set of long-lived threads, like the workers of a ScheduledItemExecutor, since each thread
+ * holds on to one idle instance per Class it has ever used for its entire lifetime.
+ */
+public class ThreadLocalObjectPool extends ObjectPool {
+
+	private final ThreadLocal<Map<Class, Object>> local = new ThreadLocal<Map<Class, Object>>() {
+		@Override
+		protected Map<Class, Object> initialValue() {
+			return new IdentityHashMap<Class, Object>();
+		}
+	};
+
+	public ThreadLocalObjectPool() {
+		super(1);
+	}
+
+	@Override
+	@SuppressWarnings({"unchecked"})
+	public <T> T getResource(final Class<T> obClass) throws IllegalAccessException, InstantiationException {
+		if (obClass == null)
+			throw new NullPointerException("Class cannot be null!");
+		// removed while in use, so if this thread somehow needs a second one at the same time it gets its own
+		final T ret = (T) local.get().remove(obClass);
+		if (ret == null) {
+			created.increment();
+			return obClass.newInstance();
+		}
+		reused.increment();
+		return ret;
+	}
+
+	@Override
+	public <T> void releaseResource(final T resource) {
+		if (resource == null)
+			throw new NullPointerException("Released resource cannot be null!");
+		final Map<Class, Object> cache = local.get();
+		final Class obClass = resource.getClass();
+		// only ever keep 1 per thread, any extra is dropped
+		if (!cache.containsKey(obClass))
+			cache.put(obClass, resource);
+		else
+			dropped.increment();
+	}
+
+	@Override
+	public String toString() {
+		return "ThreadLocalObjectPool{} " + super.toString();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.result;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Passes every result on to two ExecutionResults, first then second.  Use of() to create one, the result is only a
+ * SpillableExecutionResult if one of them is.
+ */
+public class CompositeExecutionResult implements ExecutionResult {
+	protected final ExecutionResult first, second;
+
+	protected CompositeExecutionResult(final ExecutionResult first, final ExecutionResult second) {
+		this.first = first;
+		this.second = second;
+	}
+
+	/**
+	 * @return an ExecutionResult calling both first and second, either of which may be null
+	 */
+	public static ExecutionResult of(final ExecutionResult first, final ExecutionResult second) {
+		if (first == null)
+			return second;
+		if (second == null)
+			return first;
+		return first instanceof SpillableExecutionResult || second instanceof SpillableExecutionResult ?
+				new Spillable(first, second) : new CompositeExecutionResult(first, second);
+	}
+
+	@Override
+	public void success() {
+		try {
+			first.success();
+		} finally {
+			second.success();
+		}
+	}
+
+	@Override
+	public void error(final Throwable e) {
+		try {
+			first.error(e);
+		} finally {
+			second.error(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CompositeExecutionResult{" +
+				"first=" + first +
+				", second=" + second +
+				'}';
+	}
+
+	protected static class Spillable extends CompositeExecutionResult implements SpillableExecutionResult {
+		protected Spillable(final ExecutionResult first, final ExecutionResult second) {
+			super(first, second);
+		}
+
+		@Override
+		public void spill() {
+			try {
+				spill(first);
+			} finally {
+				spill(second);
+			}
+		}
+
+		private static void spill(final ExecutionResult result) {
+			if (result instanceof SpillableExecutionResult)
+				((SpillableExecutionResult) result).spill();
+			else // it'll never run here, so as far as this one is concerned it was rejected
+				result.error(new RejectedExecutionException("job spilled back to its source"));
+		}
+	}
+}
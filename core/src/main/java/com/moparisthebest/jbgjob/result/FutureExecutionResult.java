@@ -0,0 +1,52 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.result;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Completes a CompletableFuture with true on success, or exceptionally with the error
+ */
+public class FutureExecutionResult implements ExecutionResult {
+	protected final CompletableFuture<Boolean> future;
+
+	public FutureExecutionResult() {
+		this(new CompletableFuture<Boolean>());
+	}
+
+	public FutureExecutionResult(final CompletableFuture<Boolean> future) {
+		this.future = future;
+	}
+
+	public CompletableFuture<Boolean> getFuture() {
+		return future;
+	}
+
+	@Override
+	public void success() {
+		future.complete(true);
+	}
+
+	@Override
+	public void error(Throwable e) {
+		future.completeExceptionally(e);
+	}
+}
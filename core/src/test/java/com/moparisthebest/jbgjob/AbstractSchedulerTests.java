@@ -27,8 +27,10 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 public class AbstractSchedulerTests {
 	public static Scheduler bg;
@@ -55,6 +57,23 @@ public class AbstractSchedulerTests {
 		Assert.assertTrue(bg.schedule(PrintingJob.class, new PrintDTO(true)));
 	}
 
+	@Test
+	public void testScheduleAsync() throws Throwable {
+		Assert.assertTrue(bg.scheduleAsync(PrintingJob.class, new PrintDTO("async")).get(30, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testScheduleRunAtPast() throws Throwable {
+		Assert.assertTrue(bg.schedule(AbstractScheduler.defaultQueue, PrintingJob.class, new PrintDTO("runAtPast"), Instant.now().minusSeconds(60)));
+	}
+
+	@Test
+	public void testScheduleAll() throws Throwable {
+		final boolean[] scheduled = bg.scheduleAll(PrintingJob.class, Arrays.asList(new PrintDTO("all 0"), new PrintDTOChild(), new PrintDTO("all 2")));
+		Assert.assertEquals(Arrays.toString(new boolean[]{true, true, true}), Arrays.toString(scheduled));
+		Assert.assertEquals(0, bg.scheduleAll(AbstractScheduler.defaultQueue, Collections.<ScheduledItem<?>>emptyList()).length);
+	}
+
 	@Test
 	public void testFastJobs() throws Throwable {
 		int x = 0;
@@ -0,0 +1,198 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchBackgroundJobTest {
+
+	private static final Queue<Integer> batchSizes = new ConcurrentLinkedQueue<Integer>();
+	private static final Queue<String> batchThreads = new ConcurrentLinkedQueue<String>();
+	private static final CountDownLatch[] latch = new CountDownLatch[1];
+	private static final CountDownLatch[] started = new CountDownLatch[1];
+
+	public static class RecordingBatchJob extends AbstractBatchBackgroundJob<String> {
+		@Override
+		public void process(final List<String> dtos) {
+			batchSizes.add(dtos.size());
+			batchThreads.add(Thread.currentThread().getName());
+			if (dtos.contains("fail"))
+				throw new RuntimeException("batch failed");
+		}
+	}
+
+	public static class LatchJob implements BackgroundJob<String> {
+		@Override
+		public void process(final String dto) {
+			started[0].countDown();
+			try {
+				latch[0].await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static class CountingResult implements ExecutionResult {
+		private final CountDownLatch done;
+		private final AtomicInteger successes = new AtomicInteger(), errors = new AtomicInteger();
+
+		private CountingResult(final int count) {
+			this.done = new CountDownLatch(count);
+		}
+
+		@Override
+		public void success() {
+			successes.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void error(final Throwable e) {
+			errors.incrementAndGet();
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testBatching() throws Throwable {
+		batchSizes.clear();
+		final int count = 25;
+		final CountingResult result = new CountingResult(count);
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1).setBatching(10, 50);
+		try {
+			for (int x = 0; x < count; ++x)
+				executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "dto " + x), result);
+			// the last 5 only go once the linger time has passed
+			Assert.assertTrue(result.done.await(10, TimeUnit.SECONDS));
+		} finally {
+			executor.close();
+		}
+		Assert.assertEquals(count, result.successes.get());
+		int total = 0;
+		for (final int size : batchSizes) {
+			Assert.assertTrue(size <= 10);
+			total += size;
+		}
+		Assert.assertEquals(count, total);
+		Assert.assertTrue(batchSizes.size() >= 3);
+	}
+
+	@Test
+	public void testBatchErrorReportedPerItem() throws Throwable {
+		batchSizes.clear();
+		final CountingResult result = new CountingResult(3);
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1).setBatching(3, 1000);
+		try {
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "ok"), result);
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "fail"), result);
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "ok"), result);
+			Assert.assertTrue(result.done.await(10, TimeUnit.SECONDS));
+		} finally {
+			executor.close();
+		}
+		Assert.assertEquals(3, result.errors.get());
+	}
+
+	@Test
+	public void testCloseFlushes() throws Throwable {
+		final CountingResult result = new CountingResult(1);
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1).setBatching(10, TimeUnit.HOURS.toMillis(1));
+		executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "lonely"), result);
+		executor.close();
+		Assert.assertTrue(result.done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, result.successes.get());
+	}
+
+	@Test
+	public void testRejectedAfterClose() throws Throwable {
+		final CountingResult result = new CountingResult(2);
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1).setBatching(10, TimeUnit.HOURS.toMillis(1));
+		executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "before"), result);
+		executor.close();
+		executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "after"), result);
+		Assert.assertTrue(result.done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, result.successes.get());
+		Assert.assertEquals(1, result.errors.get());
+	}
+
+	@Test
+	public void testSuccessReportedDespiteThrowingResult() throws Throwable {
+		final CountingResult result = new CountingResult(2);
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1).setBatching(3, 1000);
+		try {
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "ok"), result);
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "ok"), new ExecutionResult() {
+				@Override
+				public void success() {
+					throw new RuntimeException("success callback failed");
+				}
+
+				@Override
+				public void error(final Throwable e) {
+					result.error(e);
+				}
+			});
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "ok"), result);
+			Assert.assertTrue(result.done.await(10, TimeUnit.SECONDS));
+		} finally {
+			executor.close();
+		}
+		Assert.assertEquals(2, result.successes.get());
+		Assert.assertEquals(0, result.errors.get());
+	}
+
+	@Test
+	public void testLingerNeverRunsBatchInTimer() throws Throwable {
+		batchThreads.clear();
+		latch[0] = new CountDownLatch(1);
+		started[0] = new CountDownLatch(1);
+		final CountingResult result = new CountingResult(1);
+		// 1 thread busy and 1 job waiting, so any dispatch now would run in the caller
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1, 1, SaturationPolicy.callerRuns(), new ObjectPool()).setBatching(10, 10);
+		try {
+			executor.execute(new ScheduledItem<String>(LatchJob.class, "running"));
+			Assert.assertTrue(started[0].await(10, TimeUnit.SECONDS));
+			executor.execute(new ScheduledItem<String>(LatchJob.class, "waiting"));
+			executor.execute(new ScheduledItem<String>(RecordingBatchJob.class, "lingering"), result);
+			// the linger expires many times over while there is no room
+			Assert.assertFalse(result.done.await(200, TimeUnit.MILLISECONDS));
+			latch[0].countDown();
+			Assert.assertTrue(result.done.await(10, TimeUnit.SECONDS));
+		} finally {
+			latch[0].countDown();
+			executor.close();
+		}
+		Assert.assertEquals(1, result.successes.get());
+		Assert.assertEquals(1, batchThreads.size());
+		Assert.assertNotEquals("ScheduledItemBatcher-linger", batchThreads.peek());
+	}
+}
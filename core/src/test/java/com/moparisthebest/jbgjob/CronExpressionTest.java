@@ -0,0 +1,77 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+public class CronExpressionTest {
+
+	private static final ZoneId utc = ZoneId.of("UTC");
+
+	private static ZonedDateTime time(final int year, final int month, final int day, final int hour, final int minute) {
+		return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, utc);
+	}
+
+	private static void assertNext(final String expression, final ZonedDateTime after, final ZonedDateTime expected) {
+		Assert.assertEquals(expected, CronExpression.parse(expression).next(after));
+	}
+
+	@Test
+	public void testNext() throws Throwable {
+		assertNext("* * * * *", time(2020, 1, 1, 0, 0), time(2020, 1, 1, 0, 1));
+		assertNext("*/15 * * * *", time(2020, 1, 1, 0, 14).plusSeconds(59), time(2020, 1, 1, 0, 15));
+		assertNext("30 2 * * *", time(2020, 1, 1, 2, 30), time(2020, 1, 2, 2, 30));
+		assertNext("0 0 1 jan *", time(2020, 6, 1, 0, 0), time(2021, 1, 1, 0, 0));
+		assertNext("@hourly", time(2020, 12, 31, 23, 5), time(2021, 1, 1, 0, 0));
+		assertNext("0 9 * * MON-FRI", time(2020, 1, 3, 9, 0), time(2020, 1, 6, 9, 0));
+		assertNext("0 0 29 2 *", time(2021, 1, 1, 0, 0), time(2024, 2, 29, 0, 0));
+		// sunday is 0 and 7
+		assertNext("0 0 * * 7", time(2020, 1, 1, 0, 0), time(2020, 1, 5, 0, 0));
+	}
+
+	@Test
+	public void testDayOfMonthOrDayOfWeek() throws Throwable {
+		// the 15th or any monday
+		assertNext("0 0 15 * 1", time(2020, 1, 7, 0, 0), time(2020, 1, 13, 0, 0));
+		assertNext("0 0 15 * 1", time(2020, 1, 13, 0, 0), time(2020, 1, 15, 0, 0));
+	}
+
+	@Test
+	public void testInvalid() throws Throwable {
+		for (final String expression : new String[]{"* * * *", "60 * * * *", "* * * foo *", "5-1 * * * *", "*/0 * * * *"})
+			try {
+				CronExpression.parse(expression);
+				Assert.fail("should have thrown IllegalArgumentException: " + expression);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		try {
+			CronExpression.parse("0 0 30 2 *").next(time(2020, 1, 1, 0, 0));
+			Assert.fail("should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+import com.moparisthebest.jbgjob.result.SpillableExecutionResult;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SaturationPolicyTest {
+
+	/**
+	 * Carried by each job, so one left over from an earlier test can only ever wait on that test's latches
+	 */
+	public static class Latches {
+		private final CountDownLatch started = new CountDownLatch(1), latch = new CountDownLatch(1);
+	}
+
+	public static class LatchJob implements BackgroundJob<Latches> {
+		@Override
+		public void process(final Latches dto) {
+			dto.started.countDown();
+			try {
+				dto.latch.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private final Latches latches = new Latches();
+	private ScheduledItemExecutor executor;
+
+	private ScheduledItem<Latches> job() {
+		return new ScheduledItem<Latches>(LatchJob.class, latches);
+	}
+
+	/**
+	 * @return executor with 1 thread and room for 1 waiting job, which is now full
+	 */
+	private ScheduledItemExecutor saturated(final SaturationPolicy policy) {
+		running(policy);
+		executor.execute(job());
+		return executor;
+	}
+
+	private void running(final SaturationPolicy policy) {
+		executor = new ScheduledItemExecutor(1, 1, policy, new ObjectPool());
+		executor.execute(job());
+		try {
+			latches.started.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		latches.latch.countDown();
+		executor.close();
+		// so nothing from this test is still running when the next starts
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBlockTimeout() {
+		final SaturationPolicy policy = SaturationPolicy.block(10, TimeUnit.MILLISECONDS);
+		try {
+			saturated(policy).execute(job());
+			Assert.fail("should have timed out");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		Assert.assertEquals(1, policy.getFired());
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testReject() {
+		saturated(SaturationPolicy.reject()).execute(job());
+	}
+
+	@Test
+	public void testCallerRuns() {
+		final SaturationPolicy policy = SaturationPolicy.callerRuns();
+		final Thread caller = Thread.currentThread();
+		final Thread[] ranIn = new Thread[1];
+		saturated(policy).execute(new ScheduledItem<Latches>(LatchJob.class, latches) {
+			@Override
+			public void run() {
+				ranIn[0] = Thread.currentThread();
+			}
+		});
+		Assert.assertSame(caller, ranIn[0]);
+		Assert.assertEquals(1, policy.getFired());
+	}
+
+	@Test
+	public void testDropOldest() {
+		final SaturationPolicy policy = SaturationPolicy.dropOldest();
+		final AtomicInteger errors = new AtomicInteger();
+		running(policy);
+		executor.execute(job(), new ExecutionResult() {
+			@Override
+			public void success() {
+			}
+
+			@Override
+			public void error(final Throwable e) {
+				errors.incrementAndGet();
+			}
+		});
+		executor.execute(job());
+		Assert.assertEquals(1, errors.get());
+		Assert.assertEquals(1, policy.getFired());
+	}
+
+	@Test
+	public void testSpill() {
+		final SaturationPolicy policy = SaturationPolicy.spill();
+		final AtomicInteger spilled = new AtomicInteger();
+		saturated(policy).execute(job(), new SpillableExecutionResult() {
+			@Override
+			public void spill() {
+				spilled.incrementAndGet();
+			}
+
+			@Override
+			public void success() {
+			}
+
+			@Override
+			public void error(final Throwable e) {
+			}
+		});
+		Assert.assertEquals(1, spilled.get());
+		try {
+			executor.execute(job());
+			Assert.fail("should have been rejected");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		Assert.assertEquals(2, policy.getFired());
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ScheduledItemTest {
+
+	public static class NoopJob implements BackgroundJob<String> {
+		@Override
+		public void process(final String dto) {
+		}
+	}
+
+	private static class CountingResult implements ExecutionResult {
+		private final AtomicInteger successes = new AtomicInteger();
+
+		@Override
+		public void success() {
+			successes.incrementAndGet();
+		}
+
+		@Override
+		public void error(final Throwable e) {
+		}
+	}
+
+	@Test
+	public void testResultOnlyForThatExecution() throws Exception {
+		final ScheduledItem<String> scheduledItem = new ScheduledItem<String>(NoopJob.class, "again");
+		final CountingResult own = new CountingResult(), first = new CountingResult(), second = new CountingResult();
+		scheduledItem.setResult(own);
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1, SaturationPolicy.block(), new ObjectPool());
+		try {
+			executor.execute(scheduledItem, first);
+			executor.execute(scheduledItem, second);
+		} finally {
+			executor.close();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+		// each call's result only hears about its own run, the item's own about both
+		Assert.assertEquals(1, first.successes.get());
+		Assert.assertEquals(1, second.successes.get());
+		Assert.assertEquals(2, own.successes.get());
+	}
+
+	@Test
+	public void testDefaultScheduleAsyncSchedules() throws Exception {
+		final List<ScheduledItem<?>> scheduled = new ArrayList<ScheduledItem<?>>();
+		final Scheduler scheduler = new AbstractScheduler() {
+			@Override
+			public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem) {
+				super.schedule(queue, scheduledItem);
+				scheduled.add(scheduledItem);
+				return false;
+			}
+
+			@Override
+			public <T> T testSerialization(final T t) {
+				return t;
+			}
+		};
+		// completes with what schedule returned, after actually calling it
+		Assert.assertFalse(scheduler.scheduleAsync(NoopJob.class, "async").get());
+		Assert.assertEquals(1, scheduled.size());
+	}
+}
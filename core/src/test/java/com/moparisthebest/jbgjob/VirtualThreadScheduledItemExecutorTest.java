@@ -0,0 +1,97 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.pool.ThreadLocalObjectPool;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadScheduledItemExecutorTest {
+
+	private static final AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+
+	public static class CountingJob implements BackgroundJob<String> {
+		@Override
+		public void process(final String dto) {
+			final int now = running.incrementAndGet();
+			int max;
+			while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now)) ;
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThreadLocalObjectPoolNotAllowed() {
+		new VirtualThreadScheduledItemExecutor(4, SaturationPolicy.block(), new ThreadLocalObjectPool());
+	}
+
+	@Test
+	public void testMaxConcurrency() throws Throwable {
+		testMaxConcurrency(4, 4);
+	}
+
+	@Test
+	public void testSetMaxConcurrency() throws Throwable {
+		testMaxConcurrency(8, 2);
+	}
+
+	private static void testMaxConcurrency(final int initialConcurrency, final int maxConcurrency) throws Throwable {
+		Assume.assumeTrue(VirtualThreadScheduledItemExecutor.isSupported());
+		maxRunning.set(0);
+		final int jobs = 100;
+		final CountDownLatch done = new CountDownLatch(jobs);
+		final ExecutionResult result = new ExecutionResult() {
+			@Override
+			public void success() {
+				done.countDown();
+			}
+
+			@Override
+			public void error(final Throwable e) {
+				e.printStackTrace();
+			}
+		};
+		final ScheduledItemExecutor executor = new VirtualThreadScheduledItemExecutor(initialConcurrency);
+		try {
+			executor.setNumThreads(maxConcurrency);
+			Assert.assertEquals(maxConcurrency, executor.getNumThreads());
+			Assert.assertEquals(maxConcurrency, executor.getFreeCapacity());
+			for (int x = 0; x < jobs; ++x)
+				executor.execute(new ScheduledItem<String>(CountingJob.class, "job " + x), result);
+			Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+			Assert.assertTrue(maxRunning.get() <= maxConcurrency);
+		} finally {
+			executor.close();
+		}
+	}
+}
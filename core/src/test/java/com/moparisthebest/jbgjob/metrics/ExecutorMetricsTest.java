@@ -0,0 +1,136 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.metrics;
+
+import com.moparisthebest.jbgjob.BackgroundJob;
+import com.moparisthebest.jbgjob.ScheduledItem;
+import com.moparisthebest.jbgjob.ScheduledItemExecutor;
+import com.moparisthebest.jbgjob.SaturationPolicy;
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import com.moparisthebest.jbgjob.result.FutureExecutionResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ExecutorMetricsTest {
+
+	public static class QuickJob implements BackgroundJob<Boolean> {
+		@Override
+		public void process(final Boolean fail) {
+			if (fail)
+				throw new IllegalStateException("asked to fail");
+		}
+	}
+
+	private static FutureExecutionResult execute(final ScheduledItemExecutor executor, final boolean fail) {
+		final FutureExecutionResult result = new FutureExecutionResult();
+		executor.execute(new ScheduledItem<Boolean>(QuickJob.class, fail), result);
+		return result;
+	}
+
+	@Test
+	public void testCounts() throws Throwable {
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1, SaturationPolicy.block(), new ObjectPool(1)).setMetricsName("ExecutorMetricsTest");
+		try {
+			Assert.assertTrue(execute(executor, false).getFuture().get(30, TimeUnit.SECONDS));
+			Assert.assertTrue(execute(executor, false).getFuture().get(30, TimeUnit.SECONDS));
+			try {
+				execute(executor, true).getFuture().get(30, TimeUnit.SECONDS);
+				Assert.fail("should have thrown ExecutionException");
+			} catch (ExecutionException e) {
+				// expected
+			}
+			final ExecutorMetrics metrics = executor.getMetrics();
+			Assert.assertEquals(3, metrics.getSubmitted());
+			Assert.assertEquals(2, metrics.getCompleted());
+			Assert.assertEquals(1, metrics.getFailed());
+			Assert.assertEquals(0, metrics.getRejected());
+			Assert.assertEquals(3, metrics.executionTime.getCount());
+			Assert.assertEquals(3, metrics.forClass(QuickJob.class).getSubmitted());
+			// one thread, so one instance constructed then reused
+			Assert.assertEquals(1, metrics.getPoolCreated());
+			Assert.assertEquals(2, metrics.getPoolReused());
+
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(Metrics.domain + ":type=ScheduledItemExecutor,name=" + Metrics.quote("ExecutorMetricsTest"));
+			Assert.assertEquals(3L, server.getAttribute(name, "Submitted"));
+			Assert.assertEquals(2L, server.getAttribute(new ObjectName(Metrics.domain + ":type=BackgroundJob,executor=" + Metrics.quote("ExecutorMetricsTest")
+					+ ",bgClass=" + Metrics.quote(QuickJob.class.getName())), "Completed"));
+		} finally {
+			executor.close();
+		}
+		Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName(Metrics.domain + ":executor=" + Metrics.quote("ExecutorMetricsTest") + ",*"), null).isEmpty());
+	}
+
+	@Test
+	public void testRejectedOnce() throws Throwable {
+		final ScheduledItemExecutor executor = new ScheduledItemExecutor(1, SaturationPolicy.reject(), new ObjectPool(1)).setMetricsName("ExecutorMetricsTest-rejected");
+		executor.close();
+		final FutureExecutionResult result = new FutureExecutionResult();
+		try {
+			executor.execute(new ScheduledItem<Boolean>(QuickJob.class, false), result);
+			Assert.fail("should have thrown RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		final ExecutorMetrics metrics = executor.getMetrics();
+		Assert.assertEquals(1, metrics.getSubmitted());
+		Assert.assertEquals(1, metrics.getRejected());
+		Assert.assertEquals(1, metrics.forClass(QuickJob.class).getRejected());
+		try {
+			result.getFuture().get(30, TimeUnit.SECONDS);
+			Assert.fail("should have thrown ExecutionException");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	@Test
+	public void testSameNameKeepsBoth() throws Throwable {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final String quoted = Metrics.quote("ExecutorMetricsTest-same");
+		final ObjectName first = new ObjectName(Metrics.domain + ":type=ScheduledItemExecutor,name=" + quoted);
+		final ObjectName second = new ObjectName(Metrics.domain + ":type=ScheduledItemExecutor,name=" + quoted + ",instance=2");
+		final ScheduledItemExecutor one = new ScheduledItemExecutor(1, SaturationPolicy.block(), new ObjectPool(1)).setMetricsName("ExecutorMetricsTest-same");
+		final ScheduledItemExecutor two = new ScheduledItemExecutor(1, SaturationPolicy.block(), new ObjectPool(1)).setMetricsName("ExecutorMetricsTest-same");
+		try {
+			Assert.assertTrue(execute(two, false).getFuture().get(30, TimeUnit.SECONDS));
+			Assert.assertEquals(0L, server.getAttribute(first, "Submitted"));
+			Assert.assertEquals(1L, server.getAttribute(second, "Submitted"));
+			Assert.assertEquals(1L, server.getAttribute(new ObjectName(Metrics.domain + ":type=BackgroundJob,executor=" + quoted + ",instance=2"
+					+ ",bgClass=" + Metrics.quote(QuickJob.class.getName())), "Completed"));
+			// closing one leaves the other alone
+			one.close();
+			Assert.assertFalse(server.isRegistered(first));
+			Assert.assertTrue(server.isRegistered(second));
+		} finally {
+			one.close();
+			two.close();
+		}
+		Assert.assertFalse(server.isRegistered(second));
+	}
+}
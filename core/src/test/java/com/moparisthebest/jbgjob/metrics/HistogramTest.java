@@ -0,0 +1,62 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testEmpty() throws Throwable {
+		final Histogram histogram = new Histogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMean(), 0);
+		Assert.assertEquals(0, histogram.getP99());
+		Assert.assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void testPercentiles() throws Throwable {
+		final Histogram histogram = new Histogram();
+		for (int x = 1; x <= 1000; ++x)
+			histogram.record(x);
+		histogram.record(1000000, 10);
+		Assert.assertEquals(1010, histogram.getCount());
+		Assert.assertEquals(1000000, histogram.getMax());
+		Assert.assertEquals((500500 + 10000000) / 1010.0, histogram.getMean(), 0.001);
+		// 505th value is 505, in bucket [256, 512)
+		Assert.assertEquals(511, histogram.getP50());
+		// 1000th value is 1000, in bucket [512, 1024)
+		Assert.assertEquals(1023, histogram.getPercentile(1000 / 1010.0));
+		// never past the max
+		Assert.assertEquals(1000000, histogram.getP999());
+	}
+
+	@Test
+	public void testNegativeAndZero() throws Throwable {
+		final Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(0);
+		Assert.assertEquals(2, histogram.getCount());
+		Assert.assertEquals(0, histogram.getP99());
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.pool;
+
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ObjectPoolTest {
+
+	@Test
+	public void testReuse() throws Throwable {
+		final ObjectPool pool = new ObjectPool(2);
+		final PrintingJob job = pool.getResource(PrintingJob.class);
+		pool.releaseResource(job);
+		Assert.assertSame(job, pool.getResource(PrintingJob.class));
+		Assert.assertNotSame(job, pool.getResource(PrintingJob.class));
+	}
+
+	@Test
+	public void testCapacity() throws Throwable {
+		final ObjectPool pool = new ObjectPool(2);
+		final List<PrintingJob> jobs = new ArrayList<PrintingJob>();
+		for (int x = 0; x < 5; ++x)
+			jobs.add(pool.getResource(PrintingJob.class));
+		for (final PrintingJob job : jobs)
+			pool.releaseResource(job);
+		Assert.assertEquals(2, pool.getStack(PrintingJob.class).size());
+	}
+
+	@Test
+	public void testReleaseNeverBorrowed() throws Throwable {
+		final ObjectPool pool = new ObjectPool();
+		pool.releaseResource(new Object());
+		Assert.assertEquals(1, pool.getStack(Object.class).size());
+	}
+
+	@Test
+	public void testContention() throws Throwable {
+		final int numThreads = 16, iterations = 10000, capacity = 4;
+		final ObjectPool pool = new ObjectPool(capacity);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int x = 0; x < iterations; ++x) {
+							final StringBuilder sb = pool.getResource(StringBuilder.class);
+							// if two threads were ever handed the same instance this would eventually trip
+							if (sb.length() != 0)
+								throw new IllegalStateException("instance handed to two threads at once!");
+							sb.append('x');
+							sb.setLength(0);
+							pool.releaseResource(sb);
+						}
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (final Thread thread : threads)
+			thread.join();
+		Assert.assertNull(error.get());
+		Assert.assertTrue(pool.getStack(StringBuilder.class).size() <= capacity);
+	}
+}
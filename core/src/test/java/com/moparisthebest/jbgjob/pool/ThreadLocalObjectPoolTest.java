@@ -0,0 +1,65 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.pool;
+
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ThreadLocalObjectPoolTest {
+
+	@Test
+	public void testSameThreadReuse() throws Throwable {
+		final ObjectPool pool = new ThreadLocalObjectPool();
+		final PrintingJob job = pool.getResource(PrintingJob.class);
+		// in use, so a nested get must not hand out the same one
+		final PrintingJob nested = pool.getResource(PrintingJob.class);
+		Assert.assertNotSame(job, nested);
+		pool.releaseResource(nested);
+		pool.releaseResource(job);
+		Assert.assertSame(nested, pool.getResource(PrintingJob.class));
+	}
+
+	@Test
+	public void testThreadConfined() throws Throwable {
+		final ObjectPool pool = new ThreadLocalObjectPool();
+		final PrintingJob job = pool.getResource(PrintingJob.class);
+		pool.releaseResource(job);
+		final AtomicReference<Object> other = new AtomicReference<Object>();
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					other.set(pool.getResource(PrintingJob.class));
+				} catch (Throwable e) {
+					other.set(e);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		Assert.assertTrue(other.get() instanceof PrintingJob);
+		Assert.assertNotSame(job, other.get());
+		Assert.assertSame(job, pool.getResource(PrintingJob.class));
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes what has to happen in redis when jobs finish from a thread of its own, so the threads running jobs only add an
+ * Ack to a queue instead of waiting on redis.  Each write sends up to maxBatchSize Acks as a single MULTI, which Jedis
+ * pipelines into one round trip, after waiting up to maxLingerMillis from the first for more to arrive.  A connection
+ * is only borrowed from the pool for each write and returned straight after, so an idle AckWriter holds none, and a
+ * failed write is retried on a new connection every second until it works.
+ * <p>
+ * Once closed, or if maxBatchSize is less than 1, each Ack is written right away by whichever thread added it.
+ */
+public class AckWriter implements Closeable {
+
+	public static final int defaultMaxBatchSize = RedisThread.getIntSystemProperty("redis.ack.maxBatchSize", 100);// less than 1 to write each on the job's thread
+	public static final int defaultMaxLingerMillis = RedisThread.getIntSystemProperty("redis.ack.maxLingerMillis", 1);
+
+	public interface Ack {
+		/**
+		 * Queue the commands for this onto t
+		 */
+		public void addTo(final Transaction t);
+
+		/**
+		 * Called once they have been written
+		 */
+		public void written();
+	}
+
+	private final JedisPool pool;
+	private final int maxBatchSize;
+	private final long maxLingerNanos;
+	private final LinkedBlockingQueue<Ack> pending = new LinkedBlockingQueue<Ack>();
+	private final Thread thread;
+	private boolean closed;
+
+	public AckWriter(final JedisPool pool, final String name) {
+		this(pool, name, defaultMaxBatchSize, defaultMaxLingerMillis);
+	}
+
+	public AckWriter(final JedisPool pool, final String name, final int maxBatchSize, final long maxLingerMillis) {
+		if (pool == null || name == null)
+			throw new NullPointerException("No parameters can be null!");
+		this.pool = pool;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+		if (maxBatchSize > 0) {
+			this.thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					AckWriter.this.run();
+				}
+			}, "AckWriter-" + name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		} else {
+			this.thread = null;
+			this.closed = true;
+		}
+	}
+
+	public void add(final Ack ack) {
+		synchronized (this) {
+			if (!closed) {
+				pending.add(ack);
+				return;
+			}
+		}
+		final List<Ack> batch = new ArrayList<Ack>(1);
+		batch.add(ack);
+		tryWrite(batch);
+	}
+
+	private static void write(final Jedis jedis, final List<Ack> batch) {
+		if (RedisThread.debug) System.out.printf("redis>  MULTI %d acks\n", batch.size());
+		final Transaction t = jedis.multi();
+		for (final Ack ack : batch)
+			ack.addTo(t);
+		t.exec();
+		for (final Ack ack : batch)
+			try {
+				ack.written();
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+	}
+
+	/**
+	 * Writes batch on a connection borrowed from the pool just for it
+	 *
+	 * @return true if it was written, false if it failed and should be tried again
+	 */
+	private boolean tryWrite(final List<Ack> batch) {
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			write(jedis, batch);
+			return true;
+		} catch (Throwable e) {
+			e.printStackTrace();
+			tryReturnBroken(jedis);
+			jedis = null;
+			return false;
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	private void run() {
+		final List<Ack> batch = new ArrayList<Ack>(maxBatchSize);
+		try {
+			while (true) {
+				if (batch.isEmpty()) {
+					batch.add(pending.take());
+					final long deadline = System.nanoTime() + maxLingerNanos;
+					while (batch.size() < maxBatchSize && pending.drainTo(batch, maxBatchSize - batch.size()) == 0) {
+						final long wait = deadline - System.nanoTime();
+						final Ack ack = wait > 0 ? pending.poll(wait, TimeUnit.NANOSECONDS) : null;
+						if (ack == null)
+							break;
+						batch.add(ack);
+					}
+				}
+				if (tryWrite(batch))
+					batch.clear();
+				else
+					// keep the batch to try again on a new connection
+					Thread.sleep(1000);
+			}
+		} catch (InterruptedException e) {
+			// closed, nothing more can be added, so one last try at everything left
+			pending.drainTo(batch);
+			if (!batch.isEmpty())
+				tryWrite(batch);
+		}
+	}
+
+	private void tryReturn(final Jedis jedis) {
+		if (jedis != null)
+			try {
+				pool.returnResource(jedis);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+	}
+
+	private void tryReturnBroken(final Jedis jedis) {
+		if (jedis != null)
+			try {
+				pool.returnBrokenResource(jedis);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+	}
+
+	/**
+	 * Writes everything added so far and stops the thread, anything added after this is written by the thread adding it
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "AckWriter{" +
+				"maxBatchSize=" + maxBatchSize +
+				", maxLingerNanos=" + maxLingerNanos +
+				", pending=" + pending.size() +
+				'}';
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * Subscribes to pub/sub channels, on a connection and thread of its own, and passes on commands published there to a
+ * RedisThread as they arrive, instead of it having to look for them in redis:
+ * <ul>
+ * <li>shutdown: stop reading jobs, finish the ones already read, and close</li>
+ * <li>pause: stop reading jobs until resumed, pushing back any prefetched</li>
+ * <li>resume: start reading jobs again</li>
+ * <li>threads n: change how many threads the ScheduledItemExecutor runs jobs with</li>
+ * </ul>
+ * Pub/sub only reaches processors subscribed at that moment, so one reconnecting misses what was sent meanwhile,
+ * which is why the shutdown key is still checked every redis.shutdown.checkMillis.
+ */
+public class ControlChannel implements Closeable {
+
+	public static final String SHUTDOWN = "shutdown", PAUSE = "pause", RESUME = "resume", THREADS = "threads";
+
+	private final JedisPool pool;
+	private final RedisThread target;
+	private final String[] channels;
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	private final JedisPubSub pubSub = new JedisPubSub() {
+		@Override
+		public void onMessage(final String channel, final String message) {
+			if (RedisThread.debug) System.out.printf("redis>  MESSAGE %s %s\n", channel, message);
+			try {
+				command(message);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public void onSubscribe(final String channel, final int subscribedChannels) {
+			// closed before getting this far, nothing else will unsubscribe
+			if (closed)
+				unsubscribe();
+		}
+
+		@Override
+		public void onPMessage(final String pattern, final String channel, final String message) {
+		}
+
+		@Override
+		public void onUnsubscribe(final String channel, final int subscribedChannels) {
+		}
+
+		@Override
+		public void onPUnsubscribe(final String pattern, final int subscribedChannels) {
+		}
+
+		@Override
+		public void onPSubscribe(final String pattern, final int subscribedChannels) {
+		}
+	};
+
+	public ControlChannel(final JedisPool pool, final RedisThread target, final String... channels) {
+		if (pool == null || target == null || channels == null)
+			throw new NullPointerException("No parameters can be null!");
+		this.pool = pool;
+		this.target = target;
+		this.channels = channels;
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				subscribe();
+			}
+		}, "ControlChannel-" + target.consumer);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Publishes a command to every RedisThread subscribed to channel
+	 *
+	 * @return how many received it
+	 */
+	public static long publish(final Jedis jedis, final String channel, final String command) {
+		if (RedisThread.debug) System.out.printf("redis>  PUBLISH %s %s\n", channel, command);
+		return jedis.publish(channel, command);
+	}
+
+	/**
+	 * Runs one command, as if it had been published
+	 *
+	 * @throws IllegalArgumentException if it isn't one
+	 */
+	public void command(final String message) {
+		final String[] command = message.trim().split("\\s+");
+		if (SHUTDOWN.equals(command[0]) && command.length == 1)
+			target.shutdown();
+		else if (PAUSE.equals(command[0]) && command.length == 1)
+			target.pause();
+		else if (RESUME.equals(command[0]) && command.length == 1)
+			target.resume();
+		else if (THREADS.equals(command[0]) && command.length == 2)
+			target.executor.setNumThreads(Integer.parseInt(command[1]));
+		else
+			throw new IllegalArgumentException("unknown command: " + message);
+	}
+
+	private void subscribe() {
+		while (!closed) {
+			Jedis jedis = null;
+			boolean broken = false;
+			try {
+				jedis = pool.getResource();
+				if (RedisThread.debug) System.out.printf("redis>  SUBSCRIBE %s\n", Arrays.toString(channels));
+				// blocks until unsubscribed
+				jedis.subscribe(pubSub, channels);
+			} catch (Throwable e) {
+				broken = true;
+				if (closed)
+					return;
+				e.printStackTrace();
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e1) {
+					return;
+				}
+			} finally {
+				if (jedis != null)
+					try {
+						if (broken)
+							pool.returnBrokenResource(jedis);
+						else
+							pool.returnResource(jedis);
+					} catch (Throwable e) {
+						e.printStackTrace();
+					}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			if (pubSub.isSubscribed())
+				pubSub.unsubscribe();
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ControlChannel{" +
+				"channels=" + Arrays.toString(channels) +
+				'}';
+	}
+}
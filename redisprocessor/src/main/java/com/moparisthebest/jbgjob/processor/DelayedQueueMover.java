@@ -0,0 +1,105 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.LuaScript;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Atomically moves due members of a delayed sorted set (scored by runAtMillis, see RedisScheduler.scheduleDelayed) onto
+ * the ready queue with a Lua script, batchSize at a time, so the cost is one round trip per batch no matter how many
+ * timers are pending.
+ */
+public class DelayedQueueMover {
+
+	public static final int defaultBatchSize = RedisThread.getIntSystemProperty("redis.delayed.batchSize", 1000);
+
+	/**
+	 * KEYS[1] delayed sorted set, KEYS[2] ready list, ARGV[1] now in millis, ARGV[2] batch size
+	 * <p>
+	 * Strips the random unique prefix up to the first space from each member, LPUSHes them in due order so BRPOP
+	 * takes the oldest first, and returns {number moved, score of the next pending member or -1}
+	 */
+	public static final LuaScript script = new LuaScript(
+			"local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])\n" +
+			"if #due > 0 then\n" +
+			"	local items = {}\n" +
+			"	for i, member in ipairs(due) do\n" +
+			"		items[i] = string.sub(member, string.find(member, ' ', 1, true) + 1)\n" +
+			"	end\n" +
+			"	redis.call('LPUSH', KEYS[2], unpack(items))\n" +
+			"	redis.call('ZREM', KEYS[1], unpack(due))\n" +
+			"end\n" +
+			"local nxt = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')\n" +
+			"return {#due, nxt[2] or '-1'}");
+
+	protected final List<String> keys;
+	protected final String batchSize;
+	protected final long batch;
+
+	public DelayedQueueMover(final String delayedQueue, final String queue) {
+		this(delayedQueue, queue, defaultBatchSize);
+	}
+
+	public DelayedQueueMover(final String delayedQueue, final String queue, final int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be > 0");
+		this.keys = Collections.unmodifiableList(Arrays.asList(delayedQueue, queue));
+		this.batch = batchSize;
+		this.batchSize = Integer.toString(batchSize);
+	}
+
+	/**
+	 * Moves everything due at now, batch by batch
+	 *
+	 * @return runAtMillis of the next pending item, or -1 if there are none
+	 */
+	public long move(final Jedis jedis, final long now) {
+		while (true) {
+			final List<?> ret = (List<?>) moveBatch(jedis, Long.toString(now));
+			final long moved = ((Number) ret.get(0)).longValue();
+			final long next = (long) Double.parseDouble(ret.get(1).toString());
+			if (moved < batch || next < 0 || next > now)
+				return next;
+		}
+	}
+
+	/**
+	 * Moves one batch of those due at now
+	 *
+	 * @return {number moved, score of the next pending member or -1}
+	 */
+	protected Object moveBatch(final Jedis jedis, final String now) {
+		return script.eval(jedis, keys, Arrays.asList(now, batchSize));
+	}
+
+	@Override
+	public String toString() {
+		return "DelayedQueueMover{" +
+				"keys=" + keys +
+				", batchSize=" + batchSize +
+				'}';
+	}
+}
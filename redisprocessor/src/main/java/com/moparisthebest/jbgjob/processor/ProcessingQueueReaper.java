@@ -0,0 +1,324 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.LuaScript;
+import com.moparisthebest.jbgjob.RedisScheduler;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static com.moparisthebest.jbgjob.RedisScheduler.debug;
+
+/**
+ * Puts jobs orphaned in a RedisProcessingQueueThread processing queue back on the queue they were claimed from, noWait
+ * queues included, with Lua scripts handling up to batchSize at a time atomically, so it stays cheap however many jobs
+ * are in flight.  A job is orphaned when:
+ * <ul>
+ * <li>the consumer that claimed it hasn't sent a heartbeat for deadAfterMillis, it probably died, in which case
+ * anything left in its inbox goes back too</li>
+ * <li>or it was claimed more than visibilityTimeoutMillis ago, if that is more than 0, even if its consumer is alive,
+ * so set it well above the longest any job takes</li>
+ * </ul>
+ * Each time a job goes back its Envelope attempt is incremented, adding an Envelope if it had none and redis.envelope
+ * is true, and once that is more than maxRedeliveries it goes to the quarantine queue instead, so a job that kills
+ * whatever runs it can't take every consumer down in turn.  Quarantined jobs can be moved back to the queue as they are
+ * once fixed.  Every key the scripts touch is passed in KEYS, so the queue, noWait queues, and processing queue keys
+ * can run on redis cluster as long as they share a hash tag.
+ * <p/>
+ * Every RedisProcessingQueueThread runs one of these along with its heartbeat, any number can run at once.
+ */
+public class ProcessingQueueReaper {
+
+	public static final int defaultDeadAfterMillis = RedisThread.getIntSystemProperty("redis.reaper.deadAfterMillis", 30 * 1000);
+	public static final int defaultVisibilityTimeoutMillis = RedisThread.getIntSystemProperty("redis.reaper.visibilityTimeoutMillis", 0);
+	public static final int defaultMaxRedeliveries = RedisThread.getIntSystemProperty("redis.reaper.maxRedeliveries", 5);
+	public static final int defaultBatchSize = RedisThread.getIntSystemProperty("redis.reaper.batchSize", 1000);
+
+	/**
+	 * Lua functions: source removes id from the sources hash and returns the queue its job was claimed from if that is
+	 * one of KEYS[first...], so every queue written to is declared, or queue otherwise.  requeue puts item back on
+	 * queue, or quarantine once redelivered more than maxRedeliveries times, returning 1 if it was quarantined, 0
+	 * otherwise.  Redeliveries are counted in the item's Envelope, one is only added if envelope is '1', otherwise
+	 * items without one go back as they are, since processors older than Envelope may still be reading the queue.
+	 */
+	private static final String requeue =
+			"local function source(sources, id, queue, first)\n" +
+			"	local ret = redis.call('HGET', sources, id)\n" +
+			"	redis.call('HDEL', sources, id)\n" +
+			"	if ret then\n" +
+			"		for k = first, #KEYS do\n" +
+			"			if KEYS[k] == ret then\n" +
+			"				return KEYS[k]\n" +
+			"			end\n" +
+			"		end\n" +
+			"	end\n" +
+			"	return queue\n" +
+			"end\n" +
+			"local function requeue(item, now, producer, maxRedeliveries, queue, quarantine, envelope)\n" +
+			"	local attempt, body = 0, item\n" +
+			"	if string.byte(item, 1) == 1 then\n" +
+			"		local s1 = string.find(item, ' ', 2, true)\n" +
+			"		local s2 = s1 and string.find(item, ' ', s1 + 1, true)\n" +
+			"		local nl = s2 and string.find(item, '\\n', s2 + 1, true)\n" +
+			"		if nl then\n" +
+			"			attempt = tonumber(string.sub(item, s1 + 1, s2 - 1)) or 0\n" +
+			"			producer = string.sub(item, s2 + 1, nl - 1)\n" +
+			"			body = string.sub(item, nl + 1)\n" +
+			"		end\n" +
+			"	elseif envelope ~= '1' then\n" +
+			"		redis.call('RPUSH', queue, item)\n" +
+			"		return 0\n" +
+			"	end\n" +
+			"	attempt = attempt + 1\n" +
+			"	item = '\\1' .. now .. ' ' .. attempt .. ' ' .. producer .. '\\n' .. body\n" +
+			"	if attempt > tonumber(maxRedeliveries) then\n" +
+			"		redis.call('LPUSH', quarantine, item)\n" +
+			"		return 1\n" +
+			"	end\n" +
+			"	redis.call('RPUSH', queue, item)\n" +
+			"	return 0\n" +
+			"end\n";
+
+	/**
+	 * KEYS[1] consumer's owned sorted set, KEYS[2] processing hash, KEYS[3] claimed sorted set, KEYS[4] queue, KEYS[5]
+	 * quarantine queue, KEYS[6] consumer's inbox, KEYS[7] consumers sorted set, KEYS[8] sources hash, KEYS[9...] other
+	 * queues jobs may have been claimed from, ARGV[1] consumer, ARGV[2] now in millis, ARGV[3] max redeliveries, ARGV[4]
+	 * batch size, ARGV[5] producer id for new Envelopes, ARGV[6] '1' to add Envelopes to items without one
+	 * <p>
+	 * Requeues the first batch size jobs claimed by consumer to the queue each came from, and once there are none left,
+	 * anything in its inbox to the queue, then forgets it.  Returns {requeued, quarantined, true if there may be more}
+	 */
+	public static final LuaScript consumerScript = new LuaScript(requeue +
+			"local requeued, quarantined = 0, 0\n" +
+			"local ids = redis.call('ZRANGE', KEYS[1], 0, tonumber(ARGV[4]) - 1)\n" +
+			"for _, id in ipairs(ids) do\n" +
+			"	redis.call('ZREM', KEYS[1], id)\n" +
+			"	local item = redis.call('HGET', KEYS[2], id)\n" +
+			"	local queue = source(KEYS[8], id, KEYS[4], 9)\n" +
+			"	if item then\n" +
+			"		redis.call('HDEL', KEYS[2], id)\n" +
+			"		redis.call('ZREM', KEYS[3], id)\n" +
+			"		quarantined = quarantined + requeue(item, ARGV[2], ARGV[5], ARGV[3], queue, KEYS[5], ARGV[6])\n" +
+			"		requeued = requeued + 1\n" +
+			"	end\n" +
+			"end\n" +
+			"if #ids >= tonumber(ARGV[4]) then\n" +
+			"	return {requeued, quarantined, 1}\n" +
+			"end\n" +
+			"-- never claimed, so not a redelivery\n" +
+			"while redis.call('RPOPLPUSH', KEYS[6], KEYS[4]) do\n" +
+			"	requeued = requeued + 1\n" +
+			"end\n" +
+			"redis.call('ZREM', KEYS[7], ARGV[1])\n" +
+			"return {requeued, quarantined, 0}");
+
+	/**
+	 * KEYS[1] processing hash, KEYS[2] claimed sorted set, KEYS[3] queue, KEYS[4] quarantine queue, KEYS[5] sources
+	 * hash, KEYS[6...] other queues jobs may have been claimed from, ARGV[1] claimed before this is expired, ARGV[2] now
+	 * in millis, ARGV[3] max redeliveries, ARGV[4] batch size, ARGV[5] producer id for new Envelopes, ARGV[6] '1' to add
+	 * Envelopes to items without one
+	 * <p>
+	 * Requeues up to batch size jobs claimed before ARGV[1] to the queue each came from, returns {requeued, quarantined,
+	 * true if there may be more}
+	 */
+	public static final LuaScript expiredScript = new LuaScript(requeue +
+			"local requeued, quarantined = 0, 0\n" +
+			"local ids = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[4])\n" +
+			"for _, id in ipairs(ids) do\n" +
+			"	local item = redis.call('HGET', KEYS[1], id)\n" +
+			"	local queue = source(KEYS[5], id, KEYS[3], 6)\n" +
+			"	redis.call('HDEL', KEYS[1], id)\n" +
+			"	redis.call('ZREM', KEYS[2], id)\n" +
+			"	if item then\n" +
+			"		quarantined = quarantined + requeue(item, ARGV[2], ARGV[5], ARGV[3], queue, KEYS[4], ARGV[6])\n" +
+			"		requeued = requeued + 1\n" +
+			"	end\n" +
+			"end\n" +
+			"return {requeued, quarantined, #ids >= tonumber(ARGV[4]) and 1 or 0}");
+
+	/**
+	 * @return key of the sorted set of ids of jobs consumer has claimed from processingQueue, scored by claim time
+	 */
+	public static String owned(final String processingQueue, final String consumer) {
+		return processingQueue + "-owned-" + consumer;
+	}
+
+	/**
+	 * @return key of the list consumer waits on jobs from queue in before claiming them into processingQueue
+	 */
+	public static String inbox(final String processingQueue, final String consumer) {
+		return processingQueue + "-inbox-" + consumer;
+	}
+
+	/**
+	 * @return key of the hash of the queue each job in processingQueue was claimed from, by id
+	 */
+	public static String sources(final String processingQueue) {
+		return processingQueue + "-sources";
+	}
+
+	/**
+	 * @return key of the sorted set of consumers of processingQueue, scored by the millis of their last heartbeat
+	 */
+	public static String consumers(final String processingQueue) {
+		return processingQueue + "-consumers";
+	}
+
+	protected final String queue, processingQueue, quarantineQueue, consumers;
+	protected final byte[] processingQueueKey, claimedKey, queueKey, quarantineKey, consumersKey, sourcesKey;
+	/**
+	 * noWaitQueues, the other queues jobs in processingQueue may have been claimed from and go back to
+	 */
+	protected final List<byte[]> noWaitQueueKeys = new ArrayList<byte[]>();
+	protected final long deadAfterMillis, visibilityTimeoutMillis;
+	protected final byte[] maxRedeliveries, batchSize, producer, envelope;
+
+	public ProcessingQueueReaper(final String queue, final String processingQueue, final String quarantineQueue) {
+		this(queue, null, processingQueue, quarantineQueue);
+	}
+
+	public ProcessingQueueReaper(final String queue, final Iterable<String> noWaitQueues, final String processingQueue, final String quarantineQueue) {
+		this(queue, noWaitQueues, processingQueue, quarantineQueue, defaultDeadAfterMillis, defaultVisibilityTimeoutMillis, defaultMaxRedeliveries, defaultBatchSize, RedisScheduler.defaultEnvelope);
+	}
+
+	public ProcessingQueueReaper(final String queue, final String processingQueue, final String quarantineQueue,
+	                             final long deadAfterMillis, final long visibilityTimeoutMillis, final int maxRedeliveries, final int batchSize) {
+		this(queue, null, processingQueue, quarantineQueue, deadAfterMillis, visibilityTimeoutMillis, maxRedeliveries, batchSize, RedisScheduler.defaultEnvelope);
+	}
+
+	/**
+	 * @param noWaitQueues            any other queues, already prefixed, jobs may be claimed from, which they are put
+	 *                                back on, or null for none
+	 * @param visibilityTimeoutMillis 0 or less to only requeue jobs of dead consumers
+	 * @param envelope                whether to add an Envelope to jobs without one to count redeliveries in, only turn
+	 *                                this on once no processor older than Envelope reads these queues, as with
+	 *                                redis.envelope, without it such jobs are never quarantined
+	 */
+	public ProcessingQueueReaper(final String queue, final Iterable<String> noWaitQueues, final String processingQueue, final String quarantineQueue,
+	                             final long deadAfterMillis, final long visibilityTimeoutMillis, final int maxRedeliveries, final int batchSize, final boolean envelope) {
+		if (queue == null || processingQueue == null || quarantineQueue == null)
+			throw new NullPointerException("No parameters can be null!");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be > 0");
+		if (noWaitQueues != null)
+			for (final String noWaitQueue : noWaitQueues)
+				this.noWaitQueueKeys.add(SafeEncoder.encode(noWaitQueue));
+		this.queue = queue;
+		this.processingQueue = processingQueue;
+		this.quarantineQueue = quarantineQueue;
+		this.consumers = consumers(processingQueue);
+		this.queueKey = SafeEncoder.encode(queue);
+		this.processingQueueKey = SafeEncoder.encode(processingQueue);
+		this.claimedKey = SafeEncoder.encode(processingQueue + "-claimed");
+		this.quarantineKey = SafeEncoder.encode(quarantineQueue);
+		this.consumersKey = SafeEncoder.encode(consumers);
+		this.sourcesKey = SafeEncoder.encode(sources(processingQueue));
+		this.deadAfterMillis = deadAfterMillis;
+		this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+		this.maxRedeliveries = SafeEncoder.encode(Integer.toString(maxRedeliveries));
+		this.batchSize = SafeEncoder.encode(Integer.toString(batchSize));
+		this.producer = SafeEncoder.encode(RedisScheduler.defaultProducerId);
+		this.envelope = SafeEncoder.encode(envelope ? "1" : "0");
+	}
+
+	private List<byte[]> keys(final byte[]... keys) {
+		final List<byte[]> ret = new ArrayList<byte[]>(keys.length + noWaitQueueKeys.size());
+		ret.addAll(Arrays.asList(keys));
+		ret.addAll(noWaitQueueKeys);
+		return ret;
+	}
+
+	/**
+	 * Records that consumer is alive at now
+	 */
+	public void heartbeat(final Jedis jedis, final String consumer, final long now) {
+		if (debug) System.out.printf("redis>  ZADD %s %d %s\n", consumers, now, consumer);
+		jedis.zadd(consumers, now, consumer);
+	}
+
+	/**
+	 * Requeues everything orphaned at now, batch by batch
+	 *
+	 * @return number of jobs requeued, including those quarantined
+	 */
+	public long reap(final Jedis jedis, final long now) {
+		long ret = 0;
+		while (true) {
+			final Set<String> dead = jedis.zrangeByScore(consumers, Double.NEGATIVE_INFINITY, now - deadAfterMillis, 0, 10);
+			if (dead.isEmpty())
+				break;
+			for (final String consumer : dead)
+				ret += reap(jedis, consumer, now);
+		}
+		if (visibilityTimeoutMillis > 0)
+			while (true) {
+				if (debug) System.out.printf("reaping jobs claimed from %s before %d\n", processingQueue, now - visibilityTimeoutMillis);
+				final List<?> reaped = (List<?>) expiredScript.evalBinary(jedis, keys(processingQueueKey, claimedKey, queueKey, quarantineKey, sourcesKey),
+						Arrays.asList(SafeEncoder.encode(Long.toString(now - visibilityTimeoutMillis)), SafeEncoder.encode(Long.toString(now)), maxRedeliveries, batchSize, producer, envelope));
+				ret += report(reaped, "visibility timeout");
+				if (((Number) reaped.get(2)).longValue() == 0)
+					break;
+			}
+		return ret;
+	}
+
+	/**
+	 * Requeues everything consumer claimed and has in its inbox, then forgets it, whether it is alive or not
+	 *
+	 * @return number of jobs requeued, including those quarantined
+	 */
+	public long reap(final Jedis jedis, final String consumer, final long now) {
+		long ret = 0;
+		while (true) {
+			if (debug) System.out.printf("reaping jobs claimed from %s by %s\n", processingQueue, consumer);
+			final List<?> reaped = (List<?>) consumerScript.evalBinary(jedis,
+					keys(SafeEncoder.encode(owned(processingQueue, consumer)), processingQueueKey, claimedKey, queueKey, quarantineKey,
+							SafeEncoder.encode(inbox(processingQueue, consumer)), consumersKey, sourcesKey),
+					Arrays.asList(SafeEncoder.encode(consumer), SafeEncoder.encode(Long.toString(now)), maxRedeliveries, batchSize, producer, envelope));
+			ret += report(reaped, consumer);
+			if (((Number) reaped.get(2)).longValue() == 0)
+				return ret;
+		}
+	}
+
+	private long report(final List<?> reaped, final String why) {
+		final long requeued = ((Number) reaped.get(0)).longValue(), quarantined = ((Number) reaped.get(1)).longValue();
+		if (quarantined > 0)
+			System.err.printf("quarantined %d jobs from %s in %s (%s)\n", quarantined, processingQueue, quarantineQueue, why);
+		if (debug && requeued > 0) System.out.printf("requeued %d jobs from %s (%s)\n", requeued, processingQueue, why);
+		return requeued;
+	}
+
+	@Override
+	public String toString() {
+		return "ProcessingQueueReaper{" +
+				"queue='" + queue + '\'' +
+				", processingQueue='" + processingQueue + '\'' +
+				", quarantineQueue='" + quarantineQueue + '\'' +
+				", deadAfterMillis=" + deadAfterMillis +
+				", visibilityTimeoutMillis=" + visibilityTimeoutMillis +
+				'}';
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides the order a RedisThread tries its queues in each time it reads, which is the order handed to BRPOP and the
+ * pop and claim scripts, all of which take from the first one with anything in it.
+ * <p>
+ * Without weights it's always the order given, so each queue is only read when all those before it are empty.  With
+ * them it's smooth weighted round robin: each queue goes first in proportion to its weight, evenly spread out, with
+ * the rest behind it in the order given, so when every queue has work each gets its share, and when only some do
+ * they get all of it.  Only meant to be used by one thread.
+ */
+public class QueueOrder {
+
+	private final String[] queues;
+	private final int[] weights, current;
+	private final int total;
+
+	/**
+	 * @param weights how often each queue should go first relative to the others, or null for strict priority
+	 */
+	public QueueOrder(final List<String> queues, final int[] weights) {
+		if (queues == null)
+			throw new NullPointerException("queues cannot be null!");
+		if (queues.isEmpty())
+			throw new IllegalArgumentException("there must be at least one queue");
+		if (weights != null && weights.length != queues.size())
+			throw new IllegalArgumentException("there must be one weight per queue");
+		this.queues = queues.toArray(new String[queues.size()]);
+		this.weights = weights == null || queues.size() == 1 ? null : weights.clone();
+		this.current = this.weights == null ? null : new int[this.weights.length];
+		int total = 0;
+		if (this.weights != null)
+			for (final int weight : this.weights) {
+				if (weight < 0)
+					throw new IllegalArgumentException("weights cannot be negative");
+				total += weight;
+			}
+		this.total = total;
+	}
+
+	/**
+	 * @return every queue, in the order to try them this time, which must not be modified
+	 */
+	public String[] next() {
+		if (weights == null || total == 0)
+			return queues;
+		int first = 0;
+		for (int x = 0; x < current.length; ++x) {
+			current[x] += weights[x];
+			if (current[x] > current[first])
+				first = x;
+		}
+		current[first] -= total;
+		if (first == 0)
+			return queues;
+		final String[] ret = new String[queues.length];
+		ret[0] = queues[first];
+		System.arraycopy(queues, 0, ret, 1, first);
+		System.arraycopy(queues, first + 1, ret, first + 1, queues.length - first - 1);
+		return ret;
+	}
+
+	public int size() {
+		return queues.length;
+	}
+
+	@Override
+	public String toString() {
+		return "QueueOrder{" +
+				"queues=" + Arrays.toString(queues) +
+				", weights=" + Arrays.toString(weights) +
+				'}';
+	}
+}
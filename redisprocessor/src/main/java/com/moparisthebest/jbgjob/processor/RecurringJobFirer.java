@@ -0,0 +1,162 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob.processor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moparisthebest.jbgjob.CronExpression;
+import com.moparisthebest.jbgjob.Envelope;
+import com.moparisthebest.jbgjob.LuaScript;
+import com.moparisthebest.jbgjob.RecurringJob;
+import com.moparisthebest.jbgjob.RedisScheduler;
+import com.moparisthebest.jbgjob.RedisStreamScheduler;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
+
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Schedules due recurring jobs defined with RedisScheduler.scheduleRecurring, XADDing those defined with
+ * RedisStreamScheduler to their stream instead.
+ * <p>
+ * Next fire times are kept precomputed in a sorted set, so a check only reads the jobs that are due.  Each due job is
+ * fired by a Lua script that only acts if its next fire time is still the one that was read, which any number of
+ * processors racing for the same occurrence can't all see, and a SET NX lease per occurrence keeps it from firing
+ * twice even if its definition is replaced with the same next fire time.
+ */
+public class RecurringJobFirer {
+
+	public static final int defaultBatchSize = RedisThread.getIntSystemProperty("redis.recurring.batchSize", 100);
+	public static final int defaultLeaseMillis = RedisThread.getIntSystemProperty("redis.recurring.leaseMillis", 600000);
+
+	/**
+	 * KEYS[1] next fire time sorted set, KEYS[2] lease for this occurrence, KEYS[3] queue, KEYS[4] doorbell of queue
+	 * <p>
+	 * ARGV[1] name, ARGV[2] fire time that was read, ARGV[3] next fire time, ARGV[4] serialized ScheduledItem,
+	 * ARGV[5] lease millis, ARGV[6] doorbell size if queue is a stream, see RedisStreamScheduler, otherwise 0
+	 * <p>
+	 * Returns 1 if this fired it, 0 if someone else already did
+	 */
+	public static final LuaScript script = new LuaScript(
+			"local score = redis.call('ZSCORE', KEYS[1], ARGV[1])\n" +
+			"if not score or tonumber(score) ~= tonumber(ARGV[2]) then return 0 end\n" +
+			"redis.call('ZADD', KEYS[1], ARGV[3], ARGV[1])\n" +
+			"if not redis.call('SET', KEYS[2], '1', 'NX', 'PX', ARGV[5]) then return 0 end\n" +
+			"local size = tonumber(ARGV[6])\n" +
+			"if size > 0 then\n" +
+			"	redis.call('XADD', KEYS[3], '*', '" + RedisStreamScheduler.field + "', ARGV[4])\n" +
+			"	redis.call('LPUSH', KEYS[4], '1')\n" +
+			"	redis.call('LTRIM', KEYS[4], 0, size - 1)\n" +
+			"else\n" +
+			"	redis.call('LPUSH', KEYS[3], ARGV[4])\n" +
+			"end\n" +
+			"return 1");
+
+	protected final String queuePrefix, recurringKey, recurringNextKey;
+	protected final ObjectMapper om;
+	protected final int batchSize;
+	protected final String leaseMillis;
+	protected final byte[] doorbellSize = SafeEncoder.encode(Integer.toString(Math.max(1, RedisScheduler.defaultDoorbellSize))), noDoorbell = SafeEncoder.encode("0");
+
+	public RecurringJobFirer(final String queuePrefix, final String recurringKey, final String recurringNextKey, final ObjectMapper om) {
+		this(queuePrefix, recurringKey, recurringNextKey, om, defaultBatchSize, defaultLeaseMillis);
+	}
+
+	public RecurringJobFirer(final String queuePrefix, final String recurringKey, final String recurringNextKey, final ObjectMapper om, final int batchSize, final int leaseMillis) {
+		if (batchSize < 1 || leaseMillis < 1)
+			throw new IllegalArgumentException("batchSize and leaseMillis must be > 0");
+		this.queuePrefix = queuePrefix;
+		this.recurringKey = recurringKey;
+		this.recurringNextKey = recurringNextKey;
+		this.om = om;
+		this.batchSize = batchSize;
+		this.leaseMillis = Integer.toString(leaseMillis);
+	}
+
+	/**
+	 * Schedules every recurring job due at now, batch by batch
+	 *
+	 * @return number of jobs this scheduled, others may have been scheduled by other processors
+	 */
+	public int fire(final Jedis jedis, final long now) {
+		int fired = 0;
+		while (true) {
+			if (RedisThread.debug) System.out.printf("redis>  ZRANGEBYSCORE %s -inf %d WITHSCORES LIMIT 0 %d\n", recurringNextKey, now, batchSize);
+			final Set<Tuple> due = jedis.zrangeByScoreWithScores(recurringNextKey, "-inf", Long.toString(now), 0, batchSize);
+			if (due.isEmpty())
+				return fired;
+			final String[] names = new String[due.size()];
+			int x = 0;
+			for (final Tuple tuple : due)
+				names[x++] = tuple.getElement();
+			final List<String> definitions = jedis.hmget(recurringKey, names);
+			x = 0;
+			for (final Tuple tuple : due) {
+				final String name = names[x];
+				final String definition = definitions.get(x++);
+				final long fireTime = (long) tuple.getScore();
+				final RecurringJob recurringJob;
+				final long next;
+				try {
+					if (definition == null)
+						throw new IllegalStateException("no definition for recurring job '" + name + "'");
+					recurringJob = om.readValue(definition, RecurringJob.class);
+					// occurrences missed while nothing was running are skipped
+					next = CronExpression.parse(recurringJob.cron).next(now, ZoneId.of(recurringJob.zone));
+				} catch (Throwable e) {
+					// otherwise it would stay due forever
+					e.printStackTrace();
+					jedis.zrem(recurringNextKey, name);
+					continue;
+				}
+				if (RedisThread.debug) System.out.printf("firing recurring job '%s' at %d, next at %d: %s\n", name, fireTime, next, recurringJob);
+				final String queue = queuePrefix + recurringJob.queue;
+				final Object ret = script.evalBinary(jedis,
+						Arrays.asList(SafeEncoder.encode(recurringNextKey), SafeEncoder.encode(recurringKey + "-lease:" + name + ':' + fireTime), SafeEncoder.encode(queue), SafeEncoder.encode(queue + RedisScheduler.defaultDoorbellSuffix)),
+						Arrays.asList(SafeEncoder.encode(name), SafeEncoder.encode(Long.toString(fireTime)), SafeEncoder.encode(Long.toString(next)), serialize(recurringJob, fireTime), SafeEncoder.encode(leaseMillis),
+								recurringJob.stream ? doorbellSize : noDoorbell));
+				if (ret instanceof Number && ((Number) ret).longValue() == 1)
+					++fired;
+			}
+			if (due.size() < batchSize)
+				return fired;
+		}
+	}
+
+	/**
+	 * @return the stored ScheduledItem, in an Envelope enqueued at fireTime if redis.envelope is true
+	 */
+	protected byte[] serialize(final RecurringJob recurringJob, final long fireTime) {
+		return RedisScheduler.defaultEnvelope ? Envelope.wrap(fireTime, 0, RedisScheduler.defaultProducerId, recurringJob.scheduledItem) : recurringJob.scheduledItem;
+	}
+
+	@Override
+	public String toString() {
+		return "RecurringJobFirer{" +
+				"recurringKey='" + recurringKey + '\'' +
+				", recurringNextKey='" + recurringNextKey + '\'' +
+				", batchSize=" + batchSize +
+				'}';
+	}
+}
@@ -23,8 +23,11 @@ package com.moparisthebest.jbgjob.processor;
 import com.moparisthebest.jbgjob.ScheduledItem;
 import com.moparisthebest.jbgjob.ScheduledItemExecutor;
 import com.moparisthebest.jbgjob.result.ExecutionResult;
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+
+import java.util.Map;
 
 /**
  * If the job ends in an error (throws Throwable), a serialized ScheduledItemError is placed into the 'error' queue with
@@ -90,49 +93,70 @@ public class RedisErrorQueueThread extends RedisProcessingQueueThread {
 	}
 
 	public RedisErrorQueueThread(String queue, ScheduledItemExecutor executor, String errorQueueSuffix, String processingQueueSuffix, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues) {
-		super(queue, executor, processingQueueSuffix, queuePrefix, pool, stop, noWaitQueues);
+		this(queue, executor, errorQueueSuffix, processingQueueSuffix, queuePrefix, pool, stop, noWaitQueues, null);
+	}
+
+	public RedisErrorQueueThread(String queue, ScheduledItemExecutor executor, String errorQueueSuffix, String processingQueueSuffix, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues, Map<String, Integer> queueWeights) {
+		super(queue, executor, processingQueueSuffix, queuePrefix, pool, stop, noWaitQueues, queueWeights);
 		this.errorQueue = this.queue + defaultIfEmpty(errorQueueSuffix, defaultErrorQueueSuffix);
 	}
 
-	protected ExecutionResult getExecutionResult(final String scheduledItemString) {
-		return new RemoveFromProcessingQueuePutErrorQueue(scheduledItemString);
+	@Override
+	protected ExecutionResult getExecutionResult(final PolledItem polledItem) {
+		return new RemoveFromProcessingQueuePutErrorQueue(polledItem);
 	}
 
 	protected class RemoveFromProcessingQueuePutErrorQueue extends RemoveFromProcessingQueueOnCompletion {
-		public RemoveFromProcessingQueuePutErrorQueue(String scheduledItemString) {
-			super(scheduledItemString);
+		/**
+		 * the serialized ScheduledItemError if it ended in one, only set before it is handed to the AckWriter
+		 */
+		protected byte[] error;
+
+		public RemoveFromProcessingQueuePutErrorQueue(final PolledItem polledItem) {
+			super(polledItem);
+		}
+
+		@Override
+		public void addTo(final Transaction t) {
+			// push to error queue and remove from processing queue atomically, so it is always in exactly one of them
+			if (error != null) {
+				if (debug) System.out.printf("redis>  LPUSH %s \"%s\"\n", errorQueue, debugString(error));
+				t.lpush(SafeEncoder.encode(errorQueue), error);
+			}
+			super.addTo(t);
+		}
+
+		@Override
+		public void written() {
+			// a claim checked item stays in the BlobStore to be re-run from the error queue, which only gets the reference
+			if (error == null)
+				super.written();
 		}
 
 		@Override
 		public void error(Throwable e) {
 			e.printStackTrace();
-			// success, so remove 1 from processing queue
-			Jedis jedis = null;
 			try {
-				jedis = pool.getResource();
 				ScheduledItem scheduledItem = null;
-				try {
-					scheduledItem = om.readValue(scheduledItemString, ScheduledItem.class);
-				} catch(Throwable e1) {
-					// ignore, it'll just stay null
-				}
-				// push to error queue
-				final String error = om.writeValueAsString(new ScheduledItemError(e, scheduledItemString, scheduledItem));
-				if (debug) System.out.printf("redis>  LPUSH %s \"%s\"\n", errorQueue, error);
-				jedis.lpush(errorQueue, error);
-				// remove from processing queue
-				removeFromProcessingQueue(jedis);
+				if (claimCheckId == null)
+					try {
+						scheduledItem = deserialize(serialized);
+					} catch(Throwable e1) {
+						// ignore, it'll just stay null
+					}
+				error = om.writeValueAsBytes(new ScheduledItemError(e, serialized, scheduledItem));
 			} catch (Throwable e2) {
+				// left in the processing queue, rather than lost, for the reaper to put back
 				e2.printStackTrace();
-			} finally {
-				tryReturn(jedis);
+				return;
 			}
+			ackWriter.add(this);
 		}
 	}
 
 	@Override
 	void deleteQueue() {
-		deleteQueue(queue, processingQueue, errorQueue);
+		deleteQueue(queue, queue + delayedQueueSuffix, processingQueue, errorQueue);
 	}
 
 	public static void main(String[] args) {
@@ -20,20 +20,88 @@
 
 package com.moparisthebest.jbgjob.processor;
 
+import com.moparisthebest.jbgjob.LuaScript;
 import com.moparisthebest.jbgjob.ScheduledItemExecutor;
 import com.moparisthebest.jbgjob.result.ExecutionResult;
-import com.moparisthebest.jbgjob.result.PrintStackTraceExecutionResult;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Reads from the queue with BRPOPLPUSH, pushing into a 'processing' queue and then removes the job from the processing queue when finished, either after success or an error.
+ * Claims each job from the queue into a 'processing' hash, keyed by an id unique to that claim, and then removes it from
+ * there when finished, either after success or an error.  A sorted set alongside, processingQueue + "-claimed", holds
+ * the same ids scored by the currentTimeMillis they were claimed, oldest first.
+ * <p/>
+ * Claiming is a Lua script that pops the job and records it in both atomically, along with the queue it came from in
+ * processingQueue + "-sources", and finishing is a few HDELs and ZREMs, both O(1) however many jobs are in flight or
+ * how big they are, where the LREM a processing list needs scans
+ * it comparing whole jobs.  A script can't block, so when the queue is empty this waits with BRPOPLPUSH into an inbox
+ * list of its own, processingQueue + "-inbox-" + consumer, then claims from that.
+ * <p/>
+ * BRPOPLPUSH only waits on one list, so with noWaitQueues as well it still claims from whichever comes first in the
+ * QueueOrder, but only wakes straight away for jobs added to the queue itself.  Unless redis.doorbell is true, then
+ * producers also ring each queue's doorbell, and this waits on all of those at once instead.
+ * <p/>
+ * Each also records the ids it claimed in a sorted set of its own, and once run, a background thread sends a heartbeat
+ * every redis.reaper.heartbeatMillis and runs a ProcessingQueueReaper every redis.reaper.checkMillis, so jobs claimed
+ * by processors that died go back on the queue.
+ * <p/>
+ * Finished jobs are removed from all of those by an AckWriter, so the threads running them never wait on redis.
  */
 public class RedisProcessingQueueThread extends RedisThread {
 
 	public static final String defaultProcessingQueueSuffix = defaultIfEmpty(System.getProperty("redis.processingQueueSuffix"), "-processing");
+	public static final String defaultQuarantineQueueSuffix = defaultIfEmpty(System.getProperty("redis.quarantineQueueSuffix"), "-quarantine");
+	public static final int heartbeatMillis = getIntSystemProperty("redis.reaper.heartbeatMillis", 5000);// 0 to never send heartbeats or reap
+	public static final int reaperCheckMillis = getIntSystemProperty("redis.reaper.checkMillis", 10 * 1000);
+
+	/**
+	 * KEYS[1] processing hash, KEYS[2] claimed sorted set, KEYS[3] id counter, KEYS[4] consumer's owned sorted set, KEYS[5]
+	 * sources hash, KEYS[6...] lists to pop from in order, ARGV[1] now in millis, ARGV[2] max number of jobs to pop,
+	 * ARGV[3...] queue each list's jobs came from, the list itself unless it is an inbox
+	 * <p>
+	 * Pops jobs from the first list with any, which are returned as {index of that list counting from KEYS[6] as 1, id,
+	 * job, id, job...} after each is put in the processing hash under a new id, the sorted sets scored by now, and the
+	 * sources hash with the queue it came from, or nil if they were all empty
+	 */
+	public static final LuaScript claimScript = new LuaScript(
+			"for k = 6, #KEYS do\n" +
+			"	local ret = {k - 5}\n" +
+			"	for i = 1, tonumber(ARGV[2]) do\n" +
+			"		local item = redis.call('RPOP', KEYS[k])\n" +
+			"		if not item then\n" +
+			"			break\n" +
+			"		end\n" +
+			"		local id = tostring(redis.call('INCR', KEYS[3]))\n" +
+			"		redis.call('HSET', KEYS[1], id, item)\n" +
+			"		redis.call('ZADD', KEYS[2], ARGV[1], id)\n" +
+			"		redis.call('ZADD', KEYS[4], ARGV[1], id)\n" +
+			"		redis.call('HSET', KEYS[5], id, ARGV[k - 3])\n" +
+			"		ret[#ret + 1] = id\n" +
+			"		ret[#ret + 1] = item\n" +
+			"	end\n" +
+			"	if #ret > 1 then\n" +
+			"		return ret\n" +
+			"	end\n" +
+			"end\n" +
+			"return false");
 
 	public final String processingQueue;
+	public final String quarantineQueue;
+	protected final byte[] processingQueueKey, claimedKey, idsKey, inboxKey, ownedKey, sourcesKey;
+	protected final String inbox;
+	/**
+	 * null if redis.reaper.heartbeatMillis is 0
+	 */
+	protected final ProcessingQueueReaper reaper;
+	protected final AckWriter ackWriter;
+	private volatile boolean closed = false;
 
 	public RedisProcessingQueueThread() {
 		this(null, null, null, null, null);
@@ -81,64 +149,226 @@ public class RedisProcessingQueueThread extends RedisThread {
 	}
 
 	public RedisProcessingQueueThread(String queue, ScheduledItemExecutor executor, String processingQueueSuffix, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues) {
-		super(queue, executor, queuePrefix, pool, stop, noWaitQueues);
+		this(queue, executor, processingQueueSuffix, queuePrefix, pool, stop, noWaitQueues, null);
+	}
+
+	public RedisProcessingQueueThread(String queue, ScheduledItemExecutor executor, String processingQueueSuffix, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues, Map<String, Integer> queueWeights) {
+		super(queue, executor, queuePrefix, pool, stop, noWaitQueues, queueWeights);
 		this.processingQueue = this.queue + defaultIfEmpty(processingQueueSuffix, defaultProcessingQueueSuffix);
+		this.processingQueueKey = SafeEncoder.encode(this.processingQueue);
+		this.claimedKey = SafeEncoder.encode(this.processingQueue + "-claimed");
+		this.idsKey = SafeEncoder.encode(this.processingQueue + "-ids");
+		this.inbox = ProcessingQueueReaper.inbox(this.processingQueue, consumer);
+		this.inboxKey = SafeEncoder.encode(this.inbox);
+		this.ownedKey = SafeEncoder.encode(ProcessingQueueReaper.owned(this.processingQueue, consumer));
+		this.sourcesKey = SafeEncoder.encode(ProcessingQueueReaper.sources(this.processingQueue));
+		this.quarantineQueue = this.queue + defaultQuarantineQueueSuffix;
+		this.ackWriter = new AckWriter(this.pool, consumer);
+		this.reaper = heartbeatMillis > 0 ? new ProcessingQueueReaper(this.queue, this.noWaitQueues, this.processingQueue, this.quarantineQueue) : null;
+	}
+
+	/**
+	 * Starts the heartbeat, only once run, so one that is never run doesn't look alive to the reaper, it stops itself
+	 * once this is closed
+	 */
+	@Override
+	protected void started() {
+		if (reaper == null)
+			return;
+		final Thread heartbeat = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				heartbeat();
+			}
+		}, "RedisProcessingQueueThread-heartbeat-" + consumer);
+		heartbeat.setDaemon(true);
+		heartbeat.start();
+	}
+
+	/**
+	 * Runs in its own thread so long running jobs, or a full executor, don't hold up heartbeats.  Once closed it keeps
+	 * them up until the executor has finished everything, then reaps anything left claimed by this and stops.
+	 */
+	private void heartbeat() {
+		long nextReap = 0;
+		while (true) {
+			Jedis jedis = null;
+			try {
+				jedis = pool.getResource();
+				final long now = System.currentTimeMillis();
+				if (closed && executor.getActiveCount() == 0 && executor.getQueueSize() == 0) {
+					reaper.reap(jedis, consumer, now);
+					return;
+				}
+				reaper.heartbeat(jedis, consumer, now);
+				if (now >= nextReap) {
+					nextReap = now + reaperCheckMillis;
+					reaper.reap(jedis, now);
+				}
+			} catch (Throwable e) {
+				e.printStackTrace();
+			} finally {
+				tryReturn(jedis);
+			}
+			try {
+				Thread.sleep(heartbeatMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Claims a job from list, recording it as having come from queueName
+	 *
+	 * @return the job, or null if list was empty
+	 */
+	protected ClaimedItem claim(final Jedis jedis, final String queueName, final byte[] list) {
+		final List<?> ret = claim(jedis, 1, new byte[][]{list}, queueName);
+		return ret == null ? null : new ClaimedItem(queueName, (byte[]) ret.get(1), (byte[]) ret.get(2));
+	}
+
+	/**
+	 * @param queueNames the queue jobs in each of lists came from
+	 * @return what claimScript returned for lists
+	 */
+	protected List<?> claim(final Jedis jedis, final int count, final byte[][] lists, final String... queueNames) {
+		if (debug) System.out.printf("redis>  EVALSHA claim %s %s %d\n", processingQueue, Arrays.toString(queueNames), count);
+		final List<byte[]> keys = new ArrayList<byte[]>(5 + lists.length);
+		keys.addAll(Arrays.asList(processingQueueKey, claimedKey, idsKey, ownedKey, sourcesKey));
+		keys.addAll(Arrays.asList(lists));
+		final List<byte[]> args = new ArrayList<byte[]>(2 + queueNames.length);
+		args.add(SafeEncoder.encode(Long.toString(System.currentTimeMillis())));
+		args.add(SafeEncoder.encode(Integer.toString(count)));
+		for (final String queueName : queueNames)
+			args.add(SafeEncoder.encode(queueName));
+		return (List<?>) claimScript.evalBinary(jedis, keys, args);
+	}
+
+	@Override
+	protected int prefetch(final Jedis jedis, final int count, final String... queueNames) {
+		final List<?> ret = claim(jedis, count, keys(queueNames, ""), queueNames);
+		if (ret == null)
+			return 0;
+		final String queueName = queueNames[((Long) ret.get(0)).intValue() - 1];
+		for (int x = 1; x < ret.size(); x += 2)
+			prefetched.add(new ClaimedItem(queueName, (byte[]) ret.get(x), (byte[]) ret.get(x + 1)));
+		return ret.size() / 2;
 	}
 
 	@Override
-	protected String pollRedisNoWait(final Jedis jedis, final String queueName) {
-		if (debug) System.out.printf("redis>  RPOPLPUSH %s %s\n", queueName, processingQueue);
-		return jedis.rpoplpush(queueName, processingQueue);
+	protected void pushBack(final Jedis jedis, final PolledItem polledItem) {
+		new RemoveFromProcessingQueueOnCompletion(polledItem).spill(jedis);
 	}
 
 	@Override
-	protected String pollRedisBlock(final Jedis jedis, final int timeout) {
-		if (debug) System.out.printf("redis>  BRPOPLPUSH %s %s %d\n", queue, processingQueue, timeout);
-		return jedis.brpoplpush(queue, processingQueue, timeout);
+	protected PolledItem pollRedisNoWait(final Jedis jedis, final String queueName) {
+		return claim(jedis, queueName, SafeEncoder.encode(queueName));
 	}
 
-	protected ExecutionResult getExecutionResult(final String scheduledItemString) {
-		return new RemoveFromProcessingQueueOnCompletion(scheduledItemString);
+	@Override
+	protected PolledItem pollRedisBlock(final Jedis jedis, final String[] queueNames, final int timeout) {
+		// when busy there is always something to claim straight away, in one round trip
+		if (prefetch(jedis, 1, queueNames) > 0)
+			return prefetched.poll();
+		if (queueNames.length > 1 && defaultDoorbell)
+			return pollDoorbells(jedis, queueNames, timeout);
+		if (debug) System.out.printf("redis>  BRPOPLPUSH %s %s %d\n", queue, inbox, timeout);
+		return jedis.brpoplpush(queueKey, inboxKey, timeout) == null ? null : claim(jedis, queue, inboxKey);
+	}
+
+	/**
+	 * Waits on the doorbells of all queueNames at once, claiming whenever one rings, until one is claimed or timeout
+	 * seconds have passed.  Rings can be left over from jobs claimed without waiting, so not everything that rings gets
+	 * one.
+	 */
+	private PolledItem pollDoorbells(final Jedis jedis, final String[] queueNames, final int timeout) {
+		final byte[][] doorbells = keys(queueNames, defaultDoorbellSuffix);
+		final long deadline = System.currentTimeMillis() + timeout * 1000L;
+		for (int wait = timeout; wait > 0; wait = (int) ((deadline - System.currentTimeMillis()) / 1000)) {
+			if (debug) System.out.printf("redis>  BRPOP %s%s %d\n", Arrays.toString(queueNames), defaultDoorbellSuffix, wait);
+			final List<byte[]> rang = jedis.brpop(wait, doorbells);
+			// even when it timed out, in case a job was added without ringing
+			if (prefetch(jedis, 1, queueNames) > 0)
+				return prefetched.poll();
+			if (rang == null || rang.isEmpty())
+				return null;
+		}
+		return null;
+	}
+
+	@Override
+	protected ExecutionResult getExecutionResult(final PolledItem polledItem) {
+		return new RemoveFromProcessingQueueOnCompletion(polledItem);
 	}
 
-	protected class RemoveFromProcessingQueueOnCompletion extends PrintStackTraceExecutionResult {
-		protected final String scheduledItemString;
+	protected class RemoveFromProcessingQueueOnCompletion extends SpillBackToQueue implements AckWriter.Ack {
 
-		public RemoveFromProcessingQueueOnCompletion(String scheduledItemString) {
-			this.scheduledItemString = scheduledItemString;
+		protected final byte[] id;
+
+		public RemoveFromProcessingQueueOnCompletion(final PolledItem polledItem) {
+			super(polledItem);
+			this.id = ((ClaimedItem) polledItem).id;
 		}
 
-		protected void removeFromProcessingQueue(Jedis jedis) {
-			boolean returnJedis = jedis == null;
-			try {
-				if (returnJedis)
-					jedis = pool.getResource();
-				if (debug) System.out.printf("redis>  LREM %s 1 \"%s\"\n", processingQueue, scheduledItemString);
-				jedis.lrem(processingQueue, 1, scheduledItemString);
-			} catch (Throwable e) {
-				e.printStackTrace();
-			} finally {
-				if (returnJedis)
-					tryReturn(jedis);
-			}
+		@Override
+		protected void spill(final Jedis jedis) {
+			// put it back and take it out of the processing queue atomically, so it is always in exactly one of them
+			if (debug) System.out.printf("redis>  MULTI\nredis>  RPUSH %s \"%s\"\n", polledItem.queue, debugString(serialized));
+			final Transaction t = jedis.multi();
+			t.rpush(SafeEncoder.encode(polledItem.queue), serialized);
+			addRemoveFromProcessingQueue(t);
+			t.exec();
+		}
+
+		/**
+		 * Queues removing it from the processing queue onto a transaction
+		 */
+		protected void addRemoveFromProcessingQueue(final Transaction t) {
+			if (debug) System.out.printf("redis>  HDEL %s %s\nredis>  ZREM %s-claimed %s\nredis>  ZREM %s %s\nredis>  HDEL %s %s\n", processingQueue, SafeEncoder.encode(id), processingQueue, SafeEncoder.encode(id),
+					SafeEncoder.encode(ownedKey), SafeEncoder.encode(id), SafeEncoder.encode(sourcesKey), SafeEncoder.encode(id));
+			t.hdel(processingQueueKey, id);
+			t.zrem(claimedKey, id);
+			t.zrem(ownedKey, id);
+			t.hdel(sourcesKey, id);
+		}
+
+		@Override
+		public void addTo(final Transaction t) {
+			addRemoveFromProcessingQueue(t);
+		}
+
+		@Override
+		public void written() {
+			// only once nothing refers to it anymore
+			releaseClaimCheck();
 		}
 
 		@Override
 		public void success() {
-			// success, so remove 1 from processing queue
-			removeFromProcessingQueue(null);
+			// success, so remove it from processing queue
+			ackWriter.add(this);
 		}
 
 		@Override
 		public void error(Throwable e) {
-			super.error(e);
-			removeFromProcessingQueue(null);
+			e.printStackTrace();
+			ackWriter.add(this);
 		}
 	}
 
+	@Override
+	public void close() {
+		// everything finished so far must be written before the heartbeat thread could reap, it writes the rest itself
+		ackWriter.close();
+		closed = true;
+		super.close();
+	}
+
 	@Override
 	void deleteQueue() {
-		deleteQueue(queue, processingQueue);
+		deleteQueue(queue, queue + delayedQueueSuffix, processingQueue, processingQueue + "-claimed", processingQueue + "-ids", ProcessingQueueReaper.sources(processingQueue), inbox,
+				ProcessingQueueReaper.owned(processingQueue, consumer), ProcessingQueueReaper.consumers(processingQueue), quarantineQueue);
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,378 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.LuaScript;
+import com.moparisthebest.jbgjob.RedisStreamScheduler;
+import com.moparisthebest.jbgjob.ScheduledItem;
+import com.moparisthebest.jbgjob.ScheduledItemExecutor;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads jobs added by RedisStreamScheduler from a redis stream (needs redis 6.2 or later) as one consumer of a consumer
+ * group, up to redis.stream.readCount per round trip.  Finished jobs are acknowledged and deleted from the stream by an
+ * AckWriter as soon as they finish, so that is O(1) per job, batched into few round trips, and never waits on the next
+ * read, and errors go to the error queue just like RedisErrorQueueThread.
+ * <p/>
+ * Jobs read but never acknowledged, because their consumer died, are claimed by another consumer once idle for
+ * redis.stream.minIdleMillis, checked every redis.stream.autoclaimMillis in every stream this reads.  The same goes for
+ * jobs read but not yet started when this is closed, so those are delayed, not lost.  Jobs that fail go to the error
+ * queue of the stream they came from.
+ * <p/>
+ * Delayed jobs are XADDed to their stream once due by a StreamDelayedQueueMover, and recurring jobs defined with
+ * RedisStreamScheduler are XADDed by the RecurringJobFirer, see RedisThread.
+ */
+public class RedisStreamThread extends RedisThread {
+
+	public static final String defaultGroup = defaultIfEmpty(System.getProperty("redis.stream.group"), "jbgjob");
+	public static final int defaultReadCount = getIntSystemProperty("redis.stream.readCount", 100);
+	public static final int defaultMinIdleMillis = getIntSystemProperty("redis.stream.minIdleMillis", 5 * 60 * 1000);
+	public static final int defaultAutoclaimMillis = getIntSystemProperty("redis.stream.autoclaimMillis", 30 * 1000);
+
+	/**
+	 * KEYS[1] stream, ARGV[1] group, ARGV[2] consumer, ARGV[3] count
+	 * <p>
+	 * Creates the group if needed, starting from the beginning of the stream, then returns {id, job, id, job...} of new
+	 * entries read for consumer
+	 */
+	public static final LuaScript readScript = new LuaScript(
+			"local ok, res = pcall(redis.call, 'XREADGROUP', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '>')\n" +
+			"if not ok then\n" +
+			"	pcall(redis.call, 'XGROUP', 'CREATE', KEYS[1], ARGV[1], '0', 'MKSTREAM')\n" +
+			"	res = redis.call('XREADGROUP', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '>')\n" +
+			"end\n" +
+			"local ret = {}\n" +
+			"if res and res[1] then\n" +
+			"	for _, e in ipairs(res[1][2]) do\n" +
+			"		ret[#ret + 1] = e[1]\n" +
+			"		ret[#ret + 1] = e[2][2]\n" +
+			"	end\n" +
+			"end\n" +
+			"return ret");
+
+	/**
+	 * KEYS[1] stream, ARGV[1] group, ARGV[2...] entry ids
+	 * <p>
+	 * Acknowledges and deletes the entries, so the stream only holds jobs not yet finished, returning the number deleted as
+	 * a string, which is all this version of Jedis can read back from a script sent in a MULTI
+	 */
+	public static final LuaScript ackScript = new LuaScript(
+			"local ids = {unpack(ARGV, 2)}\n" +
+			"redis.call('XACK', KEYS[1], ARGV[1], unpack(ids))\n" +
+			"return tostring(redis.call('XDEL', KEYS[1], unpack(ids)))");
+
+	/**
+	 * KEYS[1] stream, ARGV[1] group, ARGV[2] consumer, ARGV[3] min idle millis, ARGV[4] start id, ARGV[5] count
+	 * <p>
+	 * Returns {next start id, id, job, id, job...} of entries claimed for consumer, skipping those already deleted, or
+	 * just {start id} if the group doesn't exist yet
+	 */
+	public static final LuaScript autoclaimScript = new LuaScript(
+			"local ok, res = pcall(redis.call, 'XAUTOCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], ARGV[4], 'COUNT', ARGV[5])\n" +
+			"if not ok then\n" +
+			"	return {ARGV[4]}\n" +
+			"end\n" +
+			"local ret = {res[1]}\n" +
+			"for _, e in ipairs(res[2]) do\n" +
+			"	if type(e) == 'table' and type(e[2]) == 'table' then\n" +
+			"		ret[#ret + 1] = e[1]\n" +
+			"		ret[#ret + 1] = e[2][2]\n" +
+			"	end\n" +
+			"end\n" +
+			"return ret");
+
+	/**
+	 * KEYS[1] stream, KEYS[2] doorbell, ARGV[1] group, ARGV[2] entry id, ARGV[3] job
+	 * <p>
+	 * Adds the job to the end of the stream again and acknowledges the entry it came from, atomically
+	 */
+	public static final LuaScript spillScript = new LuaScript(
+			"redis.call('XADD', KEYS[1], '*', '" + RedisStreamScheduler.field + "', ARGV[3])\n" +
+			"redis.call('XACK', KEYS[1], ARGV[1], ARGV[2])\n" +
+			"redis.call('XDEL', KEYS[1], ARGV[2])\n" +
+			"return redis.call('LPUSH', KEYS[2], '1')");
+
+	/**
+	 * error queue of queue, jobs from noWaitQueues go to their own, see errorQueue(String)
+	 */
+	public final String errorQueue;
+	protected final String errorQueueSuffix;
+	public final String group;
+	protected final byte[] groupBytes, consumerBytes, readCount, minIdleMillis;
+	protected final String doorbell;
+
+	/**
+	 * read but not yet handed to the executor, only touched by the thread running this
+	 */
+	protected final ArrayDeque<StreamItem> fetched = new ArrayDeque<StreamItem>();
+	protected final AckWriter ackWriter;
+
+	private long nextAutoclaim = 0;
+	/**
+	 * where the next XAUTOCLAIM of each stream this reads starts, only touched by the thread running this
+	 */
+	private final Map<String, byte[]> autoclaimStarts = new LinkedHashMap<String, byte[]>();
+
+	public RedisStreamThread() {
+		this(null, null, null, null, null, null, null);
+	}
+
+	public RedisStreamThread(Stop stop) {
+		this(null, null, null, null, null, null, stop);
+	}
+
+	public RedisStreamThread(String queue) {
+		this(queue, null, null, null, null, null, null);
+	}
+
+	public RedisStreamThread(String queue, Stop stop) {
+		this(queue, null, null, null, null, null, stop);
+	}
+
+	public RedisStreamThread(JedisPool pool, Stop stop) {
+		this(null, null, null, null, null, pool, stop);
+	}
+
+	public RedisStreamThread(String queue, ScheduledItemExecutor executor) {
+		this(queue, executor, null, null, null, null, null);
+	}
+
+	public RedisStreamThread(String queue, ScheduledItemExecutor executor, Stop stop) {
+		this(queue, executor, null, null, null, null, stop);
+	}
+
+	public RedisStreamThread(String queue, ScheduledItemExecutor executor, JedisPool pool, Stop stop) {
+		this(queue, executor, null, null, null, pool, stop);
+	}
+
+	public RedisStreamThread(String queue, ScheduledItemExecutor executor, String group, String errorQueueSuffix, String queuePrefix, JedisPool pool, Stop stop) {
+		this(queue, executor, group, errorQueueSuffix, queuePrefix, pool, stop, null);
+	}
+
+	public RedisStreamThread(String queue, ScheduledItemExecutor executor, String group, String errorQueueSuffix, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues) {
+		super(queue, executor, queuePrefix, pool, stop, noWaitQueues);
+		this.errorQueueSuffix = defaultIfEmpty(errorQueueSuffix, RedisErrorQueueThread.defaultErrorQueueSuffix);
+		this.errorQueue = errorQueue(this.queue);
+		this.group = defaultIfEmpty(group, defaultGroup);
+		this.groupBytes = SafeEncoder.encode(this.group);
+		this.consumerBytes = SafeEncoder.encode(this.consumer);
+		this.readCount = SafeEncoder.encode(Integer.toString(Math.max(1, defaultReadCount)));
+		this.minIdleMillis = SafeEncoder.encode(Integer.toString(defaultMinIdleMillis));
+		this.doorbell = this.queue + defaultDoorbellSuffix;
+		this.ackWriter = new AckWriter(this.pool, consumer);
+		autoclaimStarts.put(this.queue, SafeEncoder.encode("0-0"));
+		if (this.noWaitQueues != null)
+			for (final String stream : this.noWaitQueues)
+				autoclaimStarts.put(stream, SafeEncoder.encode("0-0"));
+	}
+
+	/**
+	 * @return error queue for jobs from stream
+	 */
+	public String errorQueue(final String stream) {
+		return stream + errorQueueSuffix;
+	}
+
+	@Override
+	protected int prefetch(final Jedis jedis, final int count, final String... queueNames) {
+		// reads already fetch redis.stream.readCount at a time into fetched
+		return 0;
+	}
+
+	@Override
+	protected PolledItem pollRedisNoWait(final Jedis jedis, final String queueName) {
+		read(jedis, queueName, SafeEncoder.encode("1"));
+		return fetched.poll();
+	}
+
+	@Override
+	protected PolledItem pollRedisBlock(final Jedis jedis, final String[] queueNames, final int timeout) {
+		StreamItem ret = fetched.poll();
+		if (ret != null)
+			return ret;
+		autoclaim(jedis);
+		if (fetched.isEmpty() && read(jedis, queueNames) == 0) {
+			// anything added after that read rang a doorbell, so this can't miss it
+			if (debug) System.out.printf("redis>  BRPOP %s%s %d\n", Arrays.toString(queueNames), defaultDoorbellSuffix, timeout);
+			final List<byte[]> rang = jedis.brpop(timeout, keys(queueNames, defaultDoorbellSuffix));
+			if (rang == null || rang.isEmpty())
+				return null;
+			read(jedis, queueNames);
+		}
+		return fetched.poll();
+	}
+
+	/**
+	 * Reads up to redis.stream.readCount new entries from the first of streams with any
+	 *
+	 * @return number read
+	 */
+	private int read(final Jedis jedis, final String[] streams) {
+		for (final String stream : streams) {
+			final int ret = read(jedis, stream, readCount);
+			if (ret > 0)
+				return ret;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads up to count new entries from stream into fetched
+	 *
+	 * @return number read
+	 */
+	protected int read(final Jedis jedis, final String stream, final byte[] count) {
+		if (debug) System.out.printf("redis>  XREADGROUP GROUP %s %s COUNT %s STREAMS %s >\n", group, consumer, SafeEncoder.encode(count), stream);
+		final List<?> ret = (List<?>) readScript.evalBinary(jedis, Arrays.asList(SafeEncoder.encode(stream)), Arrays.asList(groupBytes, consumerBytes, count));
+		for (int x = 0; x < ret.size(); x += 2)
+			fetched.add(new StreamItem(stream, (byte[]) ret.get(x), (byte[]) ret.get(x + 1)));
+		return ret.size() / 2;
+	}
+
+	/**
+	 * Claims entries of consumers that have been idle longer than redis.stream.minIdleMillis into fetched, from every
+	 * stream this reads, if it's time to check again
+	 */
+	protected void autoclaim(final Jedis jedis) {
+		if (defaultAutoclaimMillis <= 0)
+			return;
+		final long now = System.currentTimeMillis();
+		if (now < nextAutoclaim)
+			return;
+		nextAutoclaim = now + defaultAutoclaimMillis;
+		for (final Map.Entry<String, byte[]> entry : autoclaimStarts.entrySet())
+			entry.setValue(autoclaim(jedis, entry.getKey(), entry.getValue()));
+	}
+
+	/**
+	 * @return where to start the next time, it wraps back around to 0-0 once it reaches the end
+	 */
+	private byte[] autoclaim(final Jedis jedis, final String stream, final byte[] start) {
+		if (debug) System.out.printf("redis>  XAUTOCLAIM %s %s %s %d %s COUNT %s\n", stream, group, consumer, defaultMinIdleMillis, SafeEncoder.encode(start), SafeEncoder.encode(readCount));
+		final List<?> ret = (List<?>) autoclaimScript.evalBinary(jedis, Arrays.asList(SafeEncoder.encode(stream)), Arrays.asList(groupBytes, consumerBytes, minIdleMillis, start, readCount));
+		for (int x = 1; x < ret.size(); x += 2)
+			fetched.add(new StreamItem(stream, (byte[]) ret.get(x), (byte[]) ret.get(x + 1)));
+		return (byte[]) ret.get(0);
+	}
+
+	@Override
+	protected DelayedQueueMover newDelayedQueueMover(final String delayedQueue, final String queue) {
+		return new StreamDelayedQueueMover(delayedQueue, queue);
+	}
+
+	@Override
+	protected ExecutionResult getExecutionResult(final PolledItem polledItem) {
+		return new AckOnCompletion((StreamItem) polledItem);
+	}
+
+	/**
+	 * Acknowledges the entry once finished, after putting a ScheduledItemError in the error queue if it failed
+	 */
+	protected class AckOnCompletion extends SpillBackToQueue implements AckWriter.Ack {
+
+		protected final StreamItem streamItem;
+		/**
+		 * the serialized ScheduledItemError if it ended in one, only set before it is handed to the AckWriter
+		 */
+		protected byte[] error;
+
+		public AckOnCompletion(final StreamItem streamItem) {
+			super(streamItem);
+			this.streamItem = streamItem;
+		}
+
+		@Override
+		protected void spill(final Jedis jedis) {
+			if (debug) System.out.printf("redis>  XADD %s * %s \"%s\"\nredis>  XACK %s %s %s\n", streamItem.queue, RedisStreamScheduler.field, debugString(serialized), streamItem.queue, group, SafeEncoder.encode(streamItem.id));
+			spillScript.evalBinary(jedis, Arrays.asList(SafeEncoder.encode(streamItem.queue), SafeEncoder.encode(streamItem.queue + defaultDoorbellSuffix)),
+					Arrays.asList(groupBytes, streamItem.id, serialized));
+		}
+
+		@Override
+		public void addTo(final Transaction t) {
+			// push to the error queue of the stream it came from and acknowledge atomically, otherwise it'd be claimed and tried again
+			if (error != null) {
+				final String errorQueue = errorQueue(streamItem.queue);
+				if (debug) System.out.printf("redis>  LPUSH %s \"%s\"\n", errorQueue, debugString(error));
+				t.lpush(SafeEncoder.encode(errorQueue), error);
+			}
+			if (debug) System.out.printf("redis>  XACK %s %s %s\nredis>  XDEL %s %s\n", streamItem.queue, group, SafeEncoder.encode(streamItem.id), streamItem.queue, SafeEncoder.encode(streamItem.id));
+			t.eval(ackScript.script, Arrays.asList(streamItem.queue), Arrays.asList(group, SafeEncoder.encode(streamItem.id)));
+		}
+
+		@Override
+		public void written() {
+			// a claim checked item stays in the BlobStore to be re-run from the error queue, which only gets the reference
+			if (error == null)
+				releaseClaimCheck();
+		}
+
+		@Override
+		public void success() {
+			ackWriter.add(this);
+		}
+
+		@Override
+		public void error(Throwable e) {
+			e.printStackTrace();
+			try {
+				ScheduledItem scheduledItem = null;
+				if (claimCheckId == null)
+					try {
+						scheduledItem = deserialize(serialized);
+					} catch (Throwable e1) {
+						// ignore, it'll just stay null
+					}
+				error = om.writeValueAsBytes(new ScheduledItemError(e, serialized, scheduledItem));
+			} catch (Throwable e2) {
+				// left unacknowledged, rather than lost, to be claimed and tried again
+				e2.printStackTrace();
+				return;
+			}
+			ackWriter.add(this);
+		}
+	}
+
+	@Override
+	public void close() {
+		// everything finished so far is written, the rest is written by whichever thread finishes it
+		ackWriter.close();
+		super.close();
+	}
+	@Override
+	void deleteQueue() {
+		deleteQueue(queue, queue + delayedQueueSuffix, doorbell, errorQueue);
+	}
+
+	public static void main(String[] args) {
+		// set all needed arguments with system properties
+		new RedisStreamThread().run();
+	}
+}
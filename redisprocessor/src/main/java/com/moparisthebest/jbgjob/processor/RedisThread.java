@@ -21,25 +21,59 @@
 package com.moparisthebest.jbgjob.processor;
 
 import com.moparisthebest.jbgjob.AbstractScheduler;
+import com.moparisthebest.jbgjob.ClaimCheck;
+import com.moparisthebest.jbgjob.Envelope;
+import com.moparisthebest.jbgjob.LuaScript;
 import com.moparisthebest.jbgjob.RedisScheduler;
 import com.moparisthebest.jbgjob.ScheduledItem;
+import com.moparisthebest.jbgjob.SaturationPolicy;
 import com.moparisthebest.jbgjob.ScheduledItemExecutor;
+import com.moparisthebest.jbgjob.metrics.Histogram;
+import com.moparisthebest.jbgjob.metrics.Metrics;
 import com.moparisthebest.jbgjob.result.ExecutionResult;
 import com.moparisthebest.jbgjob.result.PrintStackTraceExecutionResult;
+import com.moparisthebest.jbgjob.result.SpillableExecutionResult;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.util.SafeEncoder;
 
+import javax.management.ObjectName;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simply reads from the specified queue with BRPOP and processes the job, no errors are recorded and there is no visibility into which jobs are currently being processed.
+ * <p>
+ * Given noWaitQueues it reads those too, in the same BRPOP, so it wakes as soon as any of them gets a job.  By default
+ * the queue comes first and the rest in the order given, each only read when those before it are empty, or with
+ * queueWeights the order is rotated by a QueueOrder so each gets its share.
+ * <p>
+ * With redis.prefetch above 1 it first pops up to that many jobs in one round trip, never more than the executor has
+ * room for right now, and hands them out one at a time before going back to redis.  Any still waiting when it stops
+ * are pushed back onto the queues they came from.
+ * <p>
+ * Unless redis.control is false, a ControlChannel listens on the pub/sub channels queuePrefix + "control", for every
+ * processor, and queue + "-control", for just those reading that queue, for shutdown, pause, resume, and resizing the
+ * executor, from when run() starts until it returns.  The shutdown key is then only checked every
+ * redis.shutdown.checkMillis in case that was missed.
  */
 public class RedisThread extends RedisScheduler implements Runnable {
 
 	public static final int defaultTimeout;
 	public static final int maxTimeoutsBeforeClose;
+	public static final int delayedCheckMillis;
+	public static final int recurringCheckMillis;
+	public static final int prefetch;
+	public static final int shutdownCheckMillis;
+	public static final boolean controlEnabled = !"false".equalsIgnoreCase(System.getProperty("redis.control"));
 
 	public static int getIntSystemProperty(final String property, final int timeout) {
 		try {
@@ -53,14 +87,75 @@ public class RedisThread extends RedisScheduler implements Runnable {
 	static {
 		defaultTimeout = getIntSystemProperty("redis.timeout", 5);// 5 seconds by default
 		maxTimeoutsBeforeClose = getIntSystemProperty("redis.maxTimeoutsBeforeClose", 0);// 0 by default, never close
+		delayedCheckMillis = getIntSystemProperty("redis.delayed.checkMillis", 1000);// 1 second by default, 0 to never move delayed jobs
+		recurringCheckMillis = getIntSystemProperty("redis.recurring.checkMillis", 1000);// 1 second by default, 0 to never fire recurring jobs
+		prefetch = getIntSystemProperty("redis.prefetch", 1);// 1 by default, one job per round trip
+		shutdownCheckMillis = getIntSystemProperty("redis.shutdown.checkMillis", 10000);// 10 seconds by default, 0 for before every poll, which it always is without a ControlChannel
 	}
 
-	private int timeoutCounter = 0;
+	/**
+	 * KEYS lists to pop from in order, ARGV[1] max number of jobs to pop
+	 * <p>
+	 * Pops up to ARGV[1] jobs from the first list with any, returned as {index of that list in KEYS, job, job...} in
+	 * the order they were popped, or an empty list if they were all empty
+	 */
+	public static final LuaScript popScript = new LuaScript(
+			"for k = 1, #KEYS do\n" +
+			"	local ret = {}\n" +
+			"	for i = 1, tonumber(ARGV[1]) do\n" +
+			"		local item = redis.call('RPOP', KEYS[k])\n" +
+			"		if not item then\n" +
+			"			break\n" +
+			"		end\n" +
+			"		ret[#ret + 1] = item\n" +
+			"	end\n" +
+			"	if #ret > 0 then\n" +
+			"		table.insert(ret, 1, k)\n" +
+			"		return ret\n" +
+			"	end\n" +
+			"end\n" +
+			"return {}");
+
+	private int timeoutCounter = 0, idleSeconds = 0;
+	private long nextDelayedCheck = 0, nextRecurringCheck = 0;
+
+	private static final AtomicInteger consumers = new AtomicInteger();
 
 	protected final String queue;
+	protected final byte[] queueKey;
+	/**
+	 * unique name of this processor, the JVM's redis.producerId and a counter
+	 */
+	public final String consumer = defaultProducerId + "-" + consumers.incrementAndGet();
 	protected final Stop stop;
 	protected final ScheduledItemExecutor executor;
 	protected final Iterable<String> noWaitQueues;
+	/**
+	 * queue followed by noWaitQueues, all prefixed
+	 */
+	protected final QueueOrder queueOrder;
+	protected final List<DelayedQueueMover> delayedQueueMovers;
+	protected final RecurringJobFirer recurringJobFirer;
+	/**
+	 * only set while run() is running, and never if redis.control is false
+	 */
+	protected volatile ControlChannel control;
+	protected volatile boolean shutdown = false, paused = false;
+	private final Object pauseLock = new Object();
+	/**
+	 * how long items waited in redis after they were ready to run, only for items with an Envelope, in milliseconds
+	 * since it is measured across hosts, or null if scheduler.metrics.enabled is false
+	 */
+	protected final Histogram queueWait;
+	/**
+	 * how long deserializing each item took, or null if scheduler.metrics.enabled is false
+	 */
+	protected final Histogram deserializeTime;
+	private final List<ObjectName> metricNames = new ArrayList<ObjectName>();
+	/**
+	 * jobs already taken from redis but not yet handed to the executor, oldest first, only touched by the thread in run()
+	 */
+	protected final ArrayDeque<PolledItem> prefetched = new ArrayDeque<PolledItem>();
 
 	public RedisThread() {
 		this(null, null, (String)null, null);
@@ -107,9 +202,18 @@ public class RedisThread extends RedisScheduler implements Runnable {
 	}
 
 	public RedisThread(String queue, ScheduledItemExecutor executor, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues) {
+		this(queue, executor, queuePrefix, pool, stop, noWaitQueues, null);
+	}
+
+	/**
+	 * @param queueWeights weight of each of queue and noWaitQueues, unprefixed, by name, any missing are 1, null for
+	 *                     strict priority in that order
+	 */
+	public RedisThread(String queue, ScheduledItemExecutor executor, String queuePrefix, JedisPool pool, Stop stop, Iterable<String> noWaitQueues, Map<String, Integer> queueWeights) {
 		super(queuePrefix, pool);
 		this.queue = this.queuePrefix + defaultIfEmpty(queue, AbstractScheduler.defaultQueue);
-		this.executor = executor != null ? executor : new ScheduledItemExecutor();
+		this.queueKey = SafeEncoder.encode(this.queue);
+		this.executor = executor != null ? executor : ScheduledItemExecutor.create().setMetricsName(this.queue);
 
 		List<String> nwq = null;
 		if(noWaitQueues != null) {
@@ -121,10 +225,60 @@ public class RedisThread extends RedisScheduler implements Runnable {
 		}
 		this.noWaitQueues = nwq;
 
+		final List<String> queues = new ArrayList<String>();
+		queues.add(this.queue);
+		if(nwq != null)
+			queues.addAll(nwq);
+		int[] weights = null;
+		if(queueWeights != null) {
+			weights = new int[queues.size()];
+			for(int x = 0; x < weights.length; ++x) {
+				final Integer weight = queueWeights.get(queues.get(x).substring(this.queuePrefix.length()));
+				weights[x] = weight == null ? 1 : weight;
+			}
+		}
+		this.queueOrder = new QueueOrder(queues, weights);
+
+		if(delayedCheckMillis > 0) {
+			final List<DelayedQueueMover> movers = new ArrayList<DelayedQueueMover>();
+			movers.add(newDelayedQueueMover(this.queue + delayedQueueSuffix, this.queue));
+			if(nwq != null)
+				for(final String q : nwq)
+					movers.add(newDelayedQueueMover(q + delayedQueueSuffix, q));
+			this.delayedQueueMovers = movers;
+		} else {
+			this.delayedQueueMovers = null;
+		}
+		this.recurringJobFirer = recurringCheckMillis > 0 ? new RecurringJobFirer(this.queuePrefix, recurringKey, recurringNextKey, om) : null;
+
+		if(Metrics.enabled) {
+			// execution time is in the executor's metrics
+			this.queueWait = new Histogram("milliseconds");
+			this.deserializeTime = new Histogram();
+			final String processor = "type=Histogram,processor=" + Metrics.quote(this.queue);
+			final ObjectName queueWaitName = Metrics.register(queueWait, processor + ",name=queueWait");
+			// any other processor on the same queue in this JVM has its own instance, keep both of ours in the same one
+			for(final ObjectName objectName : new ObjectName[]{queueWaitName, Metrics.register(deserializeTime, processor + Metrics.instance(queueWaitName) + ",name=deserializeTime")})
+				if(objectName != null)
+					metricNames.add(objectName);
+		} else {
+			this.queueWait = this.deserializeTime = null;
+		}
+
 		if(stop == null){
 			final String shutdownKey = this.queuePrefix + "shutdown";
+			final int checkMillis = controlEnabled ? shutdownCheckMillis : 0;
 			stop = new Stop(){
+				private long nextCheck = 0;
+
 				public boolean stop(final Jedis jedis){
+					// the ControlChannel says straight away, this is only in case that was missed
+					if (checkMillis > 0) {
+						final long now = System.currentTimeMillis();
+						if (now < nextCheck)
+							return false;
+						nextCheck = now + checkMillis;
+					}
 					return "shutdown".equals(jedis.get(shutdownKey));
 				}
 			};
@@ -132,37 +286,247 @@ public class RedisThread extends RedisScheduler implements Runnable {
 		this.stop = stop;
 	}
 
-	protected String pollRedisNoWait(final Jedis jedis, final String queueName) {
+	/**
+	 * Stop reading jobs, finish the ones already read, and close, as soon as the current poll returns
+	 */
+	public void shutdown() {
+		synchronized (pauseLock) {
+			shutdown = true;
+			pauseLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Stop reading jobs until resume is called, any prefetched are pushed back, jobs already running carry on
+	 */
+	public void pause() {
+		paused = true;
+	}
+
+	public void resume() {
+		synchronized (pauseLock) {
+			paused = false;
+			pauseLock.notifyAll();
+		}
+	}
+
+	private void awaitResume() throws InterruptedException {
+		synchronized (pauseLock) {
+			// still wakes up regularly to check the Stop
+			if (paused && !shutdown)
+				pauseLock.wait(defaultTimeout * 1000L);
+		}
+	}
+
+	protected PolledItem pollRedisNoWait(final Jedis jedis, final String queueName) {
 		if (debug) System.out.printf("redis>  RPOP %s\n", queueName);
-		return jedis.rpop(queueName);
+		final byte[] item = jedis.rpop(SafeEncoder.encode(queueName));
+		return item == null ? null : new PolledItem(queueName, item);
+	}
+
+	protected static byte[][] keys(final String[] queueNames, final String suffix) {
+		final byte[][] ret = new byte[queueNames.length][];
+		for (int x = 0; x < ret.length; ++x)
+			ret[x] = SafeEncoder.encode(queueNames[x] + suffix);
+		return ret;
+	}
+
+	/**
+	 * Waits up to timeout seconds for a job on any of queueNames, taking it from the first in that order with one
+	 */
+	protected PolledItem pollRedisBlock(final Jedis jedis, final String[] queueNames, final int timeout) {
+		if (debug) System.out.printf("redis>  BRPOP %s %d\n", Arrays.toString(queueNames), timeout);
+		final List<byte[]> items = jedis.brpop(timeout, keys(queueNames, ""));
+		return (items == null || items.size() < 2) ? null : new PolledItem(SafeEncoder.encode(items.get(0)), items.get(1));
 	}
 
-	protected String pollRedisBlock(final Jedis jedis, final int timeout) {
-		if (debug) System.out.printf("redis>  BRPOP %s %d\n", queue, timeout);
-		final List<String> items = jedis.brpop(timeout, queue);
-		//System.out.println("items: " + items);
-		return (items == null || items.size() < 2) ? null : items.get(1);
+	/**
+	 * Pops up to count jobs from the first of queueNames with any onto the end of prefetched
+	 *
+	 * @return how many were popped
+	 */
+	protected int prefetch(final Jedis jedis, final int count, final String... queueNames) {
+		if (debug) System.out.printf("redis>  EVALSHA pop %s %d\n", Arrays.toString(queueNames), count);
+		final List<?> ret = (List<?>) popScript.evalBinary(jedis, Arrays.asList(keys(queueNames, "")), Arrays.asList(SafeEncoder.encode(Integer.toString(count))));
+		if (ret.isEmpty())
+			return 0;
+		final String queueName = queueNames[((Long) ret.get(0)).intValue() - 1];
+		for (int x = 1; x < ret.size(); ++x)
+			prefetched.add(new PolledItem(queueName, (byte[]) ret.get(x)));
+		return ret.size() - 1;
+	}
+
+	/**
+	 * Puts a job taken by prefetch but never executed back on the end of the queue it came from that is read next
+	 */
+	protected void pushBack(final Jedis jedis, final PolledItem polledItem) {
+		new SpillBackToQueue(polledItem).spill(jedis);
+	}
+
+	/**
+	 * Pushes back everything left in prefetched, called once run() is stopping
+	 */
+	protected void pushBackPrefetched() {
+		if (prefetched.isEmpty())
+			return;
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			// newest first, so the oldest ends up being read next again
+			for (final Iterator<PolledItem> it = prefetched.descendingIterator(); it.hasNext(); ) {
+				pushBack(jedis, it.next());
+				it.remove();
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			tryReturn(jedis);
+		}
 	}
 
-	protected String pollRedis(final Jedis jedis, final int timeout) {
-		String ret = pollRedisBlock(jedis, timeout);
-		if(ret != null || noWaitQueues == null)
+	protected PolledItem pollRedis(final Jedis jedis, final int timeout) {
+		final PolledItem ret = prefetched.poll();
+		if (ret != null)
 			return ret;
-		for(final String queueName : noWaitQueues) {
-			ret = pollRedisNoWait(jedis, queueName);
-			if(ret != null)
-				return ret;
+		final String[] queueNames = queueOrder.next();
+		// only as many as can start right away, any more would just sit here instead of in redis for other processors
+		if (prefetch > 1 && prefetch(jedis, Math.min(prefetch, Math.max(1, executor.getFreeCapacity())), queueNames) > 0)
+			return prefetched.poll();
+		return pollRedisBlock(jedis, queueNames, timeout);
+	}
+
+	/**
+	 * Called from the constructor, so it must not rely on fields of subclasses
+	 *
+	 * @return what moves due jobs from delayedQueue onto queue
+	 */
+	protected DelayedQueueMover newDelayedQueueMover(final String delayedQueue, final String queue) {
+		return new DelayedQueueMover(delayedQueue, queue);
+	}
+
+	/**
+	 * Moves due delayed jobs onto their queues if it's time to check again
+	 *
+	 * @return seconds to block waiting for a job, which is defaultTimeout unless a delayed job is due sooner
+	 */
+	protected int moveDelayed(final Jedis jedis) {
+		if (delayedQueueMovers == null)
+			return defaultTimeout;
+		long now = System.currentTimeMillis();
+		if (now >= nextDelayedCheck) {
+			nextDelayedCheck = now + delayedCheckMillis;
+			for (final DelayedQueueMover mover : delayedQueueMovers) {
+				if (debug) System.out.println("moving delayed: " + mover);
+				final long next = mover.move(jedis, now);
+				if (next >= 0 && next < nextDelayedCheck)
+					nextDelayedCheck = next;
+			}
+			now = System.currentTimeMillis();
+		}
+		return timeoutUntil(nextDelayedCheck, now);
+	}
+
+	/**
+	 * Schedules due recurring jobs if it's time to check again
+	 *
+	 * @return seconds to block waiting for a job, which is defaultTimeout unless the next check is sooner
+	 */
+	protected int fireRecurring(final Jedis jedis) {
+		if (recurringJobFirer == null)
+			return defaultTimeout;
+		final long now = System.currentTimeMillis();
+		if (now >= nextRecurringCheck) {
+			nextRecurringCheck = now + recurringCheckMillis;
+			final int fired = recurringJobFirer.fire(jedis, now);
+			if (debug) System.out.printf("fired %d recurring jobs\n", fired);
 		}
-		return null;
+		return timeoutUntil(nextRecurringCheck, now);
+	}
+
+	private static int timeoutUntil(final long when, final long now) {
+		// BRPOP only has second resolution, and 0 means forever
+		final long seconds = (when - now + 999) / 1000;
+		return seconds < 1 ? 1 : seconds > defaultTimeout ? defaultTimeout : (int) seconds;
 	}
 
 	private static final ExecutionResult noop = new PrintStackTraceExecutionResult();
 
-	protected ExecutionResult getExecutionResult(final String scheduledItemString) {
-		return noop;
+	protected ExecutionResult getExecutionResult(final PolledItem polledItem) {
+		// only need to remember where it came from if it might be spilled back there, or it has a claim check to release
+		return executor.getSaturationPolicy() instanceof SaturationPolicy.Spill || ClaimCheck.id(polledItem.serialized) != null ?
+				new SpillBackToQueue(polledItem) : noop;
+	}
+
+	/**
+	 * When spilled, puts the item back on the end of the queue it came from that is read next, otherwise releases its
+	 * ClaimCheck if it has one, since nothing else refers to it once it is done
+	 */
+	protected class SpillBackToQueue extends PrintStackTraceExecutionResult implements SpillableExecutionResult {
+		protected final PolledItem polledItem;
+		protected final byte[] serialized;
+		protected final String claimCheckId;
+
+		public SpillBackToQueue(final PolledItem polledItem) {
+			this.polledItem = polledItem;
+			this.serialized = polledItem.serialized;
+			this.claimCheckId = ClaimCheck.id(serialized);
+		}
+
+		protected void releaseClaimCheck() {
+			if (claimCheckId != null)
+				claimCheck.release(claimCheckId);
+		}
+
+		@Override
+		public void success() {
+			releaseClaimCheck();
+		}
+
+		@Override
+		public void error(final Throwable e) {
+			super.error(e);
+			releaseClaimCheck();
+		}
+
+		@Override
+		public void spill() {
+			Jedis jedis = null;
+			try {
+				jedis = pool.getResource();
+				spill(jedis);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			} finally {
+				tryReturn(jedis);
+			}
+		}
+
+		protected void spill(final Jedis jedis) {
+			if (debug) System.out.printf("redis>  RPUSH %s \"%s\"\n", polledItem.queue, debugString(serialized));
+			jedis.rpush(SafeEncoder.encode(polledItem.queue), serialized);
+		}
+	}
+
+	/**
+	 * Called at the start of run(), on its thread, before any jobs are read
+	 */
+	protected void started() {
 	}
 
 	public final void run() {
+		// subscribed only while this runs, on a connection of its own
+		if (controlEnabled)
+			control = new ControlChannel(pool, this, queuePrefix + "control", queue + "-control");
+		try {
+			started();
+			runLoop();
+		} finally {
+			closeControl();
+		}
+		this.close();
+	}
+
+	private void runLoop() {
 		Jedis jedis = null;
 		outer:
 		while (true)
@@ -171,49 +535,83 @@ public class RedisThread extends RedisScheduler implements Runnable {
 				while (true) {
 					if (debug && maxTimeoutsBeforeClose > 0) System.out.printf("maxTimeoutsBeforeClose: %d timeoutCounter: %d\n", maxTimeoutsBeforeClose, timeoutCounter);
 					// check to see if we should shutdown
-					if (this.stop.stop(jedis))
+					if (shutdown || this.stop.stop(jedis))
 						break outer;
+					if (paused) {
+						pushBackPrefetched();
+						awaitResume();
+						continue;
+					}
 					// grab an item, if it's null (probably timed out) try again
-					final String scheduledItemString = pollRedis(jedis, defaultTimeout);
-					if (scheduledItemString == null) {
-						// timed out
-						if (maxTimeoutsBeforeClose > 0 && ++timeoutCounter >= maxTimeoutsBeforeClose)
-							break outer;
+					final int timeout = Math.min(moveDelayed(jedis), fireRecurring(jedis));
+					final PolledItem polledItem = pollRedis(jedis, timeout);
+					if (polledItem == null) {
+						// timed out, shorter timeouts waiting on delayed jobs only count once they add up to defaultTimeout
+						idleSeconds += timeout;
+						if (idleSeconds >= defaultTimeout) {
+							idleSeconds = 0;
+							if (maxTimeoutsBeforeClose > 0 && ++timeoutCounter >= maxTimeoutsBeforeClose)
+								break outer;
+						}
 						continue;
 					}
-					timeoutCounter = 0;
-					if (debug) System.out.println("scheduledItemString: " + scheduledItemString);
-					final ExecutionResult executionResult = getExecutionResult(scheduledItemString);
+					timeoutCounter = idleSeconds = 0;
+					if (debug) System.out.println("polledItem: " + polledItem);
+					final ExecutionResult executionResult = getExecutionResult(polledItem);
 					try{
-						final ScheduledItem scheduledItem = om.readValue(scheduledItemString, ScheduledItem.class);
+						final ScheduledItem scheduledItem = deserialize(polledItem);
 						if (debug) System.out.println("scheduledItem object: " + scheduledItem);
 						executor.execute(scheduledItem, executionResult);
+					}catch(RejectedExecutionException e){
+						// executionResult has already been told
+						e.printStackTrace();
 					}catch(Throwable e){
 						if(executionResult != null)
 							executionResult.error(e);
 					}
 				}
+			} catch (InterruptedException e) {
+				break;
 			} catch (Throwable e) {
 				e.printStackTrace();
 			} finally {
 				tryReturn(jedis);
 			}
-		this.close();
+		pushBackPrefetched();
 	}
 
-	public final void tryReturn(final Jedis jedis) {
-		if (jedis != null)
-			try {
-				pool.returnResource(jedis);
-			} catch (Throwable e) {
-				e.printStackTrace();
-			}
+	private void closeControl() {
+		final ControlChannel control = this.control;
+		if (control != null) {
+			this.control = null;
+			control.close();
+		}
+	}
+
+	/**
+	 * Records queue wait from the Envelope if there is one, and time spent deserializing, including fetching it from
+	 * the BlobStore if it has a ClaimCheck
+	 */
+	protected ScheduledItem deserialize(final PolledItem polledItem) throws IOException {
+		if (queueWait == null)
+			return deserialize(polledItem.serialized);
+		final long start = System.nanoTime();
+		final Envelope envelope = Envelope.parse(polledItem.serialized);
+		if (envelope.enqueuedAt >= 0)
+			// clocks on different hosts can disagree a little, which shows up as 0
+			queueWait.record(System.currentTimeMillis() - envelope.enqueuedAt);
+		final ScheduledItem ret = decode(envelope);
+		deserializeTime.record(System.nanoTime() - start);
+		return ret;
 	}
 
 	@Override
 	public void close() {
+		closeControl();
 		super.close();
 		executor.close();
+		for (final ObjectName objectName : metricNames)
+			Metrics.unregister(objectName);
 	}
 
 	protected void deleteQueue(final String... queue) {
@@ -233,7 +631,7 @@ public class RedisThread extends RedisScheduler implements Runnable {
 	 * Only meant to be used by testing frameworks like JUnit
 	 */
 	void deleteQueue() {
-		deleteQueue(queue);
+		deleteQueue(queue, queue + delayedQueueSuffix);
 	}
 
 	public static void main(String[] args) {
@@ -20,28 +20,29 @@
 
 package com.moparisthebest.jbgjob.processor;
 
+import com.moparisthebest.jbgjob.RedisScheduler;
 import com.moparisthebest.jbgjob.ScheduledItem;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
 /**
- * Represents an Exception, the serialized ScheduledItem from Redis, and the attempt to parse it into a ScheduledItem, to put in the Redis error queue
+ * Represents an Exception, the serialized ScheduledItem from Redis (as is, including any Envelope), and the attempt to parse it into a ScheduledItem, to put in the Redis error queue
  */
 public class ScheduledItemError {
 	private final long date = System.currentTimeMillis();
 	private final String exception;
-	private final String scheduledItemString;
+	private final byte[] serialized;
 	private final ScheduledItem scheduledItem;
 
 	public ScheduledItemError() {
 		this.exception = null;
-		this.scheduledItemString = null;
+		this.serialized = null;
 		this.scheduledItem = null;
 	}
 
-	public ScheduledItemError(final Throwable e, final String scheduledItemString, final ScheduledItem scheduledItem) {
-		this.scheduledItemString = scheduledItemString;
+	public ScheduledItemError(final Throwable e, final byte[] serialized, final ScheduledItem scheduledItem) {
+		this.serialized = serialized;
 		this.scheduledItem = scheduledItem;
 		if(e == null) {
 			this.exception = null;
@@ -60,8 +61,8 @@ public class ScheduledItemError {
 		return exception;
 	}
 
-	public String getScheduledItemString() {
-		return scheduledItemString;
+	public byte[] getSerialized() {
+		return serialized;
 	}
 
 	public ScheduledItem getScheduledItem() {
@@ -73,7 +74,7 @@ public class ScheduledItemError {
 		return "ScheduledItemError{" +
 				"date=" + date +
 				", exception='" + exception + '\'' +
-				", scheduledItemString='" + scheduledItemString + '\'' +
+				", serialized='" + RedisScheduler.debugString(serialized) + '\'' +
 				", scheduledItem=" + scheduledItem +
 				'}';
 	}
@@ -0,0 +1,86 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.LuaScript;
+import com.moparisthebest.jbgjob.RedisScheduler;
+import com.moparisthebest.jbgjob.RedisStreamScheduler;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DelayedQueueMover for RedisStreamThread, XADDs due jobs to the stream instead, ringing its doorbell once per job up to
+ * redis.doorbellSize, just like RedisStreamScheduler does when adding them.
+ */
+public class StreamDelayedQueueMover extends DelayedQueueMover {
+
+	/**
+	 * KEYS[1] delayed sorted set, KEYS[2] stream, KEYS[3] doorbell, ARGV[1] now in millis, ARGV[2] batch size,
+	 * ARGV[3] doorbell size
+	 * <p>
+	 * Strips the random unique prefix up to the first space from each member, XADDs them in due order and returns
+	 * {number moved, score of the next pending member or -1}
+	 */
+	public static final LuaScript script = new LuaScript(
+			"local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])\n" +
+			"if #due > 0 then\n" +
+			"	for _, member in ipairs(due) do\n" +
+			"		redis.call('XADD', KEYS[2], '*', '" + RedisStreamScheduler.field + "', string.sub(member, string.find(member, ' ', 1, true) + 1))\n" +
+			"	end\n" +
+			"	redis.call('ZREM', KEYS[1], unpack(due))\n" +
+			"	local size = tonumber(ARGV[3])\n" +
+			"	local rings = {}\n" +
+			"	for i = 1, math.min(#due, size) do\n" +
+			"		rings[i] = '1'\n" +
+			"	end\n" +
+			"	redis.call('LPUSH', KEYS[3], unpack(rings))\n" +
+			"	redis.call('LTRIM', KEYS[3], 0, size - 1)\n" +
+			"end\n" +
+			"local nxt = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')\n" +
+			"return {#due, nxt[2] or '-1'}");
+
+	protected final List<String> streamKeys;
+	protected final String doorbellSize = Integer.toString(Math.max(1, RedisScheduler.defaultDoorbellSize));
+
+	public StreamDelayedQueueMover(final String delayedQueue, final String stream) {
+		this(delayedQueue, stream, defaultBatchSize);
+	}
+
+	public StreamDelayedQueueMover(final String delayedQueue, final String stream, final int batchSize) {
+		super(delayedQueue, stream, batchSize);
+		this.streamKeys = Collections.unmodifiableList(Arrays.asList(delayedQueue, stream, stream + RedisScheduler.defaultDoorbellSuffix));
+	}
+
+	@Override
+	protected Object moveBatch(final Jedis jedis, final String now) {
+		return script.eval(jedis, streamKeys, Arrays.asList(now, batchSize, doorbellSize));
+	}
+
+	@Override
+	public String toString() {
+		return "StreamDelayedQueueMover{" +
+				"keys=" + streamKeys +
+				", batchSize=" + batchSize +
+				'}';
+	}
+}
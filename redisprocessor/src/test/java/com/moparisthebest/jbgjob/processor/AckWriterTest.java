@@ -0,0 +1,181 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AckWriterTest {
+
+	private static final String key = "ack-writer-test";
+
+	private JedisPool pool;
+	private Jedis jedis;
+	private final Map<Transaction, Integer> batches = Collections.synchronizedMap(new IdentityHashMap<Transaction, Integer>());
+
+	@BeforeClass
+	public static void setUpRedisThread() {
+		// the RedisThread statics are read once, by whichever test class loads it first, and the others need this to finish
+		System.setProperty("redis.maxTimeoutsBeforeClose", "1");
+	}
+
+	@Before
+	public void setUp() {
+		final JedisPoolConfig config = new JedisPoolConfig();
+		// just one, so anything still holding it between writes shows up as a timeout
+		config.setMaxTotal(1);
+		config.setMaxWaitMillis(5000);
+		pool = new JedisPool(config, System.getProperty("redis.host", "localhost"));
+		jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+		jedis.del(key);
+	}
+
+	@After
+	public void tearDown() {
+		jedis.del(key);
+		jedis.close();
+		pool.destroy();
+	}
+
+	private class PushAck implements AckWriter.Ack {
+		private final String value;
+		private final CountDownLatch written;
+
+		private PushAck(final String value, final CountDownLatch written) {
+			this.value = value;
+			this.written = written;
+		}
+
+		@Override
+		public void addTo(final Transaction t) {
+			synchronized (batches) {
+				final Integer size = batches.get(t);
+				batches.put(t, size == null ? 1 : size + 1);
+			}
+			t.rpush(key, value);
+		}
+
+		@Override
+		public void written() {
+			written.countDown();
+		}
+	}
+
+	private List<Integer> batchSizes() {
+		synchronized (batches) {
+			final List<Integer> ret = new ArrayList<Integer>(batches.values());
+			Collections.sort(ret);
+			return ret;
+		}
+	}
+
+	@Test
+	public void testBatching() throws Exception {
+		final CountDownLatch written = new CountDownLatch(7);
+		final AckWriter ackWriter = new AckWriter(pool, "batching", 3, 1000);
+		try {
+			for (int x = 0; x < 7; ++x)
+				ackWriter.add(new PushAck(Integer.toString(x), written));
+			Assert.assertTrue(written.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(Arrays.asList(1, 3, 3), batchSizes());
+			Assert.assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6"), jedis.lrange(key, 0, -1));
+			// and the connection went back to the pool after each batch
+			pool.returnResource(pool.getResource());
+		} finally {
+			ackWriter.close();
+		}
+	}
+
+	@Test
+	public void testLinger() throws Exception {
+		final CountDownLatch written = new CountDownLatch(1);
+		final AckWriter ackWriter = new AckWriter(pool, "linger", 100, 500);
+		try {
+			ackWriter.add(new PushAck("lingered", written));
+			// waits for more until maxLingerMillis is up, then writes what it has
+			Assert.assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+			Assert.assertTrue(written.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(Arrays.asList("lingered"), jedis.lrange(key, 0, -1));
+		} finally {
+			ackWriter.close();
+		}
+	}
+
+	@Test
+	public void testFlushedOnClose() throws Exception {
+		final CountDownLatch written = new CountDownLatch(4);
+		final AckWriter ackWriter = new AckWriter(pool, "close", 100, 60000);
+		ackWriter.add(new PushAck("a", written));
+		ackWriter.add(new PushAck("b", written));
+		ackWriter.add(new PushAck("c", written));
+		// written by close, long before the linger would be up
+		ackWriter.close();
+		Assert.assertEquals(1, written.getCount());
+		Assert.assertEquals(Arrays.asList("a", "b", "c"), jedis.lrange(key, 0, -1));
+		// anything after is written by the thread adding it
+		ackWriter.add(new PushAck("d", written));
+		Assert.assertEquals(0, written.getCount());
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), jedis.lrange(key, 0, -1));
+	}
+
+	@Test
+	public void testRetriedAfterFailedWrite() throws Exception {
+		final AtomicInteger borrowed = new AtomicInteger();
+		pool.destroy();
+		pool = new JedisPool(new JedisPoolConfig(), System.getProperty("redis.host", "localhost")) {
+			@Override
+			public Jedis getResource() {
+				if (borrowed.incrementAndGet() == 1)
+					throw new JedisConnectionException("redis is down");
+				return super.getResource();
+			}
+		};
+		final CountDownLatch written = new CountDownLatch(2);
+		final AckWriter ackWriter = new AckWriter(pool, "retry", 100, 1);
+		try {
+			ackWriter.add(new PushAck("a", written));
+			ackWriter.add(new PushAck("b", written));
+			// the first write fails, the batch is kept and written a second later on a new connection
+			Assert.assertTrue(written.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(2, borrowed.get());
+			Assert.assertEquals(Arrays.asList("a", "b"), jedis.lrange(key, 0, -1));
+		} finally {
+			ackWriter.close();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class ControlChannelTest {
+
+	private Jedis jedis;
+	private RedisThread rt;
+	private Thread running;
+
+	@BeforeClass
+	public static void setUpRedisThread() {
+		// the RedisThread statics are read once, by whichever test class loads it first, and the others need this to finish
+		System.setProperty("redis.maxTimeoutsBeforeClose", "1");
+	}
+
+	@Before
+	public void setUp() {
+		jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+		rt = new RedisThread("control-test");
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (running == null) {
+			rt.close();
+		} else {
+			// run() closes it once it stops
+			rt.shutdown();
+			running.join(30000);
+			Assert.assertFalse(running.isAlive());
+		}
+		jedis.close();
+	}
+
+	private void run() {
+		running = new Thread(rt, "ControlChannelTest");
+		running.start();
+	}
+
+	private void publish(final String channel, final String command) throws InterruptedException {
+		// the ControlChannel subscribes in the background, so keep trying until it has
+		for (int x = 0; ControlChannel.publish(jedis, channel, command) < 1; ++x) {
+			Assert.assertTrue("never subscribed to " + channel, x < 500);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testCommands() throws Throwable {
+		run();
+		publish(rt.queue + "-control", "pause");
+		for (int x = 0; !rt.paused; ++x) {
+			Assert.assertTrue(x < 500);
+			Thread.sleep(10);
+		}
+		publish(RedisThread.defaultQueuePrefix + "control", "threads 3");
+		for (int x = 0; rt.executor.getNumThreads() != 3; ++x) {
+			Assert.assertTrue(x < 500);
+			Thread.sleep(10);
+		}
+		publish(rt.queue + "-control", "resume");
+		publish(rt.queue + "-control", "shutdown");
+		for (int x = 0; !rt.shutdown; ++x) {
+			Assert.assertTrue(x < 500);
+			Thread.sleep(10);
+		}
+		Assert.assertFalse(rt.paused);
+		running.join(30000);
+		Assert.assertNull(rt.control);
+	}
+
+	@Test
+	public void testNotSubscribedUntilRun() throws Throwable {
+		Assert.assertNull(rt.control);
+		Assert.assertEquals(0L, ControlChannel.publish(jedis, rt.queue + "-control", "pause"));
+		Assert.assertFalse(rt.paused);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownCommand() {
+		final JedisPool pool = new JedisPool(System.getProperty("redis.host", "localhost"));
+		final ControlChannel control = new ControlChannel(pool, rt, rt.queue + "-control");
+		try {
+			control.command("threads");
+		} finally {
+			control.close();
+			pool.destroy();
+		}
+	}
+}
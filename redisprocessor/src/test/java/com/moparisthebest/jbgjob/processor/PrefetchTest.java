@@ -0,0 +1,116 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+
+public class PrefetchTest {
+
+	private static final String queue = "prefetch-test";
+
+	private Jedis jedis;
+
+	@BeforeClass
+	public static void setUpRedisThread() {
+		// the RedisThread statics are read once, by whichever test class loads it first, and the others need this to finish
+		System.setProperty("redis.maxTimeoutsBeforeClose", "1");
+	}
+
+	@Before
+	public void setUp() {
+		jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+	}
+
+	@After
+	public void tearDown() {
+		jedis.close();
+	}
+
+	private void testPrefetch(final RedisThread rt) {
+		try {
+			rt.deleteQueue();
+			jedis.lpush(rt.queue, "1", "2", "3", "4", "5");
+			Assert.assertEquals(3, rt.prefetch(jedis, 3, rt.queue));
+			Assert.assertEquals("1", new String(rt.prefetched.peek().serialized));
+			Assert.assertEquals(Arrays.asList("5", "4"), jedis.lrange(rt.queue, 0, -1));
+			Assert.assertEquals(2, rt.prefetch(jedis, 3, rt.queue));
+			Assert.assertEquals(0, rt.prefetch(jedis, 3, rt.queue));
+			Assert.assertEquals("1", new String(rt.prefetched.poll().serialized));
+			// the rest go back as if they had never been taken
+			rt.pushBackPrefetched();
+			Assert.assertTrue(rt.prefetched.isEmpty());
+			Assert.assertEquals(Arrays.asList("5", "4", "3", "2"), jedis.lrange(rt.queue, 0, -1));
+			if (rt instanceof RedisProcessingQueueThread)
+				// only the one never pushed back is still being processed
+				Assert.assertEquals(1L, (long) jedis.hlen(((RedisProcessingQueueThread) rt).processingQueue));
+		} finally {
+			rt.deleteQueue();
+			rt.close();
+		}
+	}
+
+	private void testMultipleQueues(final RedisThread rt) {
+		final String other = RedisThread.defaultQueuePrefix + queue + "-other";
+		try {
+			rt.deleteQueue();
+			jedis.del(other);
+			jedis.lpush(other, "1", "2");
+			// the first queue is empty, so both come from the other
+			Assert.assertEquals(2, rt.prefetch(jedis, 3, rt.queue, other));
+			Assert.assertEquals(other, rt.prefetched.peek().queue);
+			rt.prefetched.clear();
+			jedis.lpush(other, "3");
+			final PolledItem polledItem = rt.pollRedis(jedis, 1);
+			Assert.assertEquals(other, polledItem.queue);
+			Assert.assertEquals("3", new String(polledItem.serialized));
+		} finally {
+			rt.deleteQueue();
+			jedis.del(other);
+			rt.close();
+		}
+	}
+
+	@Test
+	public void testRedisThreadMultipleQueues() {
+		testMultipleQueues(new RedisThread(queue, null, null, null, null, Arrays.asList(queue + "-other")));
+	}
+
+	@Test
+	public void testRedisProcessingQueueThreadMultipleQueues() {
+		testMultipleQueues(new RedisProcessingQueueThread(queue, null, null, null, null, null, Arrays.asList(queue + "-other")));
+	}
+
+	@Test
+	public void testRedisThread() {
+		testPrefetch(new RedisThread(queue));
+	}
+
+	@Test
+	public void testRedisProcessingQueueThread() {
+		testPrefetch(new RedisProcessingQueueThread(queue));
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.Envelope;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.util.Arrays;
+
+public class ProcessingQueueReaperTest {
+
+	private static final String queue = "reaper-test", noWaitQueue = queue + "-noWait", processingQueue = queue + "-processing", quarantineQueue = queue + "-quarantine";
+
+	private Jedis jedis;
+
+	@BeforeClass
+	public static void setUpRedisThread() {
+		// the RedisThread statics are read once, by whichever test class loads it first, and the others need this to finish
+		System.setProperty("redis.maxTimeoutsBeforeClose", "1");
+	}
+
+	@Before
+	public void setUp() {
+		jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+		deleteKeys();
+	}
+
+	@After
+	public void tearDown() {
+		deleteKeys();
+		jedis.close();
+	}
+
+	private void deleteKeys() {
+		jedis.del(queue, noWaitQueue, processingQueue, processingQueue + "-claimed", processingQueue + "-ids", ProcessingQueueReaper.sources(processingQueue),
+				quarantineQueue, ProcessingQueueReaper.consumers(processingQueue),
+				ProcessingQueueReaper.owned(processingQueue, "dead"), ProcessingQueueReaper.inbox(processingQueue, "dead"),
+				ProcessingQueueReaper.owned(processingQueue, "alive"));
+	}
+
+	private void claim(final String consumer, final long now) {
+		jedis.rpoplpush(queue, ProcessingQueueReaper.inbox(processingQueue, consumer));
+		claim(consumer, now, ProcessingQueueReaper.inbox(processingQueue, consumer), queue);
+	}
+
+	private void claim(final String consumer, final long now, final String list, final String source) {
+		Assert.assertNotNull(RedisProcessingQueueThread.claimScript.evalBinary(jedis,
+				Arrays.asList(SafeEncoder.encode(processingQueue), SafeEncoder.encode(processingQueue + "-claimed"), SafeEncoder.encode(processingQueue + "-ids"),
+						SafeEncoder.encode(ProcessingQueueReaper.owned(processingQueue, consumer)), SafeEncoder.encode(ProcessingQueueReaper.sources(processingQueue)),
+						SafeEncoder.encode(list)),
+				Arrays.asList(SafeEncoder.encode(Long.toString(now)), SafeEncoder.encode("1"), SafeEncoder.encode(source))));
+	}
+
+	@Test
+	public void testDeadConsumer() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, null, processingQueue, quarantineQueue, 1000, 0, 1, 10, true);
+		final long now = System.currentTimeMillis();
+		jedis.lpush(queue, "job");
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		reaper.heartbeat(jedis, "alive", now);
+		claim("dead", now - 5000);
+
+		// claimed by a dead consumer, so back on the queue with an envelope saying so
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(0L, (long) jedis.hlen(processingQueue));
+		Assert.assertEquals(0L, (long) jedis.zcard(processingQueue + "-claimed"));
+		Assert.assertEquals(Arrays.asList("alive"), Arrays.asList(jedis.zrange(ProcessingQueueReaper.consumers(processingQueue), 0, -1).toArray()));
+		Envelope envelope = Envelope.parse(jedis.lindex(SafeEncoder.encode(queue), 0));
+		Assert.assertEquals(1, envelope.attempt);
+		Assert.assertEquals(now, envelope.enqueuedAt);
+		Assert.assertEquals("job", new String(envelope.getScheduledItem()));
+
+		// the next time is more than maxRedeliveries
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		claim("dead", now - 5000);
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(0L, (long) jedis.llen(queue));
+		envelope = Envelope.parse(jedis.lindex(SafeEncoder.encode(quarantineQueue), 0));
+		Assert.assertEquals(2, envelope.attempt);
+		Assert.assertEquals("job", new String(envelope.getScheduledItem()));
+	}
+
+	@Test
+	public void testInbox() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, null, processingQueue, quarantineQueue, 1000, 0, 1, 10, true);
+		final long now = System.currentTimeMillis();
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		jedis.lpush(ProcessingQueueReaper.inbox(processingQueue, "dead"), "job");
+		// never claimed, so it goes back as it was
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(Arrays.asList("job"), jedis.lrange(queue, 0, -1));
+	}
+
+	@Test
+	public void testVisibilityTimeout() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, null, processingQueue, quarantineQueue, 60000, 1000, 5, 1, true);
+		final long now = System.currentTimeMillis();
+		reaper.heartbeat(jedis, "alive", now);
+		jedis.lpush(queue, "old", "new");
+		claim("alive", now - 5000);
+		claim("alive", now);
+		// only the one claimed before the visibility timeout, in batches of 1
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(1L, (long) jedis.hlen(processingQueue));
+		Assert.assertEquals("old", new String(Envelope.parse(jedis.lindex(SafeEncoder.encode(queue), 0)).getScheduledItem()));
+	}
+
+	@Test
+	public void testRequeuedToSource() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, Arrays.asList(noWaitQueue), processingQueue, quarantineQueue, 1000, 1000, 5, 1, true);
+		final long now = System.currentTimeMillis();
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		reaper.heartbeat(jedis, "alive", now);
+		jedis.lpush(noWaitQueue, "dead", "expired");
+		claim("alive", now - 5000, noWaitQueue, noWaitQueue);
+		claim("dead", now, noWaitQueue, noWaitQueue);
+		// both go back to the noWait queue they were claimed from rather than the reaper's queue, in batches of 1
+		Assert.assertEquals(2, reaper.reap(jedis, now));
+		Assert.assertEquals(0L, (long) jedis.llen(queue));
+		Assert.assertEquals(2L, (long) jedis.llen(noWaitQueue));
+		Assert.assertEquals(0L, (long) jedis.hlen(ProcessingQueueReaper.sources(processingQueue)));
+		Assert.assertEquals(0L, (long) jedis.zcard(ProcessingQueueReaper.owned(processingQueue, "dead")));
+	}
+
+	@Test
+	public void testUnknownSource() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, null, processingQueue, quarantineQueue, 1000, 0, 5, 10, true);
+		final long now = System.currentTimeMillis();
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		jedis.lpush(noWaitQueue, "job");
+		claim("dead", now - 5000, noWaitQueue, noWaitQueue);
+		// the reaper wasn't told about that queue, so it can't write to it, and it goes back on its own queue instead
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(0L, (long) jedis.llen(noWaitQueue));
+		Assert.assertEquals(1L, (long) jedis.llen(queue));
+	}
+
+	@Test
+	public void testWithoutEnvelope() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, null, processingQueue, quarantineQueue, 1000, 0, 0, 10, false);
+		final long now = System.currentTimeMillis();
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		jedis.lpush(queue, "bare");
+		claim("dead", now - 5000);
+		// processors older than Envelope may be reading, so it goes back as it was, never quarantined
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(Arrays.asList("bare"), jedis.lrange(queue, 0, -1));
+		Assert.assertEquals(0L, (long) jedis.llen(quarantineQueue));
+
+		// but one that already has an envelope still counts
+		jedis.del(queue);
+		jedis.lpush(SafeEncoder.encode(queue), Envelope.wrap(now, 0, "producer", SafeEncoder.encode("enveloped")));
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		claim("dead", now - 5000);
+		Assert.assertEquals(1, reaper.reap(jedis, now));
+		Assert.assertEquals(0L, (long) jedis.llen(queue));
+		Assert.assertEquals(1, Envelope.parse(jedis.lindex(SafeEncoder.encode(quarantineQueue), 0)).attempt);
+	}
+
+	@Test
+	public void testLargeConsumerInBatches() {
+		final ProcessingQueueReaper reaper = new ProcessingQueueReaper(queue, null, processingQueue, quarantineQueue, 1000, 0, 5, 7, true);
+		final long now = System.currentTimeMillis();
+		reaper.heartbeat(jedis, "dead", now - 5000);
+		for (int x = 0; x < 100; ++x) {
+			jedis.lpush(queue, Integer.toString(x));
+			claim("dead", now - 5000);
+		}
+		Assert.assertEquals(100, reaper.reap(jedis, now));
+		Assert.assertEquals(100L, (long) jedis.llen(queue));
+		Assert.assertEquals(0L, (long) jedis.hlen(processingQueue));
+		Assert.assertFalse(jedis.exists(ProcessingQueueReaper.owned(processingQueue, "dead")));
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class QueueOrderTest {
+
+	private static Map<String, Integer> firsts(final QueueOrder order, final int times) {
+		final Map<String, Integer> ret = new HashMap<String, Integer>();
+		for (int x = 0; x < times; ++x) {
+			final String first = order.next()[0];
+			final Integer count = ret.get(first);
+			ret.put(first, count == null ? 1 : count + 1);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testPriority() {
+		final QueueOrder order = new QueueOrder(Arrays.asList("a", "b", "c"), null);
+		for (int x = 0; x < 10; ++x)
+			Assert.assertArrayEquals(new String[]{"a", "b", "c"}, order.next());
+	}
+
+	@Test
+	public void testWeights() {
+		final QueueOrder order = new QueueOrder(Arrays.asList("a", "b", "c"), new int[]{5, 3, 0});
+		final Map<String, Integer> firsts = firsts(order, 80);
+		Assert.assertEquals(50, (int) firsts.get("a"));
+		Assert.assertEquals(30, (int) firsts.get("b"));
+		Assert.assertNull(firsts.get("c"));
+		// the rest stay in order behind whichever goes first
+		for (int x = 0; x < 8; ++x) {
+			final String[] next = order.next();
+			Assert.assertArrayEquals(next[0].equals("a") ? new String[]{"a", "b", "c"} : new String[]{"b", "a", "c"}, next);
+		}
+	}
+
+	@Test
+	public void testSmooth() {
+		// equal weights should alternate, never the same one twice in a row
+		final QueueOrder order = new QueueOrder(Arrays.asList("a", "b"), new int[]{1, 1});
+		for (int x = 0; x < 10; ++x)
+			Assert.assertEquals(x % 2 == 0 ? "a" : "b", order.next()[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfWeights() {
+		new QueueOrder(Arrays.asList("a", "b"), new int[]{1});
+	}
+}
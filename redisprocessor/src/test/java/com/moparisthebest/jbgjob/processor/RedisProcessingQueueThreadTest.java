@@ -20,7 +20,10 @@
 
 package com.moparisthebest.jbgjob.processor;
 
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
 
 public class RedisProcessingQueueThreadTest extends RedisThreadTest {
 
@@ -31,4 +34,19 @@ public class RedisProcessingQueueThreadTest extends RedisThreadTest {
 		rt.deleteQueue();
 	}
 
+	@Test
+	public void testNoHeartbeatUntilRun() throws Exception {
+		final RedisProcessingQueueThread notRun = new RedisProcessingQueueThread("heartbeat-test");
+		final Jedis jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+		try {
+			Thread.sleep(200);
+			// never run, so the reaper must not think it is alive
+			Assert.assertNull(jedis.zscore(ProcessingQueueReaper.consumers(notRun.processingQueue), notRun.consumer));
+		} finally {
+			notRun.close();
+			notRun.deleteQueue();
+			jedis.close();
+		}
+	}
+
 }
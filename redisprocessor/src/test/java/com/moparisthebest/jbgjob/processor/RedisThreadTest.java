@@ -20,10 +20,17 @@
 
 package com.moparisthebest.jbgjob.processor;
 
+import com.moparisthebest.jbgjob.AbstractScheduler;
 import com.moparisthebest.jbgjob.AbstractSchedulerTests;
 import com.moparisthebest.jbgjob.RedisScheduler;
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Instant;
 
 public class RedisThreadTest extends AbstractSchedulerTests {
 
@@ -41,6 +48,11 @@ public class RedisThreadTest extends AbstractSchedulerTests {
 		bg = new RedisScheduler();
 	}
 
+	@Test
+	public void testScheduleDelayed() throws Throwable {
+		Assert.assertTrue(bg.schedule(AbstractScheduler.defaultQueue, PrintingJob.class, new PrintDTO("delayed"), Instant.now().plusSeconds(2)));
+	}
+
 	@AfterClass
 	public static void testRunRedisThread() throws Throwable {
 		rt.run();
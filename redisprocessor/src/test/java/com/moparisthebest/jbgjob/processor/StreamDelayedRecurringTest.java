@@ -0,0 +1,113 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.RedisStreamScheduler;
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.time.Instant;
+
+public class StreamDelayedRecurringTest {
+
+	private static final String queue = "stream-delayed-test", recurring = "stream-recurring-test";
+	private static final String recurringKey = RedisThread.defaultQueuePrefix + "recurring", recurringNextKey = recurringKey + "-next";
+
+	private Jedis jedis;
+	private RedisStreamThread rt;
+	private RedisStreamScheduler scheduler;
+
+	@BeforeClass
+	public static void setUpRedisThread() {
+		// the RedisThread statics are read once, by whichever test class loads it first, and the others need this to finish
+		System.setProperty("redis.maxTimeoutsBeforeClose", "1");
+	}
+
+	@Before
+	public void setUp() {
+		jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+		rt = new RedisStreamThread(queue);
+		scheduler = new RedisStreamScheduler();
+		deleteQueues();
+	}
+
+	@After
+	public void tearDown() {
+		deleteQueues();
+		scheduler.close();
+		rt.close();
+		jedis.close();
+	}
+
+	private void deleteQueues() {
+		rt.deleteQueue();
+		scheduler.removeRecurring(recurring);
+	}
+
+	private long xlen(final String stream) {
+		return (Long) jedis.eval("return redis.call('XLEN', KEYS[1])", 1, stream);
+	}
+
+	@Test
+	public void testDelayedAddedToStream() throws Throwable {
+		Assert.assertTrue(scheduler.schedule(queue, PrintingJob.class, new PrintDTO("delayed"), Instant.now().plusMillis(100)));
+		Assert.assertEquals(0, xlen(rt.queue));
+		Thread.sleep(200);
+
+		rt.moveDelayed(jedis);
+		Assert.assertEquals(1, xlen(rt.queue));
+		Assert.assertEquals(1L, (long) jedis.llen(rt.doorbell));
+		Assert.assertEquals(0L, (long) jedis.zcard(rt.queue + RedisStreamScheduler.defaultDelayedQueueSuffix));
+		Assert.assertEquals(1, rt.read(jedis, rt.queue, SafeEncoder.encode("10")));
+	}
+
+	@Test
+	public void testRecurringAddedToStream() throws Throwable {
+		Assert.assertTrue(scheduler.scheduleRecurring(recurring, queue, "* * * * *", PrintingJob.class, new PrintDTO("recurring")));
+		// due now instead of at the top of the next minute
+		final long fireTime = System.currentTimeMillis() - 1000;
+		jedis.zadd(recurringNextKey, fireTime, recurring);
+
+		rt.fireRecurring(jedis);
+		Assert.assertEquals(1, xlen(rt.queue));
+		Assert.assertEquals(1L, (long) jedis.llen(rt.doorbell));
+		Assert.assertEquals(1, rt.read(jedis, rt.queue, SafeEncoder.encode("10")));
+		jedis.del(recurringKey + "-lease:" + recurring + ':' + fireTime);
+	}
+
+	@Test
+	public void testAckedOnceFinished() throws Throwable {
+		Assert.assertTrue(scheduler.schedule(queue, PrintingJob.class, new PrintDTO("acked")));
+		Assert.assertEquals(1, rt.read(jedis, rt.queue, SafeEncoder.encode("10")));
+		rt.new AckOnCompletion(rt.fetched.poll()).success();
+
+		// without reading again
+		for (int x = 0; x < 100 && xlen(rt.queue) > 0; ++x)
+			Thread.sleep(10);
+		Assert.assertEquals(0, xlen(rt.queue));
+	}
+}
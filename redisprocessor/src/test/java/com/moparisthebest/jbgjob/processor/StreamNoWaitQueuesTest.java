@@ -0,0 +1,101 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob.processor;
+
+import com.moparisthebest.jbgjob.RedisStreamScheduler;
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class StreamNoWaitQueuesTest {
+
+	private static final String queue = "stream-nowait-test", other = queue + "-other";
+
+	private Jedis jedis;
+	private RedisStreamThread rt;
+	private RedisStreamScheduler scheduler;
+	private String otherStream;
+
+	@BeforeClass
+	public static void setUpRedisThread() {
+		// the RedisThread statics are read once, by whichever test class loads it first, and the others need this to finish
+		System.setProperty("redis.maxTimeoutsBeforeClose", "1");
+	}
+
+	@Before
+	public void setUp() {
+		jedis = new Jedis(System.getProperty("redis.host", "localhost"));
+		rt = new RedisStreamThread(queue, null, null, null, null, null, null, Arrays.asList(other));
+		scheduler = new RedisStreamScheduler();
+		otherStream = RedisThread.defaultQueuePrefix + other;
+		deleteQueues();
+	}
+
+	@After
+	public void tearDown() {
+		deleteQueues();
+		scheduler.close();
+		rt.close();
+		jedis.close();
+	}
+
+	private void deleteQueues() {
+		rt.deleteQueue();
+		jedis.del(otherStream, rt.errorQueue(otherStream), otherStream + RedisStreamScheduler.defaultDoorbellSuffix);
+	}
+
+	@Test
+	public void testAutoclaimEveryStream() {
+		Assert.assertTrue(scheduler.schedule(other, PrintingJob.class, new PrintDTO("orphaned")));
+		// read by a consumer that then died, long enough ago that anyone may claim it
+		final List<?> read = (List<?>) RedisStreamThread.readScript.evalBinary(jedis, Arrays.asList(SafeEncoder.encode(otherStream)),
+				Arrays.asList(rt.groupBytes, SafeEncoder.encode("dead"), SafeEncoder.encode("10")));
+		Assert.assertEquals(2, read.size());
+		jedis.eval("return redis.call('XCLAIM', KEYS[1], ARGV[1], 'dead', 0, ARGV[2], 'IDLE', ARGV[3])", Arrays.asList(otherStream),
+				Arrays.asList(rt.group, SafeEncoder.encode((byte[]) read.get(0)), Integer.toString(RedisStreamThread.defaultMinIdleMillis + 60000)));
+
+		rt.autoclaim(jedis);
+		final StreamItem claimed = rt.fetched.poll();
+		Assert.assertNotNull(claimed);
+		Assert.assertEquals(otherStream, claimed.queue);
+		Assert.assertArrayEquals((byte[]) read.get(0), claimed.id);
+		Assert.assertTrue(rt.fetched.isEmpty());
+	}
+
+	@Test
+	public void testErrorQueueOfItsStream() {
+		Assert.assertTrue(scheduler.schedule(other, PrintingJob.class, new PrintDTO("failing")));
+		Assert.assertEquals(1, rt.read(jedis, otherStream, SafeEncoder.encode("10")));
+		rt.new AckOnCompletion(rt.fetched.poll()).error(new Exception("failed on purpose"));
+		// writes what the AckWriter has so far
+		rt.ackWriter.close();
+		Assert.assertEquals(1L, (long) jedis.llen(rt.errorQueue(otherStream)));
+		Assert.assertEquals(0L, (long) jedis.llen(rt.errorQueue));
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import java.io.IOException;
+
+/**
+ * Holds payloads too big to put in a redis list for ClaimCheck, see RedisBlobStore and FileBlobStore.
+ * <p/>
+ * Implementations must be thread-safe, and every producer and processor of a queue must see the same store.
+ */
+public interface BlobStore {
+
+	/**
+	 * @param neededAtMillis when the payload is first needed, like the runAt of a delayed job, a store that expires
+	 *                       payloads must keep it at least until then plus however long it normally keeps them
+	 * @return id to get it back with, short and printable since it goes into the queue in its place
+	 */
+	public String put(final byte[] payload, final long neededAtMillis) throws IOException;
+
+	/**
+	 * @return payload put under id, or null if there is no such id, which includes one that expired
+	 */
+	public byte[] get(final String id) throws IOException;
+
+	public void delete(final String id) throws IOException;
+}
@@ -0,0 +1,384 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This implementation of RedisScheduler doesn't talk to redis in the calling thread, jobs are serialized into a buffer
+ * bounded in bytes and a single background thread sends them to redis in pipelined batches, as soon as
+ * redis.buffer.batchSize are waiting or the oldest has waited redis.buffer.lingerMillis.
+ * <p/>
+ * How durable each job is is up to the caller:
+ * <ul>
+ * <li>schedule is fire-and-forget, it returns true as soon as the job is buffered, so if this JVM dies the jobs still
+ * in the buffer are lost, which is at most redis.buffer.maxBytes worth of them, or lingerMillis worth when redis keeps up</li>
+ * <li>scheduleAsync returns a future completing once redis has acknowledged that job</li>
+ * <li>flush returns a future completing once everything buffered before it has been sent</li>
+ * </ul>
+ * Jobs that don't fit in the buffer, or that redis fails to take, are dropped and counted, see getDropped.  Delayed and
+ * recurring jobs aren't buffered, they go straight to redis just like with RedisScheduler.
+ */
+public class BufferedRedisScheduler extends RedisScheduler {
+
+	public static final int defaultMaxBytes = ScheduledItemExecutor.getIntSystemProperty("redis.buffer.maxBytes", 16 * 1024 * 1024);
+	public static final int defaultBatchSize = ScheduledItemExecutor.getIntSystemProperty("redis.buffer.batchSize", 1000);
+	public static final int defaultLingerMillis = ScheduledItemExecutor.getIntSystemProperty("redis.buffer.lingerMillis", 5);
+
+	protected final int maxBytes, batchSize;
+	protected final long lingerNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	// all guarded by lock
+	private final ArrayDeque<Buffered> buffer = new ArrayDeque<Buffered>();
+	private long bytes = 0;
+	private int flushes = 0;
+	private boolean closed = false;
+
+	private final LongAdder dropped = new LongAdder();
+	private final Thread flusher;
+
+	public BufferedRedisScheduler() {
+		this(null, null);
+	}
+
+	public BufferedRedisScheduler(JedisPool pool) {
+		this(null, pool);
+	}
+
+	public BufferedRedisScheduler(String queuePrefix) {
+		this(queuePrefix, null);
+	}
+
+	public BufferedRedisScheduler(String queuePrefix, JedisPool pool) {
+		this(queuePrefix, pool, null);
+	}
+
+	public BufferedRedisScheduler(String queuePrefix, JedisPool pool, Codec codec) {
+		this(queuePrefix, pool, codec, defaultMaxBytes, defaultBatchSize, defaultLingerMillis);
+	}
+
+	/**
+	 * @param maxBytes     most bytes of serialized jobs the buffer holds
+	 * @param batchSize    most jobs sent per round trip to redis, sent as soon as this many are waiting
+	 * @param lingerMillis longest a job waits in the buffer for others to send with it
+	 */
+	public BufferedRedisScheduler(String queuePrefix, JedisPool pool, Codec codec, final int maxBytes, final int batchSize, final long lingerMillis) {
+		super(queuePrefix, pool, codec);
+		this.maxBytes = maxBytes;
+		this.batchSize = Math.max(1, batchSize);
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushBuffer();
+			}
+		}, "BufferedRedisScheduler-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * @return true once it is buffered, false if it could not be serialized, or didn't fit in the buffer
+	 */
+	@Override
+	public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem) {
+		if (queue == null || scheduledItem == null)
+			throw new NullPointerException("No parameters can be null!");
+		try {
+			return buffer(new Buffered(queue, serialize(scheduledItem, System.currentTimeMillis()), null));
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * @return as described in schedule, for each
+	 */
+	@Override
+	public boolean[] scheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		checkScheduleAll(queue, scheduledItems);
+		final boolean[] ret = new boolean[scheduledItems.size()];
+		int x = 0;
+		for (final ScheduledItem<?> scheduledItem : scheduledItems)
+			ret[x++] = schedule(queue, scheduledItem);
+		return ret;
+	}
+
+	/**
+	 * @return future completing with true once redis has acknowledged the LPUSH, false if it didn't fit in the buffer
+	 * or redis failed to take it, or exceptionally if serialization failed
+	 */
+	@Override
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final ScheduledItem<T> scheduledItem) {
+		if (queue == null || scheduledItem == null)
+			throw new NullPointerException("No parameters can be null!");
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		try {
+			if (!buffer(new Buffered(queue, serialize(scheduledItem, System.currentTimeMillis()), future)))
+				future.complete(false);
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Sends everything buffered so far without waiting for batchSize or lingerMillis.
+	 *
+	 * @return future completing with true once everything buffered before this call is sent, or false if any of it
+	 * was dropped since the last flush
+	 */
+	public CompletableFuture<Boolean> flush() {
+		final Buffered flush = new Buffered(null, null, new CompletableFuture<Boolean>());
+		lock.lock();
+		try {
+			if (closed && buffer.isEmpty()) {
+				// flusher is done or just about to be
+				flush.future.complete(true);
+			} else {
+				buffer.add(flush);
+				++flushes;
+				changed.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		return flush.future;
+	}
+
+	private boolean buffer(final Buffered buffered) {
+		lock.lock();
+		try {
+			if (!closed && bytes + buffered.bytes <= maxBytes) {
+				buffer.add(buffered);
+				bytes += buffered.bytes;
+				// the flusher only needs waking to start the linger clock, or when a batch is full
+				if (buffer.size() == 1 || buffer.size() == batchSize)
+					changed.signal();
+				return true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		dropped.increment();
+		releaseClaimCheck(buffered.serialized);
+		return false;
+	}
+
+	private void flushBuffer() {
+		final List<Buffered> batch = new ArrayList<Buffered>(batchSize + 1);
+		boolean allSent = true; // since the last flush
+		while (true) {
+			lock.lock();
+			try {
+				while (true) {
+					if (buffer.isEmpty()) {
+						if (closed)
+							return;
+						changed.awaitUninterruptibly();
+						continue;
+					}
+					if (closed || flushes > 0 || buffer.size() >= batchSize)
+						break;
+					final long wait = buffer.peekFirst().bufferedAt + lingerNanos - System.nanoTime();
+					if (wait <= 0)
+						break;
+					try {
+						changed.awaitNanos(wait);
+					} catch (InterruptedException e) {
+						// nothing interrupts this thread, close is how it stops
+					}
+				}
+				// a flush ends the batch, so it can complete as soon as what was buffered before it is sent
+				Buffered buffered;
+				int jobs = 0;
+				while (jobs < batchSize && (buffered = buffer.poll()) != null) {
+					batch.add(buffered);
+					if (buffered.queue == null) {
+						--flushes;
+						break;
+					}
+					bytes -= buffered.bytes;
+					++jobs;
+				}
+			} finally {
+				lock.unlock();
+			}
+			final Buffered last = batch.get(batch.size() - 1);
+			if (last.queue == null) {
+				batch.remove(batch.size() - 1);
+				allSent &= batch.isEmpty() || send(batch);
+				last.future.complete(allSent);
+				allSent = true;
+			} else {
+				allSent &= send(batch);
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Sends batch in one pipeline, a multi-value LPUSH for each run of jobs in the same queue, so order within a queue
+	 * is kept, and completes their futures.
+	 *
+	 * @return true if redis took all of them
+	 */
+	protected boolean send(final List<Buffered> batch) {
+		final List<Response<Long>> responses = new ArrayList<Response<Long>>();
+		final int[] ends = new int[batch.size()];
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			final Pipeline p = jedis.pipelined();
+			for (int from = 0, to; from < batch.size(); from = to) {
+				final String queue = batch.get(from).queue;
+				to = from + 1;
+				while (to < batch.size() && queue.equals(batch.get(to).queue))
+					++to;
+				final byte[][] values = new byte[to - from][];
+				for (int x = from; x < to; ++x)
+					values[x - from] = batch.get(x).serialized;
+				if (debug) System.out.printf("redis>  LPUSH %s (%d items)\n", queuePrefix + queue, values.length);
+				ends[responses.size()] = to;
+				responses.add(p.lpush(SafeEncoder.encode(queuePrefix + queue), values));
+				ring(p, queuePrefix + queue, values.length);
+			}
+			p.sync();
+		} catch (Throwable e) {
+			e.printStackTrace();
+			// then the responses below throw too, failing all
+			responses.clear();
+		} finally {
+			tryReturn(jedis);
+		}
+		boolean ret = true;
+		int from = 0;
+		for (int run = 0; run < responses.size(); ++run) {
+			boolean sent;
+			try {
+				sent = responses.get(run).get() > 0;
+			} catch (Throwable e) {
+				e.printStackTrace();
+				sent = false;
+			}
+			ret &= sent;
+			for (; from < ends[run]; ++from)
+				sent(batch.get(from), sent);
+		}
+		for (; from < batch.size(); ++from) {
+			ret = false;
+			sent(batch.get(from), false);
+		}
+		return ret;
+	}
+
+	private void sent(final Buffered buffered, final boolean sent) {
+		if (!sent) {
+			dropped.increment();
+			releaseClaimCheck(buffered.serialized);
+		}
+		if (buffered.future != null)
+			buffered.future.complete(sent);
+	}
+
+	/**
+	 * @return number of jobs dropped since this was created, because they didn't fit in the buffer or redis failed to
+	 * take them
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return number of jobs waiting in the buffer
+	 */
+	public int getBuffered() {
+		lock.lock();
+		try {
+			return buffer.size() - flushes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return bytes of serialized jobs waiting in the buffer
+	 */
+	public long getBufferedBytes() {
+		lock.lock();
+		try {
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops buffering new jobs, and blocks until everything already buffered has been sent
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		super.close();
+	}
+
+	protected static class Buffered {
+		protected final String queue; // null for a flush, along with serialized
+		protected final byte[] serialized;
+		protected final CompletableFuture<Boolean> future; // null when fire-and-forget
+		protected final int bytes;
+		protected final long bufferedAt = System.nanoTime();
+
+		protected Buffered(final String queue, final byte[] serialized, final CompletableFuture<Boolean> future) {
+			this.queue = queue;
+			this.serialized = serialized;
+			this.future = future;
+			this.bytes = serialized == null ? 0 : serialized.length;
+		}
+	}
+}
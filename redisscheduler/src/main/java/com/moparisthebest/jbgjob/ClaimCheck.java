@@ -0,0 +1,111 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Moves encoded ScheduledItems of at least threshold bytes into a BlobStore, leaving only a small reference to them in
+ * the queue, so pushing, popping, LREM on processing queues and copies into error queues stay cheap however big the DTO.
+ * <p/>
+ * A reference is the byte 0x03 followed by the id from the BlobStore in UTF-8, which can also be inside an Envelope.
+ * Processors redeem it when they deserialize the item, and release it once it is done with, see RedisThread.
+ * <p/>
+ * RedisScheduler always has one of these, with threshold redis.claimCheck.threshold, 0 meaning never check one in, so
+ * processors understand references regardless.
+ */
+public class ClaimCheck {
+
+	public static final byte marker = 3;
+
+	public final BlobStore store;
+	public final int threshold;
+
+	/**
+	 * @param threshold put items at least this many bytes in store, 0 to never put any there
+	 */
+	public ClaimCheck(final BlobStore store, final int threshold) {
+		if (store == null)
+			throw new NullPointerException("No parameters can be null!");
+		this.store = store;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @param neededAtMillis when the job can first run, so a delayed one doesn't find its payload expired
+	 * @return a reference to encoded if it is at least threshold bytes and was put in store, otherwise encoded itself
+	 */
+	public byte[] checkIn(final byte[] encoded, final long neededAtMillis) throws IOException {
+		if (threshold <= 0 || encoded.length < threshold)
+			return encoded;
+		final byte[] id = store.put(encoded, neededAtMillis).getBytes(StandardCharsets.UTF_8);
+		final byte[] ret = new byte[id.length + 1];
+		ret[0] = marker;
+		System.arraycopy(id, 0, ret, 1, id.length);
+		return ret;
+	}
+
+	/**
+	 * @return the id bytes from offset to offset + length reference, or null if they aren't a reference
+	 */
+	public static String id(final byte[] bytes, final int offset, final int length) {
+		return length < 2 || bytes[offset] != marker ? null : new String(bytes, offset + 1, length - 1, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param serialized as it is in the queue, with or without an Envelope
+	 * @return the id it references, or null if it isn't a reference
+	 */
+	public static String id(final byte[] serialized) {
+		final Envelope envelope = Envelope.parse(serialized);
+		return id(envelope.bytes, envelope.offset, envelope.length());
+	}
+
+	/**
+	 * @return the payload referenced by id
+	 * @throws IOException if it isn't in store anymore, likely because it expired
+	 */
+	public byte[] redeem(final String id) throws IOException {
+		final byte[] ret = store.get(id);
+		if (ret == null)
+			throw new IOException("claim check '" + id + "' not found in " + store + ", it may have expired");
+		return ret;
+	}
+
+	/**
+	 * Deletes the payload referenced by id, once nothing will need it again, errors are only printed
+	 */
+	public void release(final String id) {
+		try {
+			store.delete(id);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ClaimCheck{" +
+				"store=" + store +
+				", threshold=" + threshold +
+				'}';
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import java.io.IOException;
+
+/**
+ * Turns ScheduledItems into the bytes stored in redis and back, selected with redis.codec, see RedisScheduler.codec.
+ * <p/>
+ * Implementations must be thread-safe, and what they encode must never start with the byte 0x01, which marks an
+ * Envelope, 0x02, which marks a CompressingCodec item, or
+ * 0x03, which marks a ClaimCheck reference.  Every processor reading a queue must use the same codec as everything scheduling into it.
+ */
+public interface Codec {
+
+	public byte[] encode(final ScheduledItem<?> scheduledItem) throws IOException;
+
+	/**
+	 * @param bytes  holds the encoded ScheduledItem from offset to offset + length, which may be preceded by a header
+	 *               like an Envelope, so it doesn't have to be copied out
+	 */
+	public ScheduledItem<?> decode(final byte[] bytes, final int offset, final int length) throws IOException;
+}
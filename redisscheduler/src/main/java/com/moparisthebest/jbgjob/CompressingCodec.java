@@ -0,0 +1,187 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.metrics.Histogram;
+import com.moparisthebest.jbgjob.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wraps another Codec, compressing what it encodes with Deflate once it is at least threshold bytes, and only if that
+ * actually makes it smaller.  Compressed items start with the byte 0x02, then the uncompressed length as a 4 byte big
+ * endian int, then raw Deflate data.  Anything else is passed to the wrapped Codec as is, so decode handles both no
+ * matter the threshold, and producers can turn compression on before or after processors without either breaking.
+ * <p/>
+ * RedisScheduler wraps every Codec in one of these, with threshold redis.compress.threshold, 0 meaning never compress.
+ * <p/>
+ * Metrics are shared by every instance in the JVM, see the static Histograms, which are null if scheduler.metrics.enabled
+ * is false.
+ */
+public class CompressingCodec implements Codec {
+
+	public static final byte marker = 2;
+	public static final int defaultLevel = ScheduledItemExecutor.getIntSystemProperty("redis.compress.level", Deflater.BEST_SPEED);
+	public static final int defaultMaxLength = ScheduledItemExecutor.getIntSystemProperty("redis.compress.maxLength", 64 * 1024 * 1024);
+
+	/**
+	 * time spent compressing and decompressing each item
+	 */
+	public static final Histogram compressTime, decompressTime;
+	/**
+	 * size of each compressed item before and after, and after as a percentage of before
+	 */
+	public static final Histogram uncompressedBytes, compressedBytes, compressedPercent;
+
+	static {
+		if (Metrics.enabled) {
+			compressTime = new Histogram();
+			decompressTime = new Histogram();
+			uncompressedBytes = new Histogram("bytes");
+			compressedBytes = new Histogram("bytes");
+			compressedPercent = new Histogram("percent");
+			final String codec = "type=Histogram,codec=CompressingCodec,name=";
+			Metrics.register(compressTime, codec + "compressTime");
+			Metrics.register(decompressTime, codec + "decompressTime");
+			Metrics.register(uncompressedBytes, codec + "uncompressedBytes");
+			Metrics.register(compressedBytes, codec + "compressedBytes");
+			Metrics.register(compressedPercent, codec + "compressedPercent");
+		} else {
+			compressTime = decompressTime = uncompressedBytes = compressedBytes = compressedPercent = null;
+		}
+	}
+
+	public final Codec codec;
+	public final int threshold;
+	protected final int level;
+	/**
+	 * most bytes decode inflates an item to, the length it claims is read from redis so can't be trusted
+	 */
+	protected final int maxLength;
+
+	public CompressingCodec(final Codec codec, final int threshold) {
+		this(codec, threshold, defaultLevel);
+	}
+
+	/**
+	 * @param threshold compress items at least this many bytes, 0 to never compress
+	 * @param level     Deflater compression level, 1 (fastest) to 9 (smallest)
+	 */
+	public CompressingCodec(final Codec codec, final int threshold, final int level) {
+		this(codec, threshold, level, defaultMaxLength);
+	}
+
+	/**
+	 * @param maxLength decode refuses items claiming to be longer than this uncompressed
+	 */
+	public CompressingCodec(final Codec codec, final int threshold, final int level, final int maxLength) {
+		if (codec == null)
+			throw new NullPointerException("codec cannot be null!");
+		this.codec = codec;
+		this.threshold = threshold;
+		this.level = level;
+		this.maxLength = maxLength;
+	}
+
+	@Override
+	public byte[] encode(final ScheduledItem<?> scheduledItem) throws IOException {
+		final byte[] encoded = codec.encode(scheduledItem);
+		if (threshold <= 0 || encoded.length < threshold)
+			return encoded;
+		final long start = System.nanoTime();
+		// not worth it unless it ends up smaller, so stop once it is as big as the original
+		final byte[] out = new byte[encoded.length];
+		int length = 5;
+		// holds native memory until ended, which must not wait for the garbage collector
+		final Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(encoded);
+			deflater.finish();
+			while (!deflater.finished() && length < out.length)
+				length += deflater.deflate(out, length, out.length - length);
+			if (!deflater.finished())
+				return encoded;
+		} finally {
+			deflater.end();
+		}
+		out[0] = marker;
+		out[1] = (byte) (encoded.length >>> 24);
+		out[2] = (byte) (encoded.length >>> 16);
+		out[3] = (byte) (encoded.length >>> 8);
+		out[4] = (byte) encoded.length;
+		final byte[] ret = Arrays.copyOf(out, length);
+		if (compressTime != null) {
+			compressTime.record(System.nanoTime() - start);
+			uncompressedBytes.record(encoded.length);
+			compressedBytes.record(ret.length);
+			compressedPercent.record(ret.length * 100L / encoded.length);
+		}
+		return ret;
+	}
+
+	@Override
+	public ScheduledItem<?> decode(final byte[] bytes, final int offset, final int length) throws IOException {
+		if (length == 0 || bytes[offset] != marker)
+			return codec.decode(bytes, offset, length);
+		final long start = System.nanoTime();
+		if (length < 5)
+			throw new IOException("compressed item truncated to " + length + " bytes");
+		final int uncompressedLength = (bytes[offset + 1] & 0xFF) << 24 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 8 | (bytes[offset + 4] & 0xFF);
+		if (uncompressedLength < 0)
+			throw new IOException("compressed item has negative length " + uncompressedLength);
+		if (uncompressedLength > maxLength)
+			throw new IOException("compressed item claims " + uncompressedLength + " bytes, more than redis.compress.maxLength " + maxLength);
+		final byte[] out = new byte[uncompressedLength];
+		int inflated = 0;
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(bytes, offset + 5, length - 5);
+			while (inflated < out.length) {
+				final int count = inflater.inflate(out, inflated, out.length - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("compressed item is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+		if (inflated != uncompressedLength)
+			throw new IOException("compressed item inflated to " + inflated + " bytes instead of " + uncompressedLength);
+		if (decompressTime != null)
+			decompressTime.record(System.nanoTime() - start);
+		return codec.decode(out, 0, out.length);
+	}
+
+	@Override
+	public String toString() {
+		return "CompressingCodec{" +
+				"codec=" + codec +
+				", threshold=" + threshold +
+				", level=" + level +
+				", maxLength=" + maxLength +
+				'}';
+	}
+}
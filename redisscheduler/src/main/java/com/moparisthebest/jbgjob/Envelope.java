@@ -0,0 +1,136 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Optional metadata around a serialized ScheduledItem, so processors can tell how long it waited in redis.
+ * <p/>
+ * On the wire it is a header line before the encoded ScheduledItem: the byte 0x01, enqueuedAt millis, a space, the
+ * attempt, a space, the producer id in UTF-8, and a newline.  No Codec starts its output with 0x01, so anything without
+ * it is a bare ScheduledItem, and both can sit in the same queue.  Processors older than this can't read it, so only
+ * turn on redis.envelope once they are all upgraded.
+ */
+public class Envelope {
+
+	public static final byte marker = 1;
+
+	/**
+	 * millis since the epoch the item was ready to run, or -1 if it had no envelope
+	 */
+	public final long enqueuedAt;
+	/**
+	 * 0 the first time it is queued
+	 */
+	public final int attempt;
+	/**
+	 * id of the process that scheduled it, or null if it had no envelope
+	 */
+	public final String producer;
+	/**
+	 * bytes as read from redis, the encoded ScheduledItem is from offset to the end, after the header if there is one
+	 */
+	public final byte[] bytes;
+	public final int offset;
+
+	public Envelope(final long enqueuedAt, final int attempt, final String producer, final byte[] bytes, final int offset) {
+		this.enqueuedAt = enqueuedAt;
+		this.attempt = attempt;
+		this.producer = producer;
+		this.bytes = bytes;
+		this.offset = offset;
+	}
+
+	/**
+	 * @return scheduledItem with an envelope header
+	 */
+	public static byte[] wrap(final long enqueuedAt, final int attempt, final String producer, final byte[] scheduledItem) {
+		final byte[] header = (enqueuedAt + " " + attempt + " " + producer + '\n').getBytes(StandardCharsets.UTF_8);
+		final byte[] ret = new byte[1 + header.length + scheduledItem.length];
+		ret[0] = marker;
+		System.arraycopy(header, 0, ret, 1, header.length);
+		System.arraycopy(scheduledItem, 0, ret, 1 + header.length, scheduledItem.length);
+		return ret;
+	}
+
+	/**
+	 * @return the envelope of bytes, or one with enqueuedAt -1 around all of bytes if it has none
+	 * @throws IllegalArgumentException if bytes starts with the marker but the header is malformed
+	 */
+	public static Envelope parse(final byte[] bytes) {
+		if (bytes == null || bytes.length == 0 || bytes[0] != marker)
+			return new Envelope(-1, 0, null, bytes, 0);
+		int newline = -1, space1 = -1, space2 = -1;
+		for (int x = 1; x < bytes.length; ++x) {
+			if (bytes[x] == '\n') {
+				newline = x;
+				break;
+			}
+			if (bytes[x] == ' ' && space2 < 0) {
+				if (space1 < 0)
+					space1 = x;
+				else
+					space2 = x;
+			}
+		}
+		if (newline < 0 || space2 < 0)
+			throw new IllegalArgumentException("malformed envelope header: " + new String(bytes, 1, (newline < 0 ? Math.min(bytes.length, 64) : newline) - 1, StandardCharsets.UTF_8));
+		try {
+			return new Envelope(Long.parseLong(new String(bytes, 1, space1 - 1, StandardCharsets.US_ASCII)),
+					Integer.parseInt(new String(bytes, space1 + 1, space2 - space1 - 1, StandardCharsets.US_ASCII)),
+					new String(bytes, space2 + 1, newline - space2 - 1, StandardCharsets.UTF_8), bytes, newline + 1);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("malformed envelope header: " + new String(bytes, 1, newline - 1, StandardCharsets.UTF_8), e);
+		}
+	}
+
+	/**
+	 * @return number of bytes in the encoded ScheduledItem
+	 */
+	public int length() {
+		return bytes.length - offset;
+	}
+
+	/**
+	 * @return just the encoded ScheduledItem, copied out of bytes if there is a header
+	 */
+	public byte[] getScheduledItem() {
+		return offset == 0 ? bytes : Arrays.copyOfRange(bytes, offset, bytes.length);
+	}
+
+	/**
+	 * @return this as it goes on the wire, bare if it had no envelope
+	 */
+	public byte[] wrap() {
+		return producer == null ? getScheduledItem() : wrap(enqueuedAt, attempt, producer, getScheduledItem());
+	}
+
+	@Override
+	public String toString() {
+		return "Envelope{" +
+				"enqueuedAt=" + enqueuedAt +
+				", attempt=" + attempt +
+				", producer='" + producer + '\'' +
+				", scheduledItem='" + new String(bytes, offset, bytes.length - offset, StandardCharsets.UTF_8) + '\'' +
+				'}';
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.UUID;
+
+/**
+ * Keeps each payload in its own file in a directory, which must be shared by every producer and processor of the
+ * queue, like a network mount, unless they all run on the same host.  Nothing expires here, files are only removed
+ * when deleted, so clean up after jobs that end in an error queue yourself.
+ */
+public class FileBlobStore implements BlobStore {
+
+	protected final File dir;
+
+	public FileBlobStore(final File dir) {
+		if (dir == null)
+			throw new NullPointerException("No parameters can be null!");
+		this.dir = dir;
+	}
+
+	@Override
+	public String put(final byte[] payload, final long neededAtMillis) throws IOException {
+		final String id = UUID.randomUUID().toString();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+			throw new IOException("unable to create directory " + dir);
+		// write it somewhere else first so it is never read half written
+		final File tmp = new File(dir, id + ".tmp");
+		Files.write(tmp.toPath(), payload);
+		if (!tmp.renameTo(new File(dir, id))) {
+			tmp.delete();
+			throw new IOException("unable to rename " + tmp);
+		}
+		return id;
+	}
+
+	@Override
+	public byte[] get(final String id) throws IOException {
+		try {
+			return Files.readAllBytes(file(id).toPath());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void delete(final String id) throws IOException {
+		Files.deleteIfExists(file(id).toPath());
+	}
+
+	protected File file(final String id) throws IOException {
+		// ids come out of redis, so make sure one can't point anywhere else
+		if (id.isEmpty() || id.indexOf('/') != -1 || id.indexOf('\\') != -1 || id.startsWith("."))
+			throw new IOException("invalid id '" + id + "'");
+		return new File(dir, id);
+	}
+
+	@Override
+	public String toString() {
+		return "FileBlobStore{" +
+				"dir=" + dir +
+				'}';
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Encodes the whole ScheduledItem with Jackson and default typing, so any DTO Jackson can handle round trips with its
+ * types intact.  The format is whatever the JsonFactory produces, JSON by default, or binary Smile or CBOR, which are
+ * smaller and quicker to parse, if jackson-dataformat-smile or jackson-dataformat-cbor is on the classpath.
+ */
+public class JacksonCodec implements Codec {
+
+	protected final ObjectMapper om;
+
+	public JacksonCodec() {
+		this(null);
+	}
+
+	public JacksonCodec(final JsonFactory jsonFactory) {
+		this.om = new ObjectMapper(jsonFactory).enableDefaultTyping();
+	}
+
+	public static JacksonCodec json() {
+		return new JacksonCodec();
+	}
+
+	public static JacksonCodec smile() {
+		return new JacksonCodec(factory("com.fasterxml.jackson.dataformat.smile.SmileFactory"));
+	}
+
+	public static JacksonCodec cbor() {
+		return new JacksonCodec(factory("com.fasterxml.jackson.dataformat.cbor.CBORFactory"));
+	}
+
+	/**
+	 * Loaded by name, referencing the optional dataformat classes directly would make this class fail to load at all
+	 * without them
+	 *
+	 * @throws IllegalStateException if it isn't on the classpath
+	 */
+	private static JsonFactory factory(final String className) {
+		try {
+			return (JsonFactory) Class.forName(className).newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException(className + " not found, add its jackson-dataformat to the classpath", e);
+		}
+	}
+
+	@Override
+	public byte[] encode(final ScheduledItem<?> scheduledItem) throws IOException {
+		return om.writeValueAsBytes(scheduledItem);
+	}
+
+	@Override
+	public ScheduledItem<?> decode(final byte[] bytes, final int offset, final int length) throws IOException {
+		return om.readValue(bytes, offset, length, ScheduledItem.class);
+	}
+
+	@Override
+	public String toString() {
+		return "JacksonCodec{" +
+				"format=" + om.getFactory().getFormatName() +
+				'}';
+	}
+}
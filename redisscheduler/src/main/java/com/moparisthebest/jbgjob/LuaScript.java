@@ -0,0 +1,73 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.List;
+
+/**
+ * A Lua script run with EVALSHA, loaded on first use and again if redis has forgotten it
+ */
+public class LuaScript {
+
+	public final String script;
+
+	private volatile String sha;
+
+	public LuaScript(final String script) {
+		if (script == null)
+			throw new NullPointerException("script cannot be null!");
+		this.script = script;
+	}
+
+	public Object eval(final Jedis jedis, final List<String> keys, final List<String> args) {
+		if (sha == null)
+			sha = jedis.scriptLoad(script);
+		try {
+			return jedis.evalsha(sha, keys, args);
+		} catch (JedisDataException e) {
+			// redis restarted or SCRIPT FLUSH was called
+			if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT"))
+				throw e;
+			sha = jedis.scriptLoad(script);
+			return jedis.evalsha(sha, keys, args);
+		}
+	}
+
+	/**
+	 * Same as eval, but binary safe, and bulk replies come back as byte[]
+	 */
+	public Object evalBinary(final Jedis jedis, final List<byte[]> keys, final List<byte[]> args) {
+		if (sha == null)
+			sha = jedis.scriptLoad(script);
+		try {
+			return jedis.evalsha(SafeEncoder.encode(sha), keys, args);
+		} catch (JedisDataException e) {
+			if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT"))
+				throw e;
+			sha = jedis.scriptLoad(script);
+			return jedis.evalsha(SafeEncoder.encode(sha), keys, args);
+		}
+	}
+}
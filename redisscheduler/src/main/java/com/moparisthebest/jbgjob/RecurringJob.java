@@ -0,0 +1,68 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+/**
+ * Definition of a recurring job as stored in redis by RedisScheduler.scheduleRecurring
+ */
+public class RecurringJob {
+	public final String queue;
+	public final String cron;
+	/**
+	 * id of the time zone cron is evaluated in
+	 */
+	public final String zone;
+	/**
+	 * ScheduledItem already encoded by the Codec, pushed as is onto queue each time it fires
+	 */
+	public final byte[] scheduledItem;
+	/**
+	 * true if queue is a redis stream, see RedisStreamScheduler, false if it is a list
+	 */
+	public final boolean stream;
+
+	public RecurringJob() {
+		this(null, null, null, null);
+	}
+
+	public RecurringJob(final String queue, final String cron, final String zone, final byte[] scheduledItem) {
+		this(queue, cron, zone, scheduledItem, false);
+	}
+
+	public RecurringJob(final String queue, final String cron, final String zone, final byte[] scheduledItem, final boolean stream) {
+		this.queue = queue;
+		this.cron = cron;
+		this.zone = zone;
+		this.scheduledItem = scheduledItem;
+		this.stream = stream;
+	}
+
+	@Override
+	public String toString() {
+		return "RecurringJob{" +
+				"queue='" + queue + '\'' +
+				", cron='" + cron + '\'' +
+				", zone='" + zone + '\'' +
+				", scheduledItem=" + RedisScheduler.debugString(scheduledItem) +
+				", stream=" + stream +
+				'}';
+	}
+}
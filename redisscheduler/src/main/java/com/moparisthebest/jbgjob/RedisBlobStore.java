@@ -0,0 +1,104 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.SafeEncoder;
+
+import java.util.UUID;
+
+import static com.moparisthebest.jbgjob.RedisScheduler.debug;
+
+/**
+ * Keeps each payload in its own redis key that expires ttlSeconds after it is first needed, so ones never deleted,
+ * like those of jobs that ended up in an error queue, don't stay around forever.
+ */
+public class RedisBlobStore implements BlobStore {
+
+	protected final JedisPool pool;
+	protected final String keyPrefix;
+	protected final int ttlSeconds;
+
+	public RedisBlobStore(final JedisPool pool, final String keyPrefix, final int ttlSeconds) {
+		if (pool == null || keyPrefix == null)
+			throw new NullPointerException("No parameters can be null!");
+		this.pool = pool;
+		this.keyPrefix = keyPrefix;
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	@Override
+	public String put(final byte[] payload, final long neededAtMillis) {
+		final String id = UUID.randomUUID().toString();
+		// a delayed job must still find it however long past ttlSeconds it runs
+		final int ttl = (int) Math.min(Integer.MAX_VALUE, ttlSeconds + Math.max(0, (neededAtMillis - System.currentTimeMillis() + 999) / 1000));
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			if (debug) System.out.printf("redis>  SETEX %s%s %d <%d bytes>\n", keyPrefix, id, ttl, payload.length);
+			jedis.setex(SafeEncoder.encode(keyPrefix + id), ttl, payload);
+			return id;
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	@Override
+	public byte[] get(final String id) {
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			if (debug) System.out.printf("redis>  GET %s%s\n", keyPrefix, id);
+			return jedis.get(SafeEncoder.encode(keyPrefix + id));
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	@Override
+	public void delete(final String id) {
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			if (debug) System.out.printf("redis>  DEL %s%s\n", keyPrefix, id);
+			jedis.del(SafeEncoder.encode(keyPrefix + id));
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	private void tryReturn(final Jedis jedis) {
+		if (jedis != null)
+			try {
+				pool.returnResource(jedis);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+	}
+
+	@Override
+	public String toString() {
+		return "RedisBlobStore{" +
+				"keyPrefix='" + keyPrefix + '\'' +
+				", ttlSeconds=" + ttlSeconds +
+				'}';
+	}
+}
@@ -26,9 +26,18 @@ import com.fasterxml.jackson.databind.module.SimpleModule;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This implementation of Scheduler that serializes the DTO into a redis list for processing elsewhere.
@@ -38,6 +47,20 @@ public class RedisScheduler extends AbstractScheduler {
 	public static final boolean debug = "true".equalsIgnoreCase(System.getProperty("redis.debug")); // print debug statements, for development only
 
 	public static final String defaultQueuePrefix;
+	public static final Codec defaultCodec;
+	public static final boolean defaultEnvelope = "true".equalsIgnoreCase(System.getProperty("redis.envelope"));
+	public static final String defaultProducerId = defaultIfEmpty(System.getProperty("redis.producerId"), ManagementFactory.getRuntimeMXBean().getName());
+	public static final String defaultDelayedQueueSuffix = defaultIfEmpty(System.getProperty("redis.delayedQueueSuffix"), "-delayed");
+	public static final int defaultScheduleAllChunkSize = ScheduledItemExecutor.getIntSystemProperty("redis.scheduleAll.chunkSize", 1000);
+	public static final int defaultCompressThreshold = ScheduledItemExecutor.getIntSystemProperty("redis.compress.threshold", 0);
+	public static final int defaultClaimCheckThreshold = ScheduledItemExecutor.getIntSystemProperty("redis.claimCheck.threshold", 0);
+	public static final int defaultClaimCheckTtlSeconds = ScheduledItemExecutor.getIntSystemProperty("redis.claimCheck.ttlSeconds", 7 * 24 * 60 * 60);
+	public static final String defaultClaimCheckDir = System.getProperty("redis.claimCheck.dir");
+	public static final int defaultAsyncThreads = ScheduledItemExecutor.getIntSystemProperty("redis.async.numThreads", 4);
+	public static final int defaultAsyncQueueCapacity = ScheduledItemExecutor.getIntSystemProperty("redis.async.queueCapacity", 10000);
+	public static final boolean defaultDoorbell = "true".equalsIgnoreCase(System.getProperty("redis.doorbell"));
+	public static final String defaultDoorbellSuffix = defaultIfEmpty(System.getProperty("redis.doorbellSuffix"), "-doorbell");
+	public static final int defaultDoorbellSize = ScheduledItemExecutor.getIntSystemProperty("redis.doorbellSize", 64);
 
 	static {
 		String prefix = System.getProperty("redis.queuePrefix");
@@ -47,13 +70,58 @@ public class RedisScheduler extends AbstractScheduler {
 			} catch (Throwable e) {
 			}
 		defaultQueuePrefix = defaultIfEmpty(prefix, "");
+		Codec codec;
+		try {
+			codec = codec(System.getProperty("redis.codec"));
+		} catch (Throwable e) {
+			e.printStackTrace();
+			codec = JacksonCodec.json();
+		}
+		defaultCodec = codec;
+	}
+
+	/**
+	 * @param name json (the default when empty), smile, cbor, compact, or the name of a class implementing Codec with
+	 *             a public no-arg constructor
+	 * @throws IllegalArgumentException if there is no such codec, or it needs a jackson dataformat not on the classpath
+	 */
+	public static Codec codec(final String name) {
+		try {
+			if (isEmpty(name) || "json".equalsIgnoreCase(name))
+				return JacksonCodec.json();
+			if ("smile".equalsIgnoreCase(name))
+				return JacksonCodec.smile();
+			if ("cbor".equalsIgnoreCase(name))
+				return JacksonCodec.cbor();
+			if ("compact".equalsIgnoreCase(name))
+				return new CompactCodec();
+			return (Codec) Class.forName(name).newInstance();
+		} catch (Throwable e) {
+			throw new IllegalArgumentException("unable to create codec '" + name + "'", e);
+		}
 	}
 
 	protected final String queuePrefix;
+	protected final String delayedQueueSuffix = defaultDelayedQueueSuffix;
+	protected final String recurringKey, recurringNextKey;
+	protected final int scheduleAllChunkSize = Math.max(1, defaultScheduleAllChunkSize);
 
+	/**
+	 * encodes every ScheduledItem going into or coming out of redis
+	 */
+	protected final Codec codec;
+	/**
+	 * holds ScheduledItems too big to put in the queue, leaving a reference there instead
+	 */
+	protected final ClaimCheck claimCheck;
+	/**
+	 * only for metadata kept in redis, like recurring job definitions, the jobs themselves go through codec
+	 */
 	protected final ObjectMapper om = new ObjectMapper().enableDefaultTyping();
 	protected final JedisPool pool;
 
+	private volatile ExecutorService asyncExecutor;
+
 	public RedisScheduler() {
 		this(null, null);
 	}
@@ -67,38 +135,386 @@ public class RedisScheduler extends AbstractScheduler {
 	}
 
 	public RedisScheduler(String queuePrefix, JedisPool pool) {
+		this(queuePrefix, pool, null);
+	}
+
+	/**
+	 * @param codec wrapped in a CompressingCodec with threshold redis.compress.threshold unless it already is one, so
+	 *              compressed items are always understood
+	 */
+	public RedisScheduler(String queuePrefix, JedisPool pool, Codec codec) {
+		this(queuePrefix, pool, codec, null);
+	}
+
+	/**
+	 * @param claimCheck defaults to one with threshold redis.claimCheck.threshold, keeping payloads in the directory
+	 *                   redis.claimCheck.dir if set, otherwise in redis keys under queuePrefix + "blob:" expiring after
+	 *                   redis.claimCheck.ttlSeconds
+	 */
+	public RedisScheduler(String queuePrefix, JedisPool pool, Codec codec, ClaimCheck claimCheck) {
+		if (codec == null)
+			codec = defaultCodec;
+		this.codec = codec instanceof CompressingCodec ? codec : new CompressingCodec(codec, defaultCompressThreshold);
 		this.queuePrefix = defaultIfEmpty(queuePrefix, defaultQueuePrefix);
+		this.recurringKey = this.queuePrefix + "recurring";
+		this.recurringNextKey = this.queuePrefix + "recurring-next";
 		this.pool = pool != null ? pool : new JedisPool(new JedisPoolConfig(), System.getProperty("redis.host", "localhost"));
+		if (claimCheck == null)
+			claimCheck = new ClaimCheck(isEmpty(defaultClaimCheckDir) ? new RedisBlobStore(this.pool, this.queuePrefix + "blob:", defaultClaimCheckTtlSeconds) :
+					new FileBlobStore(new File(defaultClaimCheckDir)), defaultClaimCheckThreshold);
+		this.claimCheck = claimCheck;
 	}
 
 	@Override
 	public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem) {
 		super.schedule(queue, scheduledItem);
+		byte[] serialized = null;
+		try {
+			serialized = serialize(scheduledItem, System.currentTimeMillis());
+			if (lpush(queuePrefix + queue, serialized))
+				return true;
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		releaseClaimCheck(serialized);
+		return false;
+	}
+
+	/**
+	 * Serializes each, then sends them all in one pipeline of multi-value LPUSHes of up to redis.scheduleAll.chunkSize
+	 * each, so they are in queue in iteration order after a single round trip.  Those that fail to serialize are false
+	 * and the rest still scheduled, if redis rejects a chunk all in it are false.
+	 */
+	@Override
+	public boolean[] scheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		checkScheduleAll(queue, scheduledItems);
+		final boolean[] ret = new boolean[scheduledItems.size()];
+		// serialized values and their index in ret, skipping those that failed
+		final byte[][] values = new byte[ret.length][];
+		final int[] indexes = new int[ret.length];
+		final long now = System.currentTimeMillis();
+		int x = 0, count = 0;
+		for (final ScheduledItem<?> scheduledItem : scheduledItems) {
+			try {
+				values[count] = serialize(scheduledItem, now);
+				indexes[count++] = x;
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+			++x;
+		}
+		if (count == 0)
+			return ret;
+		final String key = queuePrefix + queue;
+		final byte[] keyBytes = SafeEncoder.encode(key);
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			final Pipeline p = jedis.pipelined();
+			final List<Response<Long>> responses = new ArrayList<Response<Long>>(count / scheduleAllChunkSize + 1);
+			for (int from = 0; from < count; from += scheduleAllChunkSize) {
+				final int to = Math.min(count, from + scheduleAllChunkSize);
+				if (debug) System.out.printf("redis>  LPUSH %s (%d items)\n", key, to - from);
+				responses.add(p.lpush(keyBytes, from == 0 && to == values.length ? values : Arrays.copyOfRange(values, from, to)));
+			}
+			ring(p, key, count);
+			p.sync();
+			for (int chunk = 0; chunk < responses.size(); ++chunk)
+				try {
+					if (responses.get(chunk).get() > 0)
+						for (int from = chunk * scheduleAllChunkSize, to = Math.min(count, from + scheduleAllChunkSize); from < to; ++from)
+							ret[indexes[from]] = true;
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			tryReturn(jedis);
+		}
+		releaseClaimChecks(values, indexes, count, ret);
+		return ret;
+	}
+
+	/**
+	 * Adds the serialized ScheduledItem to a sorted set scored by runAtMillis, RedisThread moves it into the queue
+	 * when it is due.
+	 */
+	@Override
+	protected <T> boolean scheduleDelayed(final String queue, final ScheduledItem<T> scheduledItem, final long runAtMillis) {
+		Jedis jedis = null;
+		byte[] serialized = null;
+		try {
+			final String delayedQueue = queuePrefix + queue + delayedQueueSuffix;
+			serialized = serialize(scheduledItem, runAtMillis);
+			final byte[] member = delayedMember(serialized);
+			if (debug) System.out.printf("redis>  ZADD %s %d \"%s\"\n", delayedQueue, runAtMillis, debugString(member));
+			jedis = pool.getResource();
+			if (jedis.zadd(SafeEncoder.encode(delayedQueue), runAtMillis, member) > 0)
+				return true;
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			tryReturn(jedis);
+		}
+		releaseClaimCheck(serialized);
+		return false;
+	}
+
+	/**
+	 * Sorted set members must be unique, but the same job may well be scheduled more than once, so each is prefixed by
+	 * random hex and a space, which RedisThread strips off when moving it to the queue
+	 */
+	protected static byte[] delayedMember(final byte[] scheduledItem) {
+		final byte[] prefix = (Long.toHexString(ThreadLocalRandom.current().nextLong()) + ' ').getBytes(StandardCharsets.US_ASCII);
+		final byte[] ret = Arrays.copyOf(prefix, prefix.length + scheduledItem.length);
+		System.arraycopy(scheduledItem, 0, ret, prefix.length, scheduledItem.length);
+		return ret;
+	}
+
+	/**
+	 * Defines, or replaces, a job that is scheduled in queue every time cron fires, in the system default time zone.
+	 * Processors check for due recurring jobs and each occurrence is scheduled exactly once no matter how many there
+	 * are, see RedisThread.  Occurrences missed while no processor was running are not made up, it is scheduled once
+	 * and then at the next time after that.
+	 *
+	 * @param name unique name of this recurring job, scheduling another with the same name replaces it
+	 * @param cron 5 field cron expression, see CronExpression
+	 * @return true if the definition was saved, false otherwise
+	 * @throws IllegalArgumentException if cron is invalid
+	 */
+	public <T> boolean scheduleRecurring(final String name, final String queue, final String cron, final Class<? extends BackgroundJob<T>> bgClass, final T dto) {
+		return scheduleRecurring(name, queue, cron, ZoneId.systemDefault(), bgClass, dto);
+	}
+
+	/**
+	 * Same as scheduleRecurring above, with cron evaluated in zone
+	 */
+	public <T> boolean scheduleRecurring(final String name, final String queue, final String cron, final ZoneId zone, final Class<? extends BackgroundJob<T>> bgClass, final T dto) {
+		if (name == null || queue == null || cron == null || zone == null || bgClass == null || dto == null)
+			throw new NullPointerException("No parameters can be null!");
+		final long next = CronExpression.parse(cron).next(System.currentTimeMillis(), zone);
 		Jedis jedis = null;
 		try {
-			final String scheduledItemString = om.writeValueAsString(scheduledItem);
-			if (debug) System.out.printf("redis>  LPUSH %s \"%s\"\n", queuePrefix + queue, scheduledItemString);
+			final String recurringJob = om.writeValueAsString(recurringJob(queue, cron, zone, codec.encode(new ScheduledItem<T>(bgClass, dto))));
+			if (debug) System.out.printf("redis>  MULTI\nredis>  HSET %s %s \"%s\"\nredis>  ZADD %s %d %s\nredis>  EXEC\n", recurringKey, name, recurringJob, recurringNextKey, next, name);
 			jedis = pool.getResource();
-			return jedis.lpush(queuePrefix + queue, scheduledItemString) > 0;
+			final Transaction t = jedis.multi();
+			t.hset(recurringKey, name, recurringJob);
+			t.zadd(recurringNextKey, next, name);
+			return t.exec() != null;
 		} catch (Throwable e) {
 			e.printStackTrace();
 			return false;
 		} finally {
-			if (jedis != null)
-				try {
-					pool.returnResource(jedis);
-				} catch (Throwable e) {
-					e.printStackTrace();
+			tryReturn(jedis);
+		}
+	}
+
+	/**
+	 * @return the definition scheduleRecurring stores, pushed onto a list each time it fires
+	 */
+	protected RecurringJob recurringJob(final String queue, final String cron, final ZoneId zone, final byte[] scheduledItem) {
+		return new RecurringJob(queue, cron, zone.getId(), scheduledItem);
+	}
+
+	/**
+	 * @return true if a recurring job named name existed and was removed
+	 */
+	public boolean removeRecurring(final String name) {
+		Jedis jedis = null;
+		try {
+			if (debug) System.out.printf("redis>  MULTI\nredis>  HDEL %s %s\nredis>  ZREM %s %s\nredis>  EXEC\n", recurringKey, name, recurringNextKey, name);
+			jedis = pool.getResource();
+			final Transaction t = jedis.multi();
+			final Response<Long> removed = t.hdel(recurringKey, name);
+			t.zrem(recurringNextKey, name);
+			t.exec();
+			return removed.get() > 0;
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	/**
+	 * @return future completing with true once redis has acknowledged the LPUSH, false if redis did not add it, or
+	 * exceptionally if serialization or talking to redis failed
+	 */
+	@Override
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final ScheduledItem<T> scheduledItem) {
+		if (queue == null || scheduledItem == null)
+			throw new NullPointerException("No parameters can be null!");
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		final byte[] serialized;
+		try {
+			// serialize now, in the caller's thread, so later changes to the dto can't affect what is scheduled
+			serialized = serialize(scheduledItem, System.currentTimeMillis());
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		try {
+			getAsyncExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final boolean pushed = lpush(queuePrefix + queue, serialized);
+						if (!pushed)
+							releaseClaimCheck(serialized);
+						future.complete(pushed);
+					} catch (Throwable e) {
+						releaseClaimCheck(serialized);
+						future.completeExceptionally(e);
+					}
 				}
+			});
+		} catch (Throwable e) {
+			// rejected, so it will never run to release it itself
+			releaseClaimCheck(serialized);
+			future.completeExceptionally(e);
 		}
+		return future;
+	}
+
+	/**
+	 * @param readyAtMillis when it can run, recorded in its Envelope if redis.envelope is true, and how long a payload
+	 *                      moved out by the ClaimCheck must be kept from
+	 */
+	protected byte[] serialize(final ScheduledItem<?> scheduledItem, final long readyAtMillis) throws IOException {
+		final byte[] ret = claimCheck.checkIn(codec.encode(scheduledItem), readyAtMillis);
+		return defaultEnvelope ? Envelope.wrap(readyAtMillis, 0, defaultProducerId, ret) : ret;
+	}
+
+	/**
+	 * Releases what serialized references, if it is a ClaimCheck reference, once redis failed to take it
+	 *
+	 * @param serialized as returned by serialize, or null if that failed
+	 */
+	protected void releaseClaimCheck(final byte[] serialized) {
+		if (serialized == null)
+			return;
+		final String id = ClaimCheck.id(serialized);
+		if (id != null)
+			claimCheck.release(id);
+	}
+
+	/**
+	 * releaseClaimCheck for each of the first count values whose index in scheduled is false, for scheduleAll
+	 */
+	protected void releaseClaimChecks(final byte[][] values, final int[] indexes, final int count, final boolean[] scheduled) {
+		for (int x = 0; x < count; ++x)
+			if (!scheduled[indexes[x]])
+				releaseClaimCheck(values[x]);
+	}
+
+	/**
+	 * @param serialized ScheduledItem, with or without an Envelope
+	 */
+	protected ScheduledItem deserialize(final byte[] serialized) throws IOException {
+		return decode(Envelope.parse(serialized));
+	}
+
+	/**
+	 * Decodes what is inside the Envelope, first redeeming it if it is a ClaimCheck reference
+	 */
+	protected ScheduledItem decode(final Envelope envelope) throws IOException {
+		final String claimCheckId = ClaimCheck.id(envelope.bytes, envelope.offset, envelope.length());
+		if (claimCheckId == null)
+			return codec.decode(envelope.bytes, envelope.offset, envelope.length());
+		final byte[] payload = claimCheck.redeem(claimCheckId);
+		return codec.decode(payload, 0, payload.length);
+	}
+
+	/**
+	 * @return bytes as text for debug statements, only readable with text codecs like json
+	 */
+	public static String debugString(final byte[] bytes) {
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	protected boolean lpush(final String queue, final byte[] serialized) {
+		Jedis jedis = null;
+		try {
+			if (debug) System.out.printf("redis>  LPUSH %s \"%s\"\n", queue, debugString(serialized));
+			jedis = pool.getResource();
+			if (!defaultDoorbell)
+				return jedis.lpush(SafeEncoder.encode(queue), serialized) > 0;
+			final Pipeline p = jedis.pipelined();
+			final Response<Long> ret = p.lpush(SafeEncoder.encode(queue), serialized);
+			ring(p, queue, 1);
+			p.sync();
+			return ret.get() > 0;
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	private static final byte[] doorbellToken = SafeEncoder.encode("1");
+
+	/**
+	 * If redis.doorbell is true, pushes a token per job, up to redis.doorbellSize, onto queue + redis.doorbellSuffix,
+	 * for processors waiting on more than one queue at once, which can only do that on their doorbells
+	 */
+	protected static void ring(final Pipeline p, final String queue, final int jobs) {
+		if (!defaultDoorbell || jobs < 1)
+			return;
+		final int size = Math.max(1, defaultDoorbellSize);
+		final byte[] doorbell = SafeEncoder.encode(queue + defaultDoorbellSuffix);
+		final byte[][] tokens = new byte[Math.min(jobs, size)][];
+		Arrays.fill(tokens, doorbellToken);
+		if (debug) System.out.printf("redis>  LPUSH %s%s (%d tokens)\nredis>  LTRIM %s%s 0 %d\n", queue, defaultDoorbellSuffix, tokens.length, queue, defaultDoorbellSuffix, size - 1);
+		p.lpush(doorbell, tokens);
+		p.ltrim(doorbell, 0, size - 1);
+	}
+
+	private ExecutorService getAsyncExecutor() {
+		ExecutorService ret = asyncExecutor;
+		if (ret == null)
+			synchronized (this) {
+				ret = asyncExecutor;
+				if (ret == null) {
+					final ThreadPoolExecutor executor = new ThreadPoolExecutor(defaultAsyncThreads, defaultAsyncThreads,
+							60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(defaultAsyncQueueCapacity), new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread = new Thread(r, "RedisScheduler-async");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+					executor.allowCoreThreadTimeOut(true);
+					asyncExecutor = ret = executor;
+				}
+			}
+		return ret;
+	}
+
+	public final void tryReturn(final Jedis jedis) {
+		if (jedis != null)
+			try {
+				pool.returnResource(jedis);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		final ExecutorService asyncExecutor = this.asyncExecutor;
+		if (asyncExecutor != null)
+			asyncExecutor.shutdown();
 	}
 
 	@Override
 	@SuppressWarnings({"unchecked"})
 	public <T> T testSerialization(final T t) throws IOException {
-		final String singleton = om.writeValueAsString(new ScheduledItem<T>(null, t));
-		System.out.printf("singleton: '%s', dto.getClass: '%s'", singleton, t.getClass());
-		final ScheduledItem<T> singletonCol = (ScheduledItem<T>) om.readValue(singleton, ScheduledItem.class);
+		final byte[] singleton = codec.encode(new ScheduledItem<T>(null, t));
+		System.out.printf("singleton: '%s', dto.getClass: '%s'", debugString(singleton), t.getClass());
+		final ScheduledItem<T> singletonCol = (ScheduledItem<T>) codec.decode(singleton, 0, singleton.length);
 		System.out.printf(", singletonCol: '%s', dto.getClass: '%s'", singletonCol, singletonCol.getDto().getClass());
 		if (singletonCol.getDto() instanceof Collection)
 			for (Object ob : ((Collection) singletonCol.getDto()))
@@ -0,0 +1,176 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.SafeEncoder;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This implementation of RedisScheduler adds jobs to a redis stream (needs redis 6.2 or later) instead of a list, to be
+ * processed by RedisStreamThread with a consumer group, so any number of consumers share one queue, each reading many
+ * jobs per round trip and acknowledging them in O(1), with jobs of consumers that died reclaimed by the others.
+ * <p/>
+ * A queue is either a list or a stream, don't mix this with the other RedisSchedulers or RedisThreads on the same one.
+ * <p/>
+ * XREADGROUP can't block inside a Lua script, which is the only way to send stream commands with this version of Jedis,
+ * so along with each XADD a token is pushed to a doorbell list, queue + redis.doorbellSuffix, holding at most
+ * redis.doorbellSize of them, which idle consumers wait on with BRPOP.  That is always on here, whatever redis.doorbell is.
+ * <p/>
+ * Delayed jobs go in the same sorted set as with RedisScheduler, and RedisStreamThread XADDs them once due, recurring
+ * jobs are stored with stream set so whichever processor fires them XADDs them too.
+ */
+public class RedisStreamScheduler extends RedisScheduler {
+
+	/**
+	 * field each job is stored under in its stream entry
+	 */
+	public static final String field = "j";
+
+	/**
+	 * KEYS[1] stream, KEYS[2] doorbell, ARGV[1] doorbell size, ARGV[2...] jobs
+	 * <p>
+	 * XADDs each job, then rings the doorbell once per job, up to its size, returning the number of jobs added
+	 */
+	public static final LuaScript addScript = new LuaScript(
+			"for i = 2, #ARGV do\n" +
+			"	redis.call('XADD', KEYS[1], '*', '" + field + "', ARGV[i])\n" +
+			"end\n" +
+			"local size = tonumber(ARGV[1])\n" +
+			"local rings = {}\n" +
+			"for i = 1, math.min(#ARGV - 1, size) do\n" +
+			"	rings[i] = '1'\n" +
+			"end\n" +
+			"if #rings > 0 then\n" +
+			"	redis.call('LPUSH', KEYS[2], unpack(rings))\n" +
+			"	redis.call('LTRIM', KEYS[2], 0, size - 1)\n" +
+			"end\n" +
+			"return #ARGV - 1");
+
+	protected final String doorbellSuffix = defaultDoorbellSuffix;
+	protected final byte[] doorbellSize = SafeEncoder.encode(Integer.toString(Math.max(1, defaultDoorbellSize)));
+
+	public RedisStreamScheduler() {
+		this(null, null);
+	}
+
+	public RedisStreamScheduler(JedisPool pool) {
+		this(null, pool);
+	}
+
+	public RedisStreamScheduler(String queuePrefix) {
+		this(queuePrefix, null);
+	}
+
+	public RedisStreamScheduler(String queuePrefix, JedisPool pool) {
+		this(queuePrefix, pool, null);
+	}
+
+	public RedisStreamScheduler(String queuePrefix, JedisPool pool, Codec codec) {
+		this(queuePrefix, pool, codec, null);
+	}
+
+	public RedisStreamScheduler(String queuePrefix, JedisPool pool, Codec codec, ClaimCheck claimCheck) {
+		super(queuePrefix, pool, codec, claimCheck);
+	}
+
+	/**
+	 * XADDs instead, so schedule and scheduleAsync add to the stream
+	 */
+	@Override
+	protected boolean lpush(final String queue, final byte[] serialized) {
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			return xadd(jedis, queue, Arrays.asList(serialized)) > 0;
+		} finally {
+			tryReturn(jedis);
+		}
+	}
+
+	/**
+	 * Serializes each, then adds them with one script call per redis.scheduleAll.chunkSize jobs.  Those that fail to
+	 * serialize are false and the rest still scheduled, if redis rejects a chunk all in it are false.
+	 */
+	@Override
+	public boolean[] scheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		checkScheduleAll(queue, scheduledItems);
+		final boolean[] ret = new boolean[scheduledItems.size()];
+		final List<byte[]> values = new ArrayList<byte[]>(ret.length);
+		final int[] indexes = new int[ret.length];
+		final long now = System.currentTimeMillis();
+		int x = 0;
+		for (final ScheduledItem<?> scheduledItem : scheduledItems) {
+			try {
+				values.add(serialize(scheduledItem, now));
+				indexes[values.size() - 1] = x;
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+			++x;
+		}
+		final String key = queuePrefix + queue;
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			for (int from = 0; from < values.size(); from += scheduleAllChunkSize) {
+				final int to = Math.min(values.size(), from + scheduleAllChunkSize);
+				try {
+					if (xadd(jedis, key, values.subList(from, to)) > 0)
+						for (int y = from; y < to; ++y)
+							ret[indexes[y]] = true;
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			tryReturn(jedis);
+		}
+		releaseClaimChecks(values.toArray(new byte[values.size()][]), indexes, values.size(), ret);
+		return ret;
+	}
+
+	/**
+	 * @return number of jobs added
+	 */
+	protected long xadd(final Jedis jedis, final String stream, final List<byte[]> serialized) {
+		if (debug) System.out.printf("redis>  XADD %s * %s (%d items)\n", stream, field, serialized.size());
+		final List<byte[]> args = new ArrayList<byte[]>(serialized.size() + 1);
+		args.add(doorbellSize);
+		args.addAll(serialized);
+		return (Long) addScript.evalBinary(jedis, Arrays.asList(SafeEncoder.encode(stream), SafeEncoder.encode(stream + doorbellSuffix)), args);
+	}
+
+	/**
+	 * @return a RecurringJob that is XADDed to its stream, ringing the doorbell, each time it fires
+	 */
+	@Override
+	protected RecurringJob recurringJob(final String queue, final String cron, final ZoneId zone, final byte[] scheduledItem) {
+		return new RecurringJob(queue, cron, zone.getId(), scheduledItem, true);
+	}
+}
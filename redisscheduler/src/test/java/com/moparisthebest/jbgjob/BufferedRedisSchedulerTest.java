@@ -0,0 +1,72 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.concurrent.TimeUnit;
+
+public class BufferedRedisSchedulerTest extends AbstractSchedulerTests {
+
+	@BeforeClass
+	public static void setUp() throws Throwable {
+		bg = new BufferedRedisScheduler();
+	}
+
+	@Test
+	public void testFlush() throws Throwable {
+		Assert.assertTrue(bg.schedule(PrintingJob.class, new PrintDTO("buffered")));
+		Assert.assertTrue(((BufferedRedisScheduler) bg).flush().get(30, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testDroppedWhenFull() throws Throwable {
+		// long linger so nothing is sent, and nothing listening on port 1 in case it is
+		final BufferedRedisScheduler scheduler = new BufferedRedisScheduler(null, new JedisPool(new JedisPoolConfig(), "localhost", 1), null, 1, 1000, 60000);
+		try {
+			Assert.assertFalse(scheduler.schedule(PrintingJob.class, new PrintDTO("too big")));
+			Assert.assertFalse(scheduler.scheduleAsync(PrintingJob.class, new PrintDTO("too big")).get(30, TimeUnit.SECONDS));
+			Assert.assertEquals(2, scheduler.getDropped());
+			Assert.assertEquals(0, scheduler.getBuffered());
+		} finally {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testDroppedWhenRedisDown() throws Throwable {
+		final BufferedRedisScheduler scheduler = new BufferedRedisScheduler(null, new JedisPool(new JedisPoolConfig(), "localhost", 1), null, 1024 * 1024, 1000, 60000);
+		try {
+			Assert.assertTrue(scheduler.schedule(PrintingJob.class, new PrintDTO("lost")));
+			Assert.assertEquals(1, scheduler.getBuffered());
+			Assert.assertFalse(scheduler.flush().get(30, TimeUnit.SECONDS));
+			Assert.assertEquals(1, scheduler.getDropped());
+			Assert.assertEquals(0, scheduler.getBufferedBytes());
+		} finally {
+			scheduler.close();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ClaimCheckTest {
+
+	@Test
+	public void testClaimCheck() throws Throwable {
+		final File dir = Files.createTempDirectory("claimcheck").toFile();
+		final ClaimCheck claimCheck = new ClaimCheck(new FileBlobStore(dir), 1000);
+		final RedisScheduler scheduler = new RedisScheduler(null, null, null, claimCheck);
+		try {
+			final char[] message = new char[2000];
+			Arrays.fill(message, 'a');
+
+			final byte[] small = scheduler.serialize(new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO("small")), 0);
+			Assert.assertNull(ClaimCheck.id(small));
+			Assert.assertEquals(0, dir.list().length);
+
+			final byte[] big = scheduler.serialize(new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO(new String(message))), 0);
+			Assert.assertTrue(big.length < 100);
+			final String id = ClaimCheck.id(big);
+			Assert.assertNotNull(id);
+			Assert.assertArrayEquals(new String[]{id}, dir.list());
+			Assert.assertEquals(new String(message), ((PrintDTO) scheduler.deserialize(big).dto).getMessage());
+			// also when it's inside an envelope
+			Assert.assertEquals(new String(message), ((PrintDTO) scheduler.deserialize(Envelope.wrap(0, 0, "producer", big)).dto).getMessage());
+
+			claimCheck.release(id);
+			Assert.assertEquals(0, dir.list().length);
+			try {
+				scheduler.deserialize(big);
+				Assert.fail("released claim check should not be found");
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			scheduler.close();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testReleasedWhenRedisFails() throws Throwable {
+		final File dir = Files.createTempDirectory("claimcheck").toFile();
+		// nothing listens on port 1
+		final RedisScheduler scheduler = new RedisScheduler(null, new JedisPool(new JedisPoolConfig(), "localhost", 1), null, new ClaimCheck(new FileBlobStore(dir), 1));
+		try {
+			Assert.assertFalse(scheduler.schedule(PrintingJob.class, new PrintDTO("now")));
+			Assert.assertFalse(scheduler.schedule("default", PrintingJob.class, new PrintDTO("later"), Instant.now().plusSeconds(60)));
+			Assert.assertFalse(scheduler.scheduleAll(PrintingJob.class, Arrays.asList(new PrintDTO("all")))[0]);
+			Assert.assertEquals(0, dir.list().length);
+		} finally {
+			scheduler.close();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testReleasedWhenAsyncRejected() throws Throwable {
+		final File dir = Files.createTempDirectory("claimcheck").toFile();
+		final RedisScheduler scheduler = new RedisScheduler(null, new JedisPool(new JedisPoolConfig(), "localhost", 1), null, new ClaimCheck(new FileBlobStore(dir), 1));
+		try {
+			// starts the async executor, which then rejects everything once closed
+			try {
+				scheduler.scheduleAsync(PrintingJob.class, new PrintDTO("started")).get();
+			} catch (ExecutionException e) {
+				// nothing listens on port 1
+			}
+			scheduler.close();
+			final CompletableFuture<Boolean> rejected = scheduler.scheduleAsync(PrintingJob.class, new PrintDTO("rejected"));
+			try {
+				rejected.get();
+				Assert.fail("should have been rejected");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			Assert.assertEquals(0, dir.list().length);
+		} finally {
+			scheduler.close();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testRedisBlobStoreKeptUntilNeeded() throws Throwable {
+		final JedisPool pool = new JedisPool("localhost");
+		final RedisBlobStore store = new RedisBlobStore(pool, "ClaimCheckTest-blob:", 60);
+		final Jedis jedis = pool.getResource();
+		String now = null, delayed = null;
+		try {
+			now = store.put(new byte[]{1}, System.currentTimeMillis());
+			delayed = store.put(new byte[]{1}, System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+			final long nowTtl = jedis.ttl("ClaimCheckTest-blob:" + now), delayedTtl = jedis.ttl("ClaimCheckTest-blob:" + delayed);
+			Assert.assertTrue("ttl: " + nowTtl, nowTtl > 0 && nowTtl <= 60);
+			// the usual ttl counts from when it runs, not when it was scheduled
+			Assert.assertTrue("ttl: " + delayedTtl, delayedTtl > TimeUnit.DAYS.toSeconds(1) && delayedTtl <= TimeUnit.DAYS.toSeconds(1) + 61);
+		} finally {
+			if (now != null)
+				store.delete(now);
+			if (delayed != null)
+				store.delete(delayed);
+			pool.returnResource(jedis);
+			pool.destroy();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidId() throws Throwable {
+		new FileBlobStore(new File("unused")).get("../secret");
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintDTOChild;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class CodecTest {
+
+	private static final String[] codecs = {"json", "smile", "cbor", "compact"};
+
+	@Test
+	public void testRoundTrip() throws Throwable {
+		for (final String name : codecs) {
+			final Codec codec = RedisScheduler.codec(name);
+			roundTrip(codec, new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO("codec " + name)));
+			roundTrip(codec, new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTOChild()));
+			roundTrip(codec, new ScheduledItem<Object>(null, new RedisSchedulerTest.JacksonTest(Arrays.asList(new RedisSchedulerTest.InList(1L), new RedisSchedulerTest.InList(2L)))));
+		}
+	}
+
+	@Test
+	public void testInEnvelope() throws Throwable {
+		for (final String name : codecs) {
+			final RedisScheduler scheduler = new RedisScheduler(null, null, RedisScheduler.codec(name));
+			final byte[] encoded = scheduler.codec.encode(new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO("envelope " + name)));
+			final ScheduledItem decoded = scheduler.deserialize(Envelope.wrap(System.currentTimeMillis(), 0, "producer", encoded));
+			Assert.assertEquals(PrintingJob.class, decoded.bgClass);
+			Assert.assertEquals("envelope " + name, ((PrintDTO) decoded.dto).getMessage());
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testCompactIsSmaller() throws Throwable {
+		final ScheduledItem<Object> scheduledItem = new ScheduledItem<Object>(null, new RedisSchedulerTest.JacksonTest(Arrays.asList(new RedisSchedulerTest.InList(1L), new RedisSchedulerTest.InList(2L))));
+		Assert.assertTrue(RedisScheduler.codec("compact").encode(scheduledItem).length < RedisScheduler.codec("json").encode(scheduledItem).length);
+	}
+
+	@Test
+	public void testCompressing() throws Throwable {
+		final char[] message = new char[2000];
+		Arrays.fill(message, 'a');
+		final ScheduledItem<PrintDTO> big = new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO(new String(message)));
+		final ScheduledItem<PrintDTO> small = new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO("small"));
+		for (final String name : codecs) {
+			final Codec codec = RedisScheduler.codec(name);
+			final CompressingCodec compressing = new CompressingCodec(codec, 1000), off = new CompressingCodec(codec, 0);
+			roundTrip(compressing, big);
+			roundTrip(compressing, small);
+			final byte[] compressed = compressing.encode(big);
+			Assert.assertEquals(name, CompressingCodec.marker, compressed[0]);
+			Assert.assertTrue(name, compressed.length < codec.encode(big).length);
+			Assert.assertArrayEquals(name, codec.encode(small), compressing.encode(small));
+			Assert.assertArrayEquals(name, codec.encode(big), off.encode(big));
+			// turning compression off must not stop anything from reading what was already compressed
+			Assert.assertEquals(name, big.dto.getMessage(), ((PrintDTO) off.decode(compressed, 0, compressed.length).dto).getMessage());
+		}
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void testCompressedTruncated() throws Throwable {
+		final char[] message = new char[2000];
+		Arrays.fill(message, 'a');
+		final CompressingCodec codec = new CompressingCodec(RedisScheduler.codec("json"), 1);
+		final byte[] compressed = codec.encode(new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO(new String(message))));
+		codec.decode(compressed, 0, compressed.length - 5);
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void testCompressedTooLong() throws Throwable {
+		// header claims 2GB, which must be refused before allocating anything
+		new CompressingCodec(RedisScheduler.codec("json"), 1).decode(new byte[]{CompressingCodec.marker, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0}, 0, 6);
+	}
+
+	@Test
+	public void testCompressedMaxLength() throws Throwable {
+		final char[] message = new char[2000];
+		Arrays.fill(message, 'a');
+		final CompressingCodec codec = new CompressingCodec(RedisScheduler.codec("json"), 1);
+		final byte[] compressed = codec.encode(new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO(new String(message))));
+		try {
+			new CompressingCodec(codec.codec, 1, CompressingCodec.defaultLevel, 1000).decode(compressed, 0, compressed.length);
+			Assert.fail("should have thrown IOException");
+		} catch (java.io.IOException e) {
+			// expected
+		}
+		Assert.assertEquals(2000, ((PrintDTO) codec.decode(compressed, 0, compressed.length).dto).getMessage().length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknown() throws Throwable {
+		RedisScheduler.codec("nope");
+	}
+
+	private static void roundTrip(final Codec codec, final ScheduledItem<?> scheduledItem) throws Throwable {
+		final byte[] encoded = codec.encode(scheduledItem);
+		Assert.assertNotEquals(codec + " can't start with the envelope marker", Envelope.marker, encoded[0]);
+		final ScheduledItem<?> decoded = codec.decode(encoded, 0, encoded.length);
+		Assert.assertEquals(codec.toString(), scheduledItem.bgClass, decoded.bgClass);
+		Assert.assertEquals(codec.toString(), scheduledItem.dto.getClass(), decoded.dto.getClass());
+		if (scheduledItem.dto instanceof PrintDTO) {
+			// its toString has an identity hash in it
+			Assert.assertEquals(codec.toString(), ((PrintDTO) scheduledItem.dto).getMessage(), ((PrintDTO) decoded.dto).getMessage());
+			Assert.assertEquals(codec.toString(), ((PrintDTO) scheduledItem.dto).getSleep(), ((PrintDTO) decoded.dto).getSleep());
+		} else {
+			Assert.assertEquals(codec.toString(), scheduledItem.dto.toString(), decoded.dto.toString());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class EnvelopeTest {
+
+	@Test
+	public void testRoundTrip() throws Throwable {
+		final byte[] json = "{\"bgClass\":\"PrintingJob\",\"dto\":\"line one\\nline two\"}".getBytes(StandardCharsets.UTF_8);
+		final byte[] wrapped = Envelope.wrap(1234567890123L, 2, "1234@host name", json);
+		final Envelope envelope = Envelope.parse(wrapped);
+		Assert.assertEquals(1234567890123L, envelope.enqueuedAt);
+		Assert.assertEquals(2, envelope.attempt);
+		Assert.assertEquals("1234@host name", envelope.producer);
+		Assert.assertArrayEquals(json, envelope.getScheduledItem());
+		Assert.assertEquals(json.length, envelope.length());
+		Assert.assertArrayEquals(wrapped, envelope.wrap());
+	}
+
+	@Test
+	public void testBare() throws Throwable {
+		final byte[] json = "{\"bgClass\":\"PrintingJob\"}".getBytes(StandardCharsets.UTF_8);
+		final Envelope envelope = Envelope.parse(json);
+		Assert.assertEquals(-1, envelope.enqueuedAt);
+		Assert.assertNull(envelope.producer);
+		Assert.assertEquals(0, envelope.offset);
+		Assert.assertSame(json, envelope.getScheduledItem());
+		Assert.assertSame(json, envelope.wrap());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMalformed() throws Throwable {
+		Envelope.parse(("\u0001notanumber 0 producer\n{}").getBytes(StandardCharsets.UTF_8));
+	}
+}
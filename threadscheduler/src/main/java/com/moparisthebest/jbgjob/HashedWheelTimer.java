@@ -0,0 +1,335 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel holding delayed ScheduledItems until they are due, for large numbers of short timers like
+ * retries and timeouts, where the O(log n) heap of a ScheduledThreadPoolExecutor gets expensive.
+ * <p/>
+ * Adding and cancelling a Timeout are O(1) and lock free, they are only queued for the single worker thread, which
+ * every tick moves them into or out of their bucket, then hands everything due in the current bucket to the Expiry
+ * in one batch.  Timeouts fire up to one tick late, never early.
+ */
+public class HashedWheelTimer {
+
+	public static final int defaultTickMillis = ScheduledItemExecutor.getIntSystemProperty("scheduler.timer.tickMillis", 10);
+	public static final int defaultTicksPerWheel = ScheduledItemExecutor.getIntSystemProperty("scheduler.timer.ticksPerWheel", 512);
+
+	// most timeouts moved from pending into the wheel per tick, so a flood of new ones can't stall expiry
+	private static final int maxTransferPerTick = 100000;
+
+	private static final int INIT = 0, CANCELLED = 1, EXPIRED = 2;
+
+	/**
+	 * Receives each tick's due timeouts, called from the worker thread, so it should be quick
+	 */
+	public interface Expiry {
+		public void expired(final List<Timeout> due);
+	}
+
+	private final Expiry expiry;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	// only touched by the worker thread, or after it has been joined
+	private final List<Timeout> unprocessed = new ArrayList<Timeout>();
+	private long tick = 0;
+
+	private final long startTime;
+	private final Thread thread;
+	private volatile boolean stopped = false;
+
+	public HashedWheelTimer(final Expiry expiry) {
+		this(expiry, defaultTickMillis, TimeUnit.MILLISECONDS, defaultTicksPerWheel);
+	}
+
+	/**
+	 * @param tickDuration  resolution of the timer
+	 * @param ticksPerWheel number of buckets, rounded up to a power of 2, timeouts further out than a full turn of
+	 *                      the wheel just wait a number of rounds in their bucket
+	 */
+	public HashedWheelTimer(final Expiry expiry, final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+		if (expiry == null)
+			throw new NullPointerException("expiry cannot be null!");
+		if (tickDuration <= 0 || ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("tickDuration and ticksPerWheel must be greater than 0, ticksPerWheel at most 2^30");
+		this.expiry = expiry;
+		this.tickNanos = unit.toNanos(tickDuration);
+		int size = 1;
+		while (size < ticksPerWheel)
+			size <<= 1;
+		this.wheel = new Bucket[size];
+		for (int x = 0; x < size; ++x)
+			this.wheel[x] = new Bucket();
+		this.mask = size - 1;
+		this.startTime = System.nanoTime();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "HashedWheelTimer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * @return handle to cancel the timeout with
+	 * @throws IllegalStateException if this has been stopped
+	 */
+	public Timeout newTimeout(final String queue, final ScheduledItem<?> scheduledItem, final long delay, final TimeUnit unit) {
+		if (stopped)
+			throw new IllegalStateException("HashedWheelTimer has been stopped");
+		final Timeout ret = new Timeout(this, queue, scheduledItem, System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startTime);
+		pending.add(ret);
+		// stop() may have come in between, after the worker last drained pending, so nobody would ever see it
+		if (stopped && pending.remove(ret))
+			throw new IllegalStateException("HashedWheelTimer has been stopped");
+		return ret;
+	}
+
+	/**
+	 * Stops the worker thread, nothing expires after this returns
+	 *
+	 * @return timeouts that were neither expired nor cancelled
+	 */
+	public List<Timeout> stop() {
+		stopped = true;
+		thread.interrupt();
+		boolean interrupted = false;
+		while (thread.isAlive())
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return unprocessed;
+	}
+
+	private void work() {
+		List<Timeout> due = new ArrayList<Timeout>();
+		long now;
+		while ((now = waitForNextTick()) >= 0) {
+			removeCancelled();
+			transferPending();
+			final List<Timeout> early = wheel[(int) (tick & mask)].expire(now, due);
+			++tick;
+			// never fired early, so back in the wheel to wait for their deadline
+			for (final Timeout timeout : early)
+				place(timeout);
+			if (!due.isEmpty()) {
+				try {
+					expiry.expired(due);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+				due = new ArrayList<Timeout>();
+			}
+		}
+		for (final Bucket bucket : wheel)
+			bucket.drain(unprocessed);
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null)
+			if (timeout.state.get() == INIT)
+				unprocessed.add(timeout);
+	}
+
+	/**
+	 * @return nanos since startTime at the end of the current tick, or -1 if stopped
+	 */
+	private long waitForNextTick() {
+		final long deadline = tickNanos * (tick + 1);
+		while (true) {
+			if (stopped)
+				return -1;
+			final long now = System.nanoTime() - startTime;
+			final long sleepMillis = (deadline - now + 999999) / 1000000;
+			if (sleepMillis <= 0)
+				return now;
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				// stop() wakes us up, checked above
+			}
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null)
+			if (timeout.bucket != null)
+				timeout.bucket.remove(timeout);
+	}
+
+	private void transferPending() {
+		for (int x = 0; x < maxTransferPerTick; ++x) {
+			final Timeout timeout = pending.poll();
+			if (timeout == null)
+				return;
+			if (timeout.state.get() == INIT)
+				place(timeout);
+		}
+	}
+
+	/**
+	 * Adds timeout to the bucket its deadline falls in, or the current one if that has already passed
+	 */
+	private void place(final Timeout timeout) {
+		final long calculated = timeout.deadline / tickNanos;
+		timeout.remainingRounds = Math.max(0, calculated - tick) / wheel.length;
+		wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+	}
+
+	/**
+	 * A delayed ScheduledItem waiting in the timer
+	 */
+	public static final class Timeout {
+		private final HashedWheelTimer timer;
+		public final String queue;
+		public final ScheduledItem<?> scheduledItem;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(INIT);
+		// all only touched by the worker thread
+		private long remainingRounds;
+		private Timeout next, prev;
+		private Bucket bucket;
+
+		private Timeout(final HashedWheelTimer timer, final String queue, final ScheduledItem<?> scheduledItem, final long deadline) {
+			this.timer = timer;
+			this.queue = queue;
+			this.scheduledItem = scheduledItem;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * The ScheduledItem's ExecutionResult is not told, it is as if it was never scheduled
+		 *
+		 * @return true if this cancelled it, false if it was already expired or cancelled
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(INIT, CANCELLED))
+				return false;
+			timer.cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		@Override
+		public String toString() {
+			return "Timeout{" +
+					"queue='" + queue + '\'' +
+					", scheduledItem=" + scheduledItem +
+					", state=" + state +
+					'}';
+		}
+	}
+
+	/**
+	 * Doubly linked list of timeouts, only touched by the worker thread
+	 */
+	private static final class Bucket {
+		private Timeout head, tail;
+
+		private void add(final Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		private void remove(final Timeout timeout) {
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			if (timeout == head)
+				head = timeout.next;
+			if (timeout == tail)
+				tail = timeout.prev;
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		/**
+		 * Adds the timeouts that are due to due
+		 *
+		 * @return those in their last round that still aren't due, removed from this bucket to be placed again
+		 */
+		private List<Timeout> expire(final long now, final List<Timeout> due) {
+			List<Timeout> early = Collections.emptyList();
+			Timeout timeout = head;
+			while (timeout != null) {
+				final Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if (timeout.deadline > now) {
+						if (timeout.state.get() == INIT) {
+							if (early.isEmpty())
+								early = new ArrayList<Timeout>();
+							early.add(timeout);
+						}
+					} else if (timeout.state.compareAndSet(INIT, EXPIRED)) {
+						due.add(timeout);
+					}
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					--timeout.remainingRounds;
+				}
+				timeout = next;
+			}
+			return early;
+		}
+
+		private void drain(final List<Timeout> unprocessed) {
+			Timeout timeout;
+			while ((timeout = head) != null) {
+				remove(timeout);
+				if (timeout.state.get() == INIT)
+					unprocessed.add(timeout);
+			}
+		}
+	}
+}
@@ -20,20 +20,79 @@
 
 package com.moparisthebest.jbgjob;
 
+import com.moparisthebest.jbgjob.result.FutureExecutionResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * This implementation of Scheduler has a thread pool with a configurable number of threads (default 5) with which to process the DTO inside this JVM.
  * <p/>
- * This implementation ignores 'queue', all Jobs are put in the same queue.
+ * Each queue has its own bounded backlog, and jobs from queues with waiting work share the thread pool according to
+ * their weight, see WeightedFairDispatcher, so a flood of jobs in one queue doesn't starve the others.
+ * <p/>
+ * Delayed jobs wait in a HashedWheelTimer, started the first time one is scheduled, and go to the back of their queue
+ * once they are due.
  */
 public class ThreadScheduler extends AbstractScheduler {
 
-	private static final ScheduledItemExecutor executor = new ScheduledItemExecutor(false);
+	private final WeightedFairDispatcher dispatcher;
+	private volatile HashedWheelTimer timer;
+	// guarded by this, so no timer is started once close has stopped the last one
+	private boolean closed = false;
+
+	public ThreadScheduler() {
+		this((Map<String, WeightedFairDispatcher.QueueConfig>) null);
+	}
+
+	/**
+	 * @param queues per queue configuration, any queue not in here is configured by system properties
+	 */
+	public ThreadScheduler(final Map<String, WeightedFairDispatcher.QueueConfig> queues) {
+		this(ScheduledItemExecutor.create(true), queues);
+	}
+
+	/**
+	 * @param executor shared by all queues, should block when saturated, ThreadScheduler closes it when closed
+	 * @param queues   per queue configuration, any queue not in here is configured by system properties
+	 */
+	public ThreadScheduler(final ScheduledItemExecutor executor, final Map<String, WeightedFairDispatcher.QueueConfig> queues) {
+		this.dispatcher = new WeightedFairDispatcher(executor, queues);
+	}
 
 	@Override
 	public <T> boolean schedule(final String queue, final ScheduledItem<T> scheduledItem) {
 		super.schedule(queue, scheduledItem);
 		try {
-			executor.execute(scheduledItem);
+			return dispatcher.offer(queue, scheduledItem);
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * All are added to the queue at once, those that don't fit are false
+	 */
+	@Override
+	public boolean[] scheduleAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		checkScheduleAll(queue, scheduledItems);
+		try {
+			return dispatcher.offerAll(queue, scheduledItems);
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return new boolean[scheduledItems.size()];
+		}
+	}
+
+	@Override
+	protected <T> boolean scheduleDelayed(final String queue, final ScheduledItem<T> scheduledItem, final long runAtMillis) {
+		try {
+			schedule(queue, scheduledItem, runAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
 			return true;
 		} catch (Throwable e) {
 			e.printStackTrace();
@@ -41,14 +100,92 @@ public class ThreadScheduler extends AbstractScheduler {
 		}
 	}
 
+	/**
+	 * This schedules a DTO to be processed by an instance of a particular BackgroundJob in the specified queue after
+	 * delay has passed.
+	 *
+	 * @return handle to cancel it before it is due
+	 * @throws IllegalStateException if this has been closed
+	 */
+	public <T> HashedWheelTimer.Timeout schedule(final String queue, final Class<? extends BackgroundJob<T>> bgClass, final T dto, final long delay, final TimeUnit unit) {
+		if (queue == null || bgClass == null || dto == null || unit == null)
+			throw new NullPointerException("No parameters can be null!");
+		return schedule(queue, new ScheduledItem<T>(bgClass, dto), delay, unit);
+	}
+
+	/**
+	 * This schedules a ScheduledItem in the specified queue after delay has passed.  If its queue is full when it is
+	 * due, it is rejected, which its ExecutionResult is told about.
+	 *
+	 * @return handle to cancel it before it is due
+	 * @throws IllegalStateException if this has been closed
+	 */
+	public <T> HashedWheelTimer.Timeout schedule(final String queue, final ScheduledItem<T> scheduledItem, final long delay, final TimeUnit unit) {
+		if (queue == null || scheduledItem == null || unit == null)
+			throw new NullPointerException("No parameters can be null!");
+		return getTimer().newTimeout(queue, scheduledItem, delay, unit);
+	}
+
+	private HashedWheelTimer getTimer() {
+		HashedWheelTimer ret = timer;
+		if (ret == null)
+			synchronized (this) {
+				if (closed)
+					throw new IllegalStateException("ThreadScheduler has been closed");
+				if ((ret = timer) == null)
+					timer = ret = new HashedWheelTimer(new HashedWheelTimer.Expiry() {
+						@Override
+						public void expired(final List<HashedWheelTimer.Timeout> due) {
+							for (final HashedWheelTimer.Timeout timeout : due)
+								try {
+									if (!dispatcher.offer(timeout.queue, timeout.scheduledItem))
+										timeout.scheduledItem.rejected(new RejectedExecutionException("queue '" + timeout.queue + "' full when delayed job was due"));
+								} catch (Throwable e) {
+									timeout.scheduledItem.rejected(e);
+								}
+						}
+					});
+			}
+		return ret;
+	}
+
+	/**
+	 * @return future completing with true when the job finishes successfully, false if its queue was full, or
+	 * exceptionally with whatever it threw
+	 */
+	@Override
+	public <T> CompletableFuture<Boolean> scheduleAsync(final String queue, final ScheduledItem<T> scheduledItem) {
+		if (queue == null || scheduledItem == null)
+			throw new NullPointerException("No parameters can be null!");
+		final FutureExecutionResult result = new FutureExecutionResult();
+		try {
+			if (!dispatcher.offer(queue, scheduledItem.withResult(result)))
+				result.getFuture().complete(false);
+		} catch (Throwable e) {
+			result.error(e);
+		}
+		return result.getFuture();
+	}
+
 	@Override
 	public <T> T testSerialization(final T t) {
 		return t; // do nothing here
 	}
 
+	/**
+	 * Jobs already scheduled still run, after which the thread pool is shut down, delayed jobs not yet due are rejected
+	 */
 	@Override
 	public void close() {
 		super.close();
-		executor.close();
+		final HashedWheelTimer timer;
+		synchronized (this) {
+			closed = true;
+			timer = this.timer;
+		}
+		if (timer != null)
+			for (final HashedWheelTimer.Timeout timeout : timer.stop())
+				timeout.scheduledItem.rejected(new RejectedExecutionException("ThreadScheduler closed before delayed job was due"));
+		dispatcher.close();
 	}
 }
@@ -0,0 +1,403 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.metrics.Metrics;
+import com.moparisthebest.jbgjob.result.ExecutionResult;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds a bounded FIFO backlog per queue, and hands jobs from them to one shared ScheduledItemExecutor using deficit
+ * round robin, so each queue with work gets a share of the executor's threads proportional to its weight, and a backlog
+ * in one queue can't starve the others.
+ * <p/>
+ * The executor should block when saturated, so the backlog stays here where it can be ordered fairly, instead of in the
+ * executor's own FIFO queue.
+ * <p/>
+ * Each queue is published over JMX as a QueueMetricsMBean.
+ */
+public class WeightedFairDispatcher implements Runnable, Closeable {
+
+	public static final int defaultQueueCapacity = ScheduledItemExecutor.getIntSystemProperty("scheduler.queue.capacity", 10000);
+	public static final int defaultQueueWeight = ScheduledItemExecutor.getIntSystemProperty("scheduler.queue.weight", 1);
+
+	/**
+	 * Configuration of a single queue
+	 */
+	public static class QueueConfig {
+		/**
+		 * most jobs from this queue running at once, 0 or less means no limit other than the executor's
+		 */
+		public final int threads;
+		/**
+		 * most jobs waiting in this queue before scheduling more fails
+		 */
+		public final int capacity;
+		/**
+		 * jobs dispatched from this queue per round relative to other queues
+		 */
+		public final int weight;
+
+		public QueueConfig(final int threads, final int capacity, final int weight) {
+			if (capacity < 1 || weight < 1)
+				throw new IllegalArgumentException("capacity and weight must be at least 1");
+			this.threads = threads;
+			this.capacity = capacity;
+			this.weight = weight;
+		}
+
+		/**
+		 * @return config from system properties scheduler.queue.NAME.threads, .capacity, and .weight, falling back to
+		 * scheduler.queue.capacity (default 10000) and scheduler.queue.weight (default 1), and unlimited threads
+		 */
+		public static QueueConfig fromSystemProperties(final String queue) {
+			final String prefix = "scheduler.queue." + queue + ".";
+			return new QueueConfig(ScheduledItemExecutor.getIntSystemProperty(prefix + "threads", 0),
+					ScheduledItemExecutor.getIntSystemProperty(prefix + "capacity", defaultQueueCapacity),
+					ScheduledItemExecutor.getIntSystemProperty(prefix + "weight", defaultQueueWeight));
+		}
+
+		@Override
+		public String toString() {
+			return "QueueConfig{" +
+					"threads=" + threads +
+					", capacity=" + capacity +
+					", weight=" + weight +
+					'}';
+		}
+	}
+
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	private final ScheduledItemExecutor executor;
+	private final Map<String, QueueConfig> configs;
+	private final String name = "dispatcher-" + ids.incrementAndGet();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	// all guarded by lock
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+	private final ArrayDeque<Lane> active = new ArrayDeque<Lane>();
+	private int waiting = 0;
+	private boolean closed = false;
+
+	private final Thread thread;
+
+	/**
+	 * @param configs per queue configuration, queues not in here are configured by QueueConfig.fromSystemProperties
+	 */
+	public WeightedFairDispatcher(final ScheduledItemExecutor executor, final Map<String, QueueConfig> configs) {
+		if (executor == null)
+			throw new NullPointerException("executor cannot be null!");
+		this.executor = executor;
+		this.configs = configs == null ? new HashMap<String, QueueConfig>() : new HashMap<String, QueueConfig>(configs);
+		this.thread = new Thread(this, "WeightedFairDispatcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * @return false if queue is full, otherwise scheduledItem will be sent to the executor in its turn
+	 * @throws RejectedExecutionException if this has been closed
+	 */
+	public boolean offer(final String queue, final ScheduledItem<?> scheduledItem) {
+		lock.lock();
+		try {
+			if (closed)
+				throw new RejectedExecutionException("WeightedFairDispatcher has been closed");
+			final Lane lane = getLane(queue);
+			if (lane.items.size() >= lane.config.capacity) {
+				++lane.full;
+				return false;
+			}
+			lane.items.add(scheduledItem);
+			++lane.scheduled;
+			if (!lane.active) {
+				lane.active = true;
+				active.add(lane);
+			}
+			++waiting;
+			changed.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Like offer for each, under a single acquisition of the lock, so none of them run until all are in queue.
+	 *
+	 * @return one element per ScheduledItem in iteration order, false for those that didn't fit in queue
+	 * @throws RejectedExecutionException if this has been closed
+	 */
+	public boolean[] offerAll(final String queue, final Collection<? extends ScheduledItem<?>> scheduledItems) {
+		final boolean[] ret = new boolean[scheduledItems.size()];
+		lock.lock();
+		try {
+			if (closed)
+				throw new RejectedExecutionException("WeightedFairDispatcher has been closed");
+			final Lane lane = getLane(queue);
+			int x = 0, added = 0;
+			for (final ScheduledItem<?> scheduledItem : scheduledItems) {
+				if (lane.items.size() >= lane.config.capacity) {
+					lane.full += ret.length - x;
+					break;
+				}
+				lane.items.add(scheduledItem);
+				ret[x++] = true;
+				++added;
+			}
+			if (added > 0) {
+				lane.scheduled += added;
+				if (!lane.active) {
+					lane.active = true;
+					active.add(lane);
+				}
+				waiting += added;
+				changed.signal();
+			}
+			return ret;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private Lane getLane(final String queue) {
+		Lane lane = lanes.get(queue);
+		if (lane == null) {
+			QueueConfig config = configs.get(queue);
+			if (config == null)
+				config = QueueConfig.fromSystemProperties(queue);
+			lanes.put(queue, lane = new Lane(queue, config));
+			try {
+				lane.objectName = Metrics.register(new StandardMBean(lane, QueueMetricsMBean.class), "type=Queue,dispatcher=" + name + ",name=" + Metrics.quote(queue));
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+		return lane;
+	}
+
+	/**
+	 * Deficit round robin over lanes with waiting jobs, skipping those already at their thread limit, must hold lock
+	 *
+	 * @return lane to take the next job from, or null if none can run right now
+	 */
+	private Lane next() {
+		for (int checked = active.size(); checked > 0; --checked) {
+			final Lane lane = active.peek();
+			if (lane.config.threads > 0 && lane.inFlight >= lane.config.threads) {
+				// at its limit, let the others go, and it doesn't accumulate credit while waiting
+				lane.deficit = 0;
+				active.add(active.poll());
+				continue;
+			}
+			if (lane.deficit <= 0)
+				lane.deficit = lane.config.weight;
+			return lane;
+		}
+		return null;
+	}
+
+	/**
+	 * Take the next job from lane returned by next(), must hold lock
+	 */
+	private ScheduledItem<?> take(final Lane lane) {
+		final ScheduledItem<?> ret = lane.items.poll();
+		--lane.deficit;
+		++lane.inFlight;
+		--waiting;
+		if (lane.items.isEmpty()) {
+			active.poll();
+			lane.active = false;
+			lane.deficit = 0;
+		} else if (lane.deficit <= 0) {
+			// used up its share this round, to the back of the line
+			active.add(active.poll());
+		}
+		return ret;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			final ScheduledItem<?> scheduledItem;
+			final Lane lane;
+			lock.lock();
+			try {
+				Lane next;
+				while ((next = next()) == null) {
+					if (closed && waiting == 0) {
+						for (final Lane l : lanes.values())
+							Metrics.unregister(l.objectName);
+						executor.close();
+						return;
+					}
+					changed.awaitUninterruptibly();
+				}
+				lane = next;
+				scheduledItem = take(lane);
+			} finally {
+				lock.unlock();
+			}
+			try {
+				// blocks when the executor is saturated, which is what keeps the backlog in the lanes
+				executor.execute(scheduledItem, lane);
+			} catch (RejectedExecutionException e) {
+				// never going to run, execute already told both the lane and whoever scheduled it
+				e.printStackTrace();
+			} catch (Throwable e) {
+				e.printStackTrace();
+				scheduledItem.withResult(lane).rejected(e);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private class Lane implements ExecutionResult, QueueMetricsMBean {
+		private final String name;
+		private final QueueConfig config;
+		private final ArrayDeque<ScheduledItem<?>> items = new ArrayDeque<ScheduledItem<?>>();
+		private int inFlight = 0, deficit = 0;
+		private long scheduled = 0, full = 0;
+		private boolean active = false;
+		private ObjectName objectName;
+
+		private Lane(final String name, final QueueConfig config) {
+			this.name = name;
+			this.config = config;
+		}
+
+		private void done() {
+			lock.lock();
+			try {
+				--inFlight;
+				changed.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int getThreads() {
+			return config.threads;
+		}
+
+		@Override
+		public int getCapacity() {
+			return config.capacity;
+		}
+
+		@Override
+		public int getWeight() {
+			return config.weight;
+		}
+
+		@Override
+		public int getWaiting() {
+			lock.lock();
+			try {
+				return items.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int getInFlight() {
+			lock.lock();
+			try {
+				return inFlight;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public long getScheduled() {
+			lock.lock();
+			try {
+				return scheduled;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public long getFull() {
+			lock.lock();
+			try {
+				return full;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void success() {
+			done();
+		}
+
+		@Override
+		public void error(final Throwable e) {
+			done();
+		}
+
+		@Override
+		public String toString() {
+			return "Lane{" +
+					"name='" + name + '\'' +
+					", config=" + config +
+					", waiting=" + items.size() +
+					", inFlight=" + inFlight +
+					'}';
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimerTest {
+
+	private static ScheduledItem<PrintDTO> item(final String message) {
+		return new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO(message));
+	}
+
+	@Test
+	public void testExpiresInOrderNotEarly() throws Throwable {
+		final List<String> expired = new CopyOnWriteArrayList<String>();
+		final CountDownLatch latch = new CountDownLatch(3);
+		final long start = System.nanoTime();
+		final long[] elapsed = new long[1];
+		// tiny wheel so the 300ms timeout needs several rounds
+		final HashedWheelTimer timer = new HashedWheelTimer(new HashedWheelTimer.Expiry() {
+			@Override
+			public void expired(final List<HashedWheelTimer.Timeout> due) {
+				for (final HashedWheelTimer.Timeout timeout : due) {
+					expired.add(timeout.queue);
+					elapsed[0] = System.nanoTime() - start;
+					latch.countDown();
+				}
+			}
+		}, 10, TimeUnit.MILLISECONDS, 8);
+		try {
+			timer.newTimeout("300", item("300"), 300, TimeUnit.MILLISECONDS);
+			timer.newTimeout("0", item("0"), 0, TimeUnit.MILLISECONDS);
+			timer.newTimeout("100", item("100"), 100, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals("[0, 100, 300]", expired.toString());
+			Assert.assertTrue("elapsed: " + elapsed[0], elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(300));
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testCancelAndStop() throws Throwable {
+		final List<String> expired = new CopyOnWriteArrayList<String>();
+		final HashedWheelTimer timer = new HashedWheelTimer(new HashedWheelTimer.Expiry() {
+			@Override
+			public void expired(final List<HashedWheelTimer.Timeout> due) {
+				for (final HashedWheelTimer.Timeout timeout : due)
+					expired.add(timeout.queue);
+			}
+		});
+		final List<HashedWheelTimer.Timeout> cancelled = new ArrayList<HashedWheelTimer.Timeout>();
+		for (int x = 0; x < 10000; ++x) {
+			final HashedWheelTimer.Timeout timeout = timer.newTimeout("cancelled", item("cancelled " + x), 50, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(timeout.cancel());
+			cancelled.add(timeout);
+		}
+		final HashedWheelTimer.Timeout later = timer.newTimeout("later", item("later"), 1, TimeUnit.HOURS);
+		Assert.assertFalse(cancelled.get(0).cancel());
+		Thread.sleep(200);
+		final List<HashedWheelTimer.Timeout> unprocessed = timer.stop();
+		Assert.assertTrue(expired.isEmpty());
+		Assert.assertEquals(1, unprocessed.size());
+		Assert.assertSame(later, unprocessed.get(0));
+		Assert.assertFalse(later.isExpired());
+		try {
+			timer.newTimeout("stopped", item("stopped"), 0, TimeUnit.MILLISECONDS);
+			Assert.fail("should have thrown IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNothingLostAddingWhileStopping() throws Throwable {
+		for (int run = 0; run < 20; ++run) {
+			final AtomicInteger expired = new AtomicInteger(), refused = new AtomicInteger();
+			final HashedWheelTimer timer = new HashedWheelTimer(new HashedWheelTimer.Expiry() {
+				@Override
+				public void expired(final List<HashedWheelTimer.Timeout> due) {
+					expired.addAndGet(due.size());
+				}
+			}, 1, TimeUnit.MILLISECONDS, 8);
+			final int perThread = 2000;
+			final Thread[] adders = new Thread[4];
+			final CountDownLatch started = new CountDownLatch(adders.length);
+			for (int x = 0; x < adders.length; ++x) {
+				adders[x] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						started.countDown();
+						for (int y = 0; y < perThread; ++y)
+							try {
+								timer.newTimeout("racing", item("racing"), y % 3, TimeUnit.MILLISECONDS);
+							} catch (IllegalStateException e) {
+								refused.incrementAndGet();
+							}
+					}
+				});
+				adders[x].start();
+			}
+			started.await();
+			final List<HashedWheelTimer.Timeout> unprocessed = timer.stop();
+			for (final Thread adder : adders)
+				adder.join();
+			// every one either expired, was handed back by stop, or was refused with an exception
+			Assert.assertEquals(adders.length * perThread, expired.get() + unprocessed.size() + refused.get());
+		}
+	}
+}
@@ -20,7 +20,15 @@
 
 package com.moparisthebest.jbgjob;
 
+import com.moparisthebest.jbgjob.result.FutureExecutionResult;
+import com.moparisthebest.jbgjob.test.PrintDTO;
+import com.moparisthebest.jbgjob.test.PrintingJob;
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
 public class ThreadSchedulerTest extends AbstractSchedulerTests {
 
@@ -28,4 +36,35 @@ public class ThreadSchedulerTest extends AbstractSchedulerTests {
 	public static void setUp() throws Throwable {
 		bg = new ThreadScheduler();
 	}
+
+	@Test
+	public void testScheduleDelayed() throws Throwable {
+		final ScheduledItem<PrintDTO> scheduledItem = new ScheduledItem<PrintDTO>(PrintingJob.class, new PrintDTO("delayed"));
+		final FutureExecutionResult result = new FutureExecutionResult();
+		scheduledItem.setResult(result);
+		final long start = System.currentTimeMillis();
+		Assert.assertTrue(bg.schedule(AbstractScheduler.defaultQueue, scheduledItem, Instant.ofEpochMilli(start + 200)));
+		Assert.assertTrue(result.getFuture().get(30, TimeUnit.SECONDS));
+		Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+	}
+
+	@Test
+	public void testCancelDelayed() throws Throwable {
+		final HashedWheelTimer.Timeout timeout = ((ThreadScheduler) bg).schedule(AbstractScheduler.defaultQueue, PrintingJob.class, new PrintDTO("cancelled", true), 1, TimeUnit.HOURS);
+		Assert.assertTrue(timeout.cancel());
+		Assert.assertTrue(timeout.isCancelled());
+	}
+
+	@Test
+	public void testNoTimerOnceClosed() throws Throwable {
+		final ThreadScheduler closed = new ThreadScheduler();
+		closed.close();
+		try {
+			closed.schedule(AbstractScheduler.defaultQueue, PrintingJob.class, new PrintDTO("too late"), 1, TimeUnit.SECONDS);
+			Assert.fail("should have thrown IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertFalse(closed.schedule(AbstractScheduler.defaultQueue, PrintingJob.class, new PrintDTO("too late"), Instant.now().plusSeconds(1)));
+	}
 }
@@ -0,0 +1,135 @@
+/*
+ * jBgJob (Java Background Job) lets you schedule Java jobs to be ran in the background.  They can run in any
+ * combination of other threads in the same JVM, other JVMs, or multiple other JVMs, even on different machines.
+ * Copyright (C) 2013 Travis Burtrum (moparisthebest)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.moparisthebest.jbgjob;
+
+import com.moparisthebest.jbgjob.pool.ObjectPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WeightedFairDispatcherTest {
+
+	private static final List<String> order = new CopyOnWriteArrayList<String>();
+	private static final CountDownLatch[] gate = new CountDownLatch[1];
+
+	public static class GatedJob implements BackgroundJob<String> {
+		@Override
+		public void process(final String dto) {
+			try {
+				gate[0].await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public static class RecordingJob extends GatedJob {
+		@Override
+		public void process(final String dto) {
+			super.process(dto);
+			order.add(dto);
+		}
+	}
+
+	private static int lastIndexOf(final String prefix) {
+		int ret = -1;
+		for (int x = 0; x < order.size(); ++x)
+			if (order.get(x).startsWith(prefix))
+				ret = x;
+		return ret;
+	}
+
+	private static void run(final Map<String, WeightedFairDispatcher.QueueConfig> configs, final int bulk, final int fast) throws Throwable {
+		order.clear();
+		gate[0] = new CountDownLatch(1);
+		final ThreadScheduler scheduler = new ThreadScheduler(new ScheduledItemExecutor(1, 1, SaturationPolicy.block(), new ObjectPool()), configs);
+		try {
+			for (int x = 0; x < bulk; ++x)
+				Assert.assertTrue(scheduler.schedule("bulk", RecordingJob.class, "bulk " + x));
+			for (int x = 0; x < fast; ++x)
+				Assert.assertTrue(scheduler.schedule("fast", RecordingJob.class, "fast " + x));
+		} finally {
+			gate[0].countDown();
+			scheduler.close();
+		}
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (order.size() < bulk + fast && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		Assert.assertEquals(bulk + fast, order.size());
+	}
+
+	@Test
+	public void testBacklogDoesNotStarve() throws Throwable {
+		run(null, 50, 5);
+		// a few bulk jobs were already handed to the executor before any fast ones arrived, after that they alternate
+		Assert.assertTrue("order: " + order, lastIndexOf("fast") < 15);
+	}
+
+	@Test
+	public void testWeight() throws Throwable {
+		final Map<String, WeightedFairDispatcher.QueueConfig> configs = new HashMap<String, WeightedFairDispatcher.QueueConfig>();
+		configs.put("fast", new WeightedFairDispatcher.QueueConfig(0, 100, 5));
+		run(configs, 50, 20);
+		// 5 fast for every bulk once both are waiting
+		Assert.assertTrue("order: " + order, lastIndexOf("fast") < 30);
+	}
+
+	@Test
+	public void testCapacity() throws Throwable {
+		gate[0] = new CountDownLatch(1);
+		final ThreadScheduler scheduler = new ThreadScheduler(new ScheduledItemExecutor(1, 1, SaturationPolicy.block(), new ObjectPool()),
+				Collections.singletonMap("small", new WeightedFairDispatcher.QueueConfig(0, 2, 1)));
+		try {
+			int scheduled = 0;
+			for (int x = 0; x < 10; ++x)
+				if (scheduler.schedule("small", GatedJob.class, "small " + x))
+					++scheduled;
+			// 2 waiting in the queue, at most 3 more taken by the executor's thread, its queue, and the dispatcher
+			Assert.assertTrue("scheduled: " + scheduled, scheduled >= 2 && scheduled <= 5);
+		} finally {
+			gate[0].countDown();
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testScheduleAllCapacity() throws Throwable {
+		gate[0] = new CountDownLatch(1);
+		final ThreadScheduler scheduler = new ThreadScheduler(new ScheduledItemExecutor(1, 1, SaturationPolicy.block(), new ObjectPool()),
+				Collections.singletonMap("small", new WeightedFairDispatcher.QueueConfig(0, 2, 1)));
+		try {
+			// all offered under one lock, so nothing is taken out of the queue before it fills up
+			final boolean[] scheduled = scheduler.scheduleAll("small", GatedJob.class, Arrays.asList("all 0", "all 1", "all 2", "all 3"));
+			Assert.assertEquals(Arrays.toString(new boolean[]{true, true, false, false}), Arrays.toString(scheduled));
+		} finally {
+			gate[0].countDown();
+			scheduler.close();
+		}
+	}
+}